@@ -26,26 +26,41 @@ void Java_org_vimgadgets_linebreak_LineBreaker_init(JNIEnv *env, jobject thiz) {
 	init_linebreak();
 }
 
+static const size_t LOCAL_BUFFER_SIZE = 1024;
+
 extern "C"
 void Java_org_vimgadgets_linebreak_LineBreaker_setLineBreaksForCharArray(JNIEnv *env, jobject thiz, jcharArray data, jint offset, jint length, jstring lang, jbyteArray breaks) {
-	jchar* dataArray = env->GetCharArrayElements(data, 0);
-	jbyte* breaksArray = env->GetByteArrayElements(breaks, 0);
+	if (length <= 0) {
+		return;
+	}
+
+	// only the [offset, offset + length) slice is copied, not the whole (up to 64K) block
+	jchar localData[LOCAL_BUFFER_SIZE];
+	char localBreaks[LOCAL_BUFFER_SIZE];
+	jchar *dataArray = (size_t)length <= LOCAL_BUFFER_SIZE ? localData : new jchar[length];
+	char *breaksArray = (size_t)length <= LOCAL_BUFFER_SIZE ? localBreaks : new char[length];
+
+	env->GetCharArrayRegion(data, offset, length, dataArray);
 	const char *langArray = (lang != 0) ? env->GetStringUTFChars(lang, 0) : 0;
 
-	set_linebreaks_utf16(dataArray + offset, length, langArray, (char*)breaksArray);
-	const jchar* start = dataArray + offset;
-	const jchar* end = start + length;
-	for (const jchar* ptr = start; ptr < end; ++ptr) {
-		if (*ptr == (jchar)0xAD) {
-			breaksArray[ptr - start] = LINEBREAK_NOBREAK;
+	set_linebreaks_utf16(dataArray, length, langArray, breaksArray);
+	for (jint i = 0; i < length; ++i) {
+		if (dataArray[i] == (jchar)0xAD) {
+			breaksArray[i] = LINEBREAK_NOBREAK;
 		}
 	}
 
 	if (lang != 0) {
-  	env->ReleaseStringUTFChars(lang, langArray);
+		env->ReleaseStringUTFChars(lang, langArray);
+	}
+	env->SetByteArrayRegion(breaks, 0, length, (const jbyte*)breaksArray);
+
+	if (dataArray != localData) {
+		delete[] dataArray;
+	}
+	if (breaksArray != localBreaks) {
+		delete[] breaksArray;
 	}
-	env->ReleaseByteArrayElements(breaks, breaksArray, 0);
-	env->ReleaseCharArrayElements(data, dataArray, 0);
 }
 
 extern "C"
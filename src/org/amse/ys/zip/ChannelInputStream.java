@@ -0,0 +1,64 @@
+package org.amse.ys.zip;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream over a shared file channel; every stream keeps its own position
+ * and uses positional reads only, so streams over the same channel
+ * can be used concurrently. Skipping is O(1).
+ */
+final class ChannelInputStream extends InputStream {
+	private final ZipFile.FileChannelHolder myHolder;
+	private long myPosition;
+
+	ChannelInputStream(ZipFile.FileChannelHolder holder) {
+		myHolder = holder;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int)Math.min(Math.max(myHolder.channel().size() - myPosition, 0), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] data = new byte[1];
+		return read(data, 0, 1) == 1 ? data[0] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		final FileChannel channel = myHolder.channel();
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			final int ready = channel.read(buffer, myPosition + total);
+			if (ready <= 0) {
+				break;
+			}
+			total += ready;
+		}
+		myPosition += total;
+		return total > 0 ? total : -1;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		final long skipped = Math.min(n, Math.max(myHolder.channel().size() - myPosition, 0));
+		myPosition += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() {
+		// the channel is shared; it is closed with the ZipFile
+	}
+}
@@ -12,6 +12,8 @@ public class LocalFileHeader {
 	static final int FOLDER_HEADER_SIGNATURE = 0x02014b50;
 	static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
 	static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
 
 	int Signature;
 
@@ -27,7 +29,9 @@ public class LocalFileHeader {
 	int ExtraLength;
 
 	public String FileName;
+	// -1 for headers read from central directory until the local header is checked
 	int DataOffset;
+	int LocalHeaderOffset;
 
 	LocalFileHeader() {
 	}
@@ -19,7 +19,7 @@ final class MyBufferedInputStream extends InputStream {
 	}
 
 	public MyBufferedInputStream(ZipFile.InputStreamHolder streamHolder) throws IOException {
-		this(streamHolder, 1 << 10);
+		this(streamHolder, 1 << 13);
 	}
 
 	public int available() throws IOException {
@@ -1,6 +1,7 @@
 package org.amse.ys.zip;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 public final class ZipFile {
@@ -8,15 +9,33 @@ public final class ZipFile {
 		InputStream getInputStream() throws IOException;
 	}
 
-	private static final class FileInputStreamHolder implements InputStreamHolder {
+	static final class FileChannelHolder implements InputStreamHolder {
 		private final String myFilePath;
+		private RandomAccessFile myFile;
 
-		FileInputStreamHolder(String filePath) {
+		FileChannelHolder(String filePath) {
 			myFilePath = filePath;
 		}
 
+		synchronized FileChannel channel() throws IOException {
+			if (myFile == null) {
+				myFile = new RandomAccessFile(myFilePath, "r");
+			}
+			return myFile.getChannel();
+		}
+
+		synchronized void close() {
+			if (myFile != null) {
+				try {
+					myFile.close();
+				} catch (IOException e) {
+				}
+				myFile = null;
+			}
+		}
+
 		public InputStream getInputStream() throws IOException {
-			return new FileInputStream(myFilePath);
+			return new ChannelInputStream(this);
 		}
 	}
 
@@ -36,9 +55,10 @@ public final class ZipFile {
 	};
 
 	private boolean myAllFilesAreRead;
+	private boolean myCentralDirectoryIsChecked;
 
 	public ZipFile(String filePath) {
-		this(new FileInputStreamHolder(filePath));
+		this(new FileChannelHolder(filePath));
 	}
 
 	public ZipFile(InputStreamHolder streamHolder) {
@@ -47,6 +67,7 @@ public final class ZipFile {
 
 	public Collection<LocalFileHeader> headers() {
 		try {
+			checkCentralDirectory();
 			readAllHeaders();
 		} catch (IOException e) {
 		}
@@ -93,6 +114,199 @@ public final class ZipFile {
 		}
 	}
 
+	private static int getShort(byte[] data, int offset) {
+		return (data[offset] & 0xFF) + ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	private static int getInt(byte[] data, int offset) {
+		return getShort(data, offset) + (getShort(data, offset + 2) << 16);
+	}
+
+	private static long getLong(byte[] data, int offset) {
+		return (getInt(data, offset) & 0xFFFFFFFFL) + ((getInt(data, offset + 4) & 0xFFFFFFFFL) << 32);
+	}
+
+	private static int toInt(long value) throws ZipException {
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new ZipException("Archive is too large");
+		}
+		return (int)value;
+	}
+
+	private static void readFully(MyBufferedInputStream stream, byte[] data) throws IOException {
+		for (int offset = 0; offset < data.length; ) {
+			final int len = stream.read(data, offset, data.length - offset);
+			if (len <= 0) {
+				throw new ZipException("unexpected end of file at position " + stream.offset());
+			}
+			offset += len;
+		}
+	}
+
+	private synchronized void checkCentralDirectory() {
+		if (myCentralDirectoryIsChecked) {
+			return;
+		}
+		myCentralDirectoryIsChecked = true;
+
+		try {
+			final List<LocalFileHeader> headers = readCentralDirectory();
+			if (headers != null) {
+				myFileHeaders.clear();
+				for (LocalFileHeader header : headers) {
+					myFileHeaders.put(header.FileName, header);
+				}
+				myAllFilesAreRead = true;
+			}
+		} catch (IOException e) {
+			// broken or truncated archive; local headers will be scanned
+		}
+	}
+
+	/**
+	 * Reads all the entries from central directory, using ZIP64 records if any;
+	 * returns null if the end of central directory record is not found
+	 */
+	private List<LocalFileHeader> readCentralDirectory() throws IOException {
+		MyBufferedInputStream baseStream = getBaseStream();
+		try {
+			baseStream.setPosition(0);
+			final int fileSize = baseStream.available();
+			if (fileSize < 22 || fileSize == Integer.MAX_VALUE) {
+				return null;
+			}
+
+			final int tailSize = Math.min(fileSize, 22 + 0xFFFF + 20);
+			final int tailOffset = fileSize - tailSize;
+			baseStream.setPosition(tailOffset);
+			final byte[] tail = new byte[tailSize];
+			readFully(baseStream, tail);
+
+			int eocd = tailSize - 22;
+			while (eocd >= 0 &&
+				getInt(tail, eocd) != LocalFileHeader.END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				--eocd;
+			}
+			if (eocd < 0) {
+				return null;
+			}
+
+			long entriesNumber = getShort(tail, eocd + 10);
+			long directorySize = getInt(tail, eocd + 12) & 0xFFFFFFFFL;
+			long directoryOffset = getInt(tail, eocd + 16) & 0xFFFFFFFFL;
+
+			final int locator = eocd - 20;
+			if (locator >= 0 &&
+				getInt(tail, locator) == LocalFileHeader.ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+				final int zip64Offset = toInt(getLong(tail, locator + 8));
+				final byte[] zip64 = new byte[56];
+				baseStream.setPosition(zip64Offset);
+				readFully(baseStream, zip64);
+				if (getInt(zip64, 0) != LocalFileHeader.ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+					return null;
+				}
+				entriesNumber = getLong(zip64, 32);
+				directorySize = getLong(zip64, 40);
+				directoryOffset = getLong(zip64, 48);
+			}
+
+			final byte[] directory = new byte[toInt(directorySize)];
+			baseStream.setPosition(toInt(directoryOffset));
+			readFully(baseStream, directory);
+
+			final ArrayList<LocalFileHeader> headers = new ArrayList<LocalFileHeader>();
+			for (int offset = 0; offset + 46 <= directory.length; ) {
+				if (getInt(directory, offset) != LocalFileHeader.FOLDER_HEADER_SIGNATURE) {
+					break;
+				}
+				final LocalFileHeader header = new LocalFileHeader();
+				header.Signature = LocalFileHeader.FILE_HEADER_SIGNATURE;
+				header.Version = getShort(directory, offset + 6);
+				header.Flags = getShort(directory, offset + 8);
+				header.CompressionMethod = getShort(directory, offset + 10);
+				header.ModificationTime = getShort(directory, offset + 12);
+				header.ModificationDate = getShort(directory, offset + 14);
+				header.CRC32 = getInt(directory, offset + 16);
+				long compressedSize = getInt(directory, offset + 20) & 0xFFFFFFFFL;
+				long uncompressedSize = getInt(directory, offset + 24) & 0xFFFFFFFFL;
+				header.NameLength = getShort(directory, offset + 28);
+				header.ExtraLength = getShort(directory, offset + 30);
+				final int commentLength = getShort(directory, offset + 32);
+				long localHeaderOffset = getInt(directory, offset + 42) & 0xFFFFFFFFL;
+				offset += 46;
+
+				final char[] name = new char[header.NameLength];
+				for (int i = 0; i < name.length; ++i) {
+					name[i] = (char)(directory[offset + i] & 0xFF);
+				}
+				header.FileName = new String(name);
+				offset += header.NameLength;
+
+				for (int extra = offset; extra + 4 <= offset + header.ExtraLength; ) {
+					final int id = getShort(directory, extra);
+					final int size = getShort(directory, extra + 2);
+					extra += 4;
+					if (id == 0x0001) {
+						int field = extra;
+						if (uncompressedSize == 0xFFFFFFFFL) {
+							uncompressedSize = getLong(directory, field);
+							field += 8;
+						}
+						if (compressedSize == 0xFFFFFFFFL) {
+							compressedSize = getLong(directory, field);
+							field += 8;
+						}
+						if (localHeaderOffset == 0xFFFFFFFFL) {
+							localHeaderOffset = getLong(directory, field);
+						}
+					}
+					extra += size;
+				}
+				offset += header.ExtraLength + commentLength;
+
+				header.CompressedSize = toInt(compressedSize);
+				header.UncompressedSize = toInt(uncompressedSize);
+				if (header.CompressionMethod == 0 && header.CompressedSize != header.UncompressedSize) {
+					header.CompressedSize = header.UncompressedSize;
+				}
+				header.LocalHeaderOffset = toInt(localHeaderOffset);
+				header.DataOffset = -1;
+				headers.add(header);
+			}
+			if (headers.size() != entriesNumber) {
+				return null;
+			}
+			return headers;
+		} finally {
+			storeBaseStream(baseStream);
+		}
+	}
+
+	/**
+	 * Local header can contain extra field of a length different from
+	 * the one in central directory, so data offset is computed on demand
+	 */
+	private void resolveDataOffset(LocalFileHeader header) throws IOException {
+		synchronized (header) {
+			if (header.DataOffset != -1) {
+				return;
+			}
+			MyBufferedInputStream baseStream = getBaseStream();
+			try {
+				baseStream.setPosition(header.LocalHeaderOffset);
+				final byte[] data = new byte[30];
+				readFully(baseStream, data);
+				if (getInt(data, 0) != LocalFileHeader.FILE_HEADER_SIGNATURE) {
+					throw new ZipException("Local header for " + header.FileName + " is not found");
+				}
+				header.DataOffset =
+					header.LocalHeaderOffset + 30 + getShort(data, 26) + getShort(data, 28);
+			} finally {
+				storeBaseStream(baseStream);
+			}
+		}
+	}
+
 	/**
 	 * Finds descriptor of the last header and installs sizes of files
 	 */
@@ -111,17 +325,55 @@ public final class ZipFile {
 	}
 
 	private final Queue<MyBufferedInputStream> myStoredStreams = new LinkedList<MyBufferedInputStream>();
+	private int myActiveStreamsNumber;
+	private boolean myIsClosed;
 
 	synchronized void storeBaseStream(MyBufferedInputStream baseStream) {
 		myStoredStreams.add(baseStream);
+		--myActiveStreamsNumber;
+		if (myIsClosed) {
+			releaseResources();
+		}
 	}
 
 	synchronized MyBufferedInputStream getBaseStream() throws IOException {
 		MyBufferedInputStream baseStream = myStoredStreams.poll();
-		return (baseStream != null) ? baseStream : new MyBufferedInputStream(myStreamHolder);
+		if (baseStream == null) {
+			baseStream = new MyBufferedInputStream(myStreamHolder);
+		}
+		++myActiveStreamsNumber;
+		return baseStream;
+	}
+
+	/**
+	 * Releases the file handle as soon as all the entry streams are closed;
+	 * the ZipFile stays usable, but a closed ZipFile does not keep the file
+	 * open: a handle reopened on demand is released again as soon as
+	 * the streams using it are closed
+	 */
+	public synchronized void close() {
+		myIsClosed = true;
+		releaseResources();
+	}
+
+	private void releaseResources() {
+		if (myActiveStreamsNumber > 0) {
+			return;
+		}
+		for (MyBufferedInputStream stream : myStoredStreams) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+			}
+		}
+		myStoredStreams.clear();
+		if (myStreamHolder instanceof FileChannelHolder) {
+			((FileChannelHolder)myStreamHolder).close();
+		}
 	}
 
 	private ZipInputStream createZipInputStream(LocalFileHeader header) throws IOException {
+		resolveDataOffset(header);
 		return new ZipInputStream(this, header);
 	}
 
@@ -142,6 +394,7 @@ public final class ZipFile {
 	}
 
 	public LocalFileHeader getHeader(String entryName) throws IOException {
+		checkCentralDirectory();
 		if (!myFileHeaders.isEmpty()) {
 			LocalFileHeader header = myFileHeaders.get(entryName);
 			if (header != null) {
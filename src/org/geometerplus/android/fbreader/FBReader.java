@@ -40,6 +40,7 @@ import org.geometerplus.zlibrary.text.hyphenation.ZLTextHyphenator;
 
 import org.geometerplus.zlibrary.ui.android.R;
 import org.geometerplus.zlibrary.ui.android.application.ZLAndroidApplicationWindow;
+import org.geometerplus.zlibrary.ui.android.image.ZLAndroidBitmapCache;
 import org.geometerplus.zlibrary.ui.android.library.*;
 import org.geometerplus.zlibrary.ui.android.view.AndroidFontUtil;
 import org.geometerplus.zlibrary.ui.android.view.ZLAndroidWidget;
@@ -294,18 +295,25 @@ public final class FBReader extends Activity {
 			});
 		} else if (Intent.ACTION_SEARCH.equals(action)) {
 			final String pattern = intent.getStringExtra(SearchManager.QUERY);
-			final Runnable runnable = new Runnable() {
-				public void run() {
-					final TextSearchPopup popup = (TextSearchPopup)myFBReaderApp.getPopupById(TextSearchPopup.ID);
-					popup.initPosition();
-					myFBReaderApp.TextSearchPatternOption.setValue(pattern);
-					if (myFBReaderApp.getTextView().search(pattern, true, false, false, false) != 0) {
+			final TextSearchPopup popup = (TextSearchPopup)myFBReaderApp.getPopupById(TextSearchPopup.ID);
+			popup.initPosition();
+			myFBReaderApp.TextSearchPatternOption.setValue(pattern);
+			myFBReaderApp.getTextView().search(pattern, true, false, false, false, new ZLTextView.SearchListener() {
+				private boolean myPopupIsShown;
+
+				public void onMarksFound(int count) {
+					if (!myPopupIsShown) {
+						myPopupIsShown = true;
 						runOnUiThread(new Runnable() {
 							public void run() {
 								myFBReaderApp.showPopup(popup.getId());
 							}
 						});
-					} else {
+					}
+				}
+
+				public void onSearchFinished(int count) {
+					if (count == 0) {
 						runOnUiThread(new Runnable() {
 							public void run() {
 								UIUtil.showErrorMessage(FBReader.this, "textNotFound");
@@ -314,8 +322,7 @@ public final class FBReader extends Activity {
 						});
 					}
 				}
-			};
-			UIUtil.wait("search", runnable, this);
+			});
 		} else {
 			super.onNewIntent(intent);
 		}
@@ -461,6 +468,7 @@ public final class FBReader extends Activity {
 	@Override
 	public void onLowMemory() {
 		myFBReaderApp.onWindowClosing();
+		ZLAndroidBitmapCache.clear();
 		super.onLowMemory();
 	}
 
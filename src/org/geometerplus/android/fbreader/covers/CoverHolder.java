@@ -20,12 +20,12 @@
 package org.geometerplus.android.fbreader.covers;
 
 import java.util.*;
-import java.util.concurrent.Future;
 
 import android.widget.ImageView;
 import android.graphics.Bitmap;
 
 import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.fbreader.tree.FBTree;
 
@@ -35,7 +35,7 @@ class CoverHolder {
 	volatile FBTree.Key Key;
 
 	private CoverSyncRunnable coverSyncRunnable;
-	Future<?> coverBitmapTask;
+	ZLTaskScheduler.Token coverBitmapTask;
 	private Runnable coverBitmapRunnable;
 
 	CoverHolder(CoverManager manager, ImageView coverView, FBTree.Key key) {
@@ -50,7 +50,7 @@ class CoverHolder {
 	synchronized void setKey(FBTree.Key key) {
 		if (!Key.equals(key)) {
 			if (coverBitmapTask != null) {
-				coverBitmapTask.cancel(true);
+				coverBitmapTask.cancel();
 				coverBitmapTask = null;
 			}
 			coverBitmapRunnable = null;
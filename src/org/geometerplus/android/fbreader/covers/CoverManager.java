@@ -20,9 +20,6 @@
 package org.geometerplus.android.fbreader.covers;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
@@ -30,6 +27,7 @@ import android.widget.ImageView;
 
 import org.geometerplus.zlibrary.core.image.ZLImage;
 import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.zlibrary.ui.android.image.ZLAndroidImageManager;
 import org.geometerplus.zlibrary.ui.android.image.ZLAndroidImageData;
@@ -39,17 +37,6 @@ import org.geometerplus.fbreader.tree.FBTree;
 public class CoverManager {
 	final CoverCache Cache = new CoverCache();
 
-	private static class MinPriorityThreadFactory implements ThreadFactory {
-		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
-
-		public Thread newThread(Runnable r) {
-			final Thread th = myDefaultThreadFactory.newThread(r);
-			th.setPriority(Thread.MIN_PRIORITY);
-			return th;
-		}
-	}
-	private final ExecutorService myPool = Executors.newFixedThreadPool(1, new MinPriorityThreadFactory());
-
 	private final Activity myActivity;
 	private final int myCoverWidth;
 	private final int myCoverHeight;
@@ -87,7 +74,9 @@ public class CoverManager {
 				if (coverBitmap != null) {
 					holder.CoverView.setImageBitmap(coverBitmap);
 				} else if (holder.coverBitmapTask == null) {
-					holder.coverBitmapTask = myPool.submit(holder.new CoverBitmapRunnable(image));
+					holder.coverBitmapTask = ZLTaskScheduler.submit(
+						ZLTaskScheduler.Lane.Load, holder.new CoverBitmapRunnable(image)
+					);
 				}
 			} catch (CoverCache.NullObjectException e) {
 			}
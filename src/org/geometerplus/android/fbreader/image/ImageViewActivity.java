@@ -103,9 +103,7 @@ public class ImageViewActivity extends Activity {
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		if (myBitmap != null) {
-			myBitmap.recycle();
-		}
+		// the bitmap can be shared via ZLAndroidBitmapCache, so it is not recycled here
 		myBitmap = null;
 	}
 
@@ -32,6 +32,7 @@ import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
 import org.geometerplus.zlibrary.core.resources.ZLResource;
 import org.geometerplus.zlibrary.core.util.MimeType;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.zlibrary.ui.android.R;
 
@@ -327,7 +328,8 @@ public class LibraryActivity extends TreeActivity<LibraryTree> implements MenuIt
 	private void startBookSearch(final String pattern) {
 		BookSearchPatternOption.setValue(pattern);
 
-		final Thread searcher = new Thread("Library.searchBooks") {
+		// a search for the same pattern waiting in the queue is not queued again
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Load, "Library.searchBooks:" + pattern, new Runnable() {
 			public void run() {
 				final SearchResultsTree oldSearchResults = myRootTree.getSearchResultsTree();
             
@@ -343,9 +345,7 @@ public class LibraryActivity extends TreeActivity<LibraryTree> implements MenuIt
 					onSearchEvent(false);
 				}
 			}
-		};
-		searcher.setPriority((Thread.MIN_PRIORITY + Thread.NORM_PRIORITY) / 2);
-		searcher.start();
+		});
 	}
 
 	private void onSearchEvent(final boolean found) {
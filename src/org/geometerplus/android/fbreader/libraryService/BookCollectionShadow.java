@@ -39,18 +39,40 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 	private volatile LibraryInterface myInterface;
 	private Runnable myOnBindAction;
 
-	private final BroadcastReceiver myReceiver = new BroadcastReceiver() {
-		public void onReceive(Context context, Intent intent) {
-			if (!hasListeners()) {
-				return;
+	// books are transferred in windows of this size, so every transaction stays small
+	private static final int PAGE_SIZE = 256;
+	private static final int BOOK_CACHE_SIZE = 1024;
+
+	// serialized books, kept up to date by book events; every call gets its own
+	// Book object, so changes made by one holder are not seen by the others.
+	// Guarded by itself, not by the collection lock, so the receiver never
+	// waits for a remote call
+	private final LinkedHashMap<Long,String> myBooksById =
+		new LinkedHashMap<Long,String>(BOOK_CACHE_SIZE, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long,String> eldest) {
+				return size() > BOOK_CACHE_SIZE;
 			}
+		};
 
+	private final BroadcastReceiver myReceiver = new BroadcastReceiver() {
+		public void onReceive(Context context, Intent intent) {
 			try {
 				final String type = intent.getStringExtra("type");
 				if (LibraryService.BOOK_EVENT_ACTION.equals(intent.getAction())) {
-					final Book book = SerializerUtil.deserializeBook(intent.getStringExtra("book"));
-					fireBookEvent(BookEvent.valueOf(type), book);
-				} else {
+					final BookEvent event = BookEvent.valueOf(type);
+					final String serialized = intent.getStringExtra("book");
+					final Book book;
+					if (event == BookEvent.Removed) {
+						book = SerializerUtil.deserializeBook(serialized);
+						uncache(book);
+					} else {
+						book = cache(serialized);
+					}
+					if (hasListeners()) {
+						fireBookEvent(event, book);
+					}
+				} else if (hasListeners()) {
 					fireBuildEvent(Status.valueOf(type));
 				}
 			} catch (Exception e) {
@@ -59,6 +81,38 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 		}
 	};
 
+	private Book cache(String serialized) {
+		final Book book = SerializerUtil.deserializeBook(serialized);
+		if (book != null) {
+			synchronized (myBooksById) {
+				myBooksById.put(book.getId(), serialized);
+			}
+		}
+		return book;
+	}
+
+	private void uncache(Book book) {
+		if (book != null) {
+			synchronized (myBooksById) {
+				myBooksById.remove(book.getId());
+			}
+		}
+	}
+
+	private Book cachedBook(long id) {
+		final String serialized;
+		synchronized (myBooksById) {
+			serialized = myBooksById.get(id);
+		}
+		return serialized != null ? SerializerUtil.deserializeBook(serialized) : null;
+	}
+
+	private void clearCache() {
+		synchronized (myBooksById) {
+			myBooksById.clear();
+		}
+	}
+
 	private static Runnable combined(final Runnable action0, final Runnable action1) {
 		if (action0 == null) {
 			return action1;
@@ -97,6 +151,7 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 			myInterface = null;
 			myContext = null;
 		}
+		clearCache();
 	}
 
 	public synchronized int size() {
@@ -121,76 +176,102 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 		}
 	}
 
-	public synchronized List<Book> books() {
+	public synchronized int size(BookQuery query) {
 		if (myInterface == null) {
-			return Collections.emptyList();
+			return 0;
 		}
 		try {
-			return SerializerUtil.deserializeBookList(myInterface.books());
+			return myInterface.booksCount(Util.queryToString(query));
 		} catch (RemoteException e) {
-			return Collections.emptyList();
+			return 0;
 		}
 	}
 
-	public synchronized List<Book> booksForAuthor(Author author) {
+	public synchronized List<Book> books(BookQuery query, int offset, int limit) {
 		if (myInterface == null) {
 			return Collections.emptyList();
 		}
+		final String queryString = Util.queryToString(query);
 		try {
-			return SerializerUtil.deserializeBookList(
-				myInterface.booksForAuthor(Util.authorToString(author))
-			);
+			// all the windows are read from one snapshot of the query result;
+			// if the service drops the snapshot, the listing is restarted
+			for (int attempt = 0; attempt < 3; ++attempt) {
+				final List<Book> books = booksFromSnapshot(
+					myInterface.openBooksSnapshot(queryString), offset, limit
+				);
+				if (books != null) {
+					return books;
+				}
+			}
+			return Collections.emptyList();
 		} catch (RemoteException e) {
 			return Collections.emptyList();
 		}
 	}
 
-	public synchronized List<Book> booksForTag(Tag tag) {
-		if (myInterface == null) {
-			return Collections.emptyList();
-		}
-		try {
-			return SerializerUtil.deserializeBookList(
-				myInterface.booksForTag(Util.tagToString(tag))
-			);
-		} catch (RemoteException e) {
-			return Collections.emptyList();
+	private List<Book> booksFromSnapshot(int snapshot, int offset, int limit) throws RemoteException {
+		final List<Book> books = new ArrayList<Book>();
+		while (books.size() < limit) {
+			final int count = Math.min(limit - books.size(), PAGE_SIZE);
+			final List<String> page = myInterface.booksWindow(snapshot, offset, count);
+			if (page == null) {
+				return null;
+			}
+			for (String serialized : page) {
+				final Book book = cache(serialized);
+				if (book != null) {
+					books.add(book);
+				}
+			}
+			if (page.size() < count) {
+				break;
+			}
+			offset += count;
 		}
+		return books;
 	}
 
-	public synchronized List<Book> booksForSeries(String series) {
+	public synchronized List<TextSearchHit> searchText(String query, int limit) {
 		if (myInterface == null) {
 			return Collections.emptyList();
 		}
 		try {
-			return SerializerUtil.deserializeBookList(myInterface.booksForSeries(series));
+			final List<String> strings = myInterface.searchText(query, limit);
+			final List<TextSearchHit> hits = new ArrayList<TextSearchHit>(strings.size());
+			for (String s : strings) {
+				final Book book = getBookById(Util.hitBookId(s));
+				if (book != null) {
+					hits.add(Util.stringToHit(s, book));
+				}
+			}
+			return hits;
 		} catch (RemoteException e) {
 			return Collections.emptyList();
 		}
 	}
 
+	public synchronized List<Book> books() {
+		return books(BookQuery.all(), 0, Integer.MAX_VALUE);
+	}
+
+	public synchronized List<Book> booksForAuthor(Author author) {
+		return books(BookQuery.forAuthor(author), 0, Integer.MAX_VALUE);
+	}
+
+	public synchronized List<Book> booksForTag(Tag tag) {
+		return books(BookQuery.forTag(tag), 0, Integer.MAX_VALUE);
+	}
+
+	public synchronized List<Book> booksForSeries(String series) {
+		return books(BookQuery.forSeries(series), 0, Integer.MAX_VALUE);
+	}
+
 	public synchronized List<Book> booksForSeriesAndAuthor(String series, Author author) {
-		if (myInterface == null) {
-			return Collections.emptyList();
-		}
-		try {
-			return SerializerUtil.deserializeBookList(
-				myInterface.booksForSeriesAndAuthor(series, Util.authorToString(author))
-			);
-		} catch (RemoteException e) {
-			return Collections.emptyList();
-		}
+		return books(BookQuery.forSeriesAndAuthor(series, author), 0, Integer.MAX_VALUE);
 	}
 
 	public synchronized List<Book> booksForTitlePrefix(String prefix) {
-		if (myInterface == null) {
-			return Collections.emptyList();
-		}
-		try {
-			return SerializerUtil.deserializeBookList(myInterface.booksForTitlePrefix(prefix));
-		} catch (RemoteException e) {
-			return Collections.emptyList();
-		}
+		return books(BookQuery.forTitlePrefix(prefix), 0, Integer.MAX_VALUE);
 	}
 
 	public synchronized boolean hasBooksForPattern(String pattern) {
@@ -205,36 +286,15 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 	}
 
 	public synchronized List<Book> booksForPattern(String pattern) {
-		if (myInterface == null) {
-			return Collections.emptyList();
-		}
-		try {
-			return SerializerUtil.deserializeBookList(myInterface.booksForPattern(pattern));
-		} catch (RemoteException e) {
-			return Collections.emptyList();
-		}
+		return books(BookQuery.forPattern(pattern), 0, Integer.MAX_VALUE);
 	}
 
 	public synchronized List<Book> recentBooks() {
-		if (myInterface == null) {
-			return Collections.emptyList();
-		}
-		try {
-			return SerializerUtil.deserializeBookList(myInterface.recentBooks());
-		} catch (RemoteException e) {
-			return Collections.emptyList();
-		}
+		return books(BookQuery.recent(), 0, Integer.MAX_VALUE);
 	}
 
 	public synchronized List<Book> favorites() {
-		if (myInterface == null) {
-			return Collections.emptyList();
-		}
-		try {
-			return SerializerUtil.deserializeBookList(myInterface.favorites());
-		} catch (RemoteException e) {
-			return Collections.emptyList();
-		}
+		return books(BookQuery.favorites(), 0, Integer.MAX_VALUE);
 	}
 
 	public synchronized Book getRecentBook(int index) {
@@ -242,7 +302,7 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 			return null;
 		}
 		try {
-			return SerializerUtil.deserializeBook(myInterface.getRecentBook(index));
+			return cache(myInterface.getRecentBook(index));
 		} catch (RemoteException e) {
 			return null;
 		}
@@ -253,18 +313,22 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 			return null;
 		}
 		try {
-			return SerializerUtil.deserializeBook(myInterface.getBookByFile(file.getPath()));
+			return cache(myInterface.getBookByFile(file.getPath()));
 		} catch (RemoteException e) {
 			return null;
 		}
 	}
 
 	public synchronized Book getBookById(long id) {
+		final Book cached = cachedBook(id);
+		if (cached != null) {
+			return cached;
+		}
 		if (myInterface == null) {
 			return null;
 		}
 		try {
-			return SerializerUtil.deserializeBook(myInterface.getBookById(id));
+			return cache(myInterface.getBookById(id));
 		} catch (RemoteException e) {
 			return null;
 		}
@@ -393,6 +457,8 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 		if (myInterface == null) {
 			return false;
 		}
+		// the fresh copy comes back with the Updated event
+		uncache(book);
 		try {
 			return myInterface.saveBook(SerializerUtil.serialize(book), force);
 		} catch (RemoteException e) {
@@ -401,6 +467,7 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 	}
 
 	public synchronized void removeBook(Book book, boolean deleteFromDisk) {
+		uncache(book);
 		if (myInterface != null) {
 			try {
 				myInterface.removeBook(SerializerUtil.serialize(book), deleteFromDisk);
@@ -557,5 +624,7 @@ public class BookCollectionShadow extends AbstractBookCollection implements Serv
 
 	// method from ServiceConnection interface
 	public synchronized void onServiceDisconnected(ComponentName name) {
+		// no events come from a dead service
+		clearCache();
 	}
 }
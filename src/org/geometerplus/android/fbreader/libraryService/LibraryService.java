@@ -20,6 +20,7 @@
 package org.geometerplus.android.fbreader.libraryService;
 
 import java.util.*;
+import java.io.File;
 
 import android.app.Service;
 import android.content.Intent;
@@ -27,6 +28,7 @@ import android.os.IBinder;
 import android.os.FileObserver;
 
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
 
 import org.geometerplus.zlibrary.text.view.ZLTextPosition;
 import org.geometerplus.zlibrary.text.view.ZLTextFixedPosition;
@@ -39,17 +41,20 @@ public class LibraryService extends Service {
 	static String BOOK_EVENT_ACTION = "fbreader.library-service.book-event";
 	static String BUILD_EVENT_ACTION = "fbreader.library-service.build-event";
 
+	// FileObserver is not recursive: there is an observer for every scanned directory
 	private static final class Observer extends FileObserver {
 		private static final int MASK =
-			MOVE_SELF | MOVED_TO | MOVED_FROM | DELETE_SELF | DELETE | CLOSE_WRITE | ATTRIB;
+			MOVE_SELF | MOVED_TO | MOVED_FROM | DELETE_SELF | DELETE | CLOSE_WRITE | ATTRIB | CREATE;
 
+		private final String myPath;
 		private final String myPrefix;
-		private final BookCollection myCollection;
+		private final LibraryImplementation myLibrary;
 
-		public Observer(String path, BookCollection collection) {
+		public Observer(String path, LibraryImplementation library) {
 			super(path, MASK);
+			myPath = path;
 			myPrefix = path + '/';
-			myCollection = collection;
+			myLibrary = library;
 		}
 
 		@Override
@@ -61,18 +66,25 @@ public class LibraryService extends Service {
 					// TODO: File(path) removed; stop watching (?)
 					break;
 				case MOVED_TO:
-					myCollection.rescan(myPrefix + path);
+					myLibrary.rescan(myPrefix + path);
 					break;
 				case MOVED_FROM:
 				case DELETE:
-					myCollection.rescan(myPrefix + path);
+					myLibrary.rescan(myPrefix + path);
 					break;
 				case DELETE_SELF:
-					// TODO: File(path) removed; watching is stopped automatically (?)
+					// watching is stopped automatically
+					myLibrary.forgetObserver(myPath);
+					break;
+				case CREATE:
+					// new files are processed on CLOSE_WRITE; a new directory has to be watched
+					if (new File(myPrefix + path).isDirectory()) {
+						myLibrary.rescan(myPrefix + path);
+					}
 					break;
 				case CLOSE_WRITE:
 				case ATTRIB:
-					myCollection.rescan(myPrefix + path);
+					myLibrary.rescan(myPrefix + path);
 					break;
 				default:
 					System.err.println("Unexpected event " + event + " on " + myPrefix + path);
@@ -83,14 +95,12 @@ public class LibraryService extends Service {
 
 	public final class LibraryImplementation extends LibraryInterface.Stub {
 		private final BookCollection myCollection;
-		private final List<FileObserver> myFileObservers = new LinkedList<FileObserver>();
+		private final Map<String,FileObserver> myFileObservers = new HashMap<String,FileObserver>();
 
 		LibraryImplementation() {
 			myCollection = new BookCollection(new SQLiteBooksDatabase(LibraryService.this, "LIBRARY_SERVICE"));
 			for (String path : myCollection.bookDirectories()) {
-				final Observer observer = new Observer(path, myCollection);
-				observer.startWatching();
-				myFileObservers.add(observer);
+				watch(new ZLPhysicalFile(new File(path)).getPath());
 			}
 
 			myCollection.addListener(new BookCollection.Listener() {
@@ -102,6 +112,9 @@ public class LibraryService extends Service {
 				}
 
 				public void onBuildEvent(BookCollection.Status status) {
+					if (status.IsCompleted) {
+						watchScannedDirectories();
+					}
 					final Intent intent = new Intent(BUILD_EVENT_ACTION);
 					intent.putExtra("type", status.toString());
 					sendBroadcast(intent);
@@ -110,60 +123,74 @@ public class LibraryService extends Service {
 			myCollection.startBuild();
 		}
 
-		public void deactivate() {
-			for (FileObserver observer : myFileObservers) {
-				observer.stopWatching();
+		private void watch(String path) {
+			synchronized (myFileObservers) {
+				if (!myFileObservers.containsKey(path) && new File(path).isDirectory()) {
+					final Observer observer = new Observer(path, this);
+					observer.startWatching();
+					myFileObservers.put(path, observer);
+				}
 			}
 		}
 
-		public String status() {
-			return myCollection.status().toString();
-		}
-
-		public int size() {
-			return myCollection.size();
+		private void watchScannedDirectories() {
+			for (String path : myCollection.scannedDirectories()) {
+				watch(path);
+			}
 		}
 
-		public List<String> books() {
-			return SerializerUtil.serializeBookList(myCollection.books());
+		void forgetObserver(String path) {
+			synchronized (myFileObservers) {
+				myFileObservers.remove(path);
+			}
 		}
 
-		public List<String> booksForAuthor(String author) {
-			return SerializerUtil.serializeBookList(myCollection.booksForAuthor(Util.stringToAuthor(author)));
+		void rescan(String path) {
+			myCollection.rescan(path);
+			watchScannedDirectories();
 		}
 
-		public List<String> booksForTag(String tag) {
-			return SerializerUtil.serializeBookList(myCollection.booksForTag(Util.stringToTag(tag)));
+		public void deactivate() {
+			synchronized (myFileObservers) {
+				for (FileObserver observer : myFileObservers.values()) {
+					observer.stopWatching();
+				}
+				myFileObservers.clear();
+			}
 		}
 
-		public List<String> booksForSeries(String series) {
-			return SerializerUtil.serializeBookList(myCollection.booksForSeries(series));
+		public String status() {
+			return myCollection.status().toString();
 		}
 
-		public List<String> booksForSeriesAndAuthor(String series, String author) {
-			return SerializerUtil.serializeBookList(
-				myCollection.booksForSeriesAndAuthor(series, Util.stringToAuthor(author))
-			);
+		public int size() {
+			return myCollection.size();
 		}
 
-		public List<String> booksForTitlePrefix(String prefix) {
-			return SerializerUtil.serializeBookList(myCollection.booksForTitlePrefix(prefix));
+		public int booksCount(String query) {
+			return myCollection.size(Util.stringToQuery(query));
 		}
 
-		public boolean hasBooksForPattern(String pattern) {
-			return myCollection.hasBooksForPattern(pattern);
+		public int openBooksSnapshot(String query) {
+			return myCollection.openSnapshot(Util.stringToQuery(query));
 		}
 
-		public List<String> booksForPattern(String pattern) {
-			return SerializerUtil.serializeBookList(myCollection.booksForPattern(pattern));
+		public List<String> booksWindow(int snapshot, int offset, int limit) {
+			final List<Book> books = myCollection.snapshotWindow(snapshot, offset, limit);
+			return books != null ? SerializerUtil.serializeBookList(books) : null;
 		}
 
-		public List<String> recentBooks() {
-			return SerializerUtil.serializeBookList(myCollection.recentBooks());
+		public List<String> searchText(String query, int limit) {
+			final List<TextSearchHit> hits = myCollection.searchText(query, limit);
+			final List<String> strings = new ArrayList<String>(hits.size());
+			for (TextSearchHit hit : hits) {
+				strings.add(Util.hitToString(hit));
+			}
+			return strings;
 		}
 
-		public List<String> favorites() {
-			return SerializerUtil.serializeBookList(myCollection.favorites());
+		public boolean hasBooksForPattern(String pattern) {
+			return myCollection.hasBooksForPattern(pattern);
 		}
 
 		public String getRecentBook(int index) {
@@ -70,7 +70,7 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 
 	private void migrate() {
 		final int version = myDatabase.getVersion();
-		final int currentVersion = 20;
+		final int currentVersion = 22;
 		if (version >= currentVersion) {
 			return;
 		}
@@ -118,6 +118,10 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 				updateTables18();
 			case 19:
 				updateTables19();
+			case 20:
+				updateTables20();
+			case 21:
+				updateTables21();
 		}
 		myDatabase.setTransactionSuccessful();
 		myDatabase.setVersion(currentVersion);
@@ -531,14 +535,14 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		if (id == -1) {
 			if (myInsertFileInfoStatement == null) {
 				myInsertFileInfoStatement = myDatabase.compileStatement(
-					"INSERT OR IGNORE INTO Files (name,parent_id,size) VALUES (?,?,?)"
+					"INSERT OR IGNORE INTO Files (name,parent_id,size,modification_time) VALUES (?,?,?,?)"
 				);
 			}
 			statement = myInsertFileInfoStatement;
 		} else {
 			if (myUpdateFileInfoStatement == null) {
 				myUpdateFileInfoStatement = myDatabase.compileStatement(
-					"UPDATE Files SET name = ?, parent_id = ?, size = ? WHERE file_id = ?"
+					"UPDATE Files SET name = ?, parent_id = ?, size = ?, modification_time = ? WHERE file_id = ?"
 				);
 			}
 			statement = myUpdateFileInfoStatement;
@@ -556,17 +560,59 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		} else {
 			statement.bindNull(3);
 		}
+		final long modificationTime = fileInfo.ModificationTime;
+		if (modificationTime != -1) {
+			statement.bindLong(4, modificationTime);
+		} else {
+			statement.bindNull(4);
+		}
 		if (id == -1) {
 			fileInfo.Id = statement.executeInsert();
 		} else {
-			statement.bindLong(4, id);
+			statement.bindLong(5, id);
 			statement.execute();
 		}
 	}
 
+	protected Map<String,DirectorySnapshot> loadDirectorySnapshots() {
+		final HashMap<String,DirectorySnapshot> snapshots = new HashMap<String,DirectorySnapshot>();
+		final Cursor cursor = myDatabase.rawQuery(
+			"SELECT path,modification_time,children_number,names_hash FROM DirectorySnapshots", null
+		);
+		while (cursor.moveToNext()) {
+			final String path = cursor.getString(0);
+			snapshots.put(path, createDirectorySnapshot(
+				path, cursor.getLong(1), (int)cursor.getLong(2), cursor.getLong(3)
+			));
+		}
+		cursor.close();
+		return snapshots;
+	}
+
+	private SQLiteStatement myInsertDirectorySnapshotStatement;
+	protected void saveDirectorySnapshots(final Collection<DirectorySnapshot> snapshots) {
+		if (myInsertDirectorySnapshotStatement == null) {
+			myInsertDirectorySnapshotStatement = myDatabase.compileStatement(
+				"INSERT OR REPLACE INTO DirectorySnapshots (path,modification_time,children_number,names_hash) VALUES (?,?,?,?)"
+			);
+		}
+		executeAsTransaction(new Runnable() {
+			public void run() {
+				myDatabase.delete("DirectorySnapshots", null, null);
+				for (DirectorySnapshot snapshot : snapshots) {
+					myInsertDirectorySnapshotStatement.bindString(1, snapshot.Path);
+					myInsertDirectorySnapshotStatement.bindLong(2, snapshot.ModificationTime);
+					myInsertDirectorySnapshotStatement.bindLong(3, snapshot.ChildrenNumber);
+					myInsertDirectorySnapshotStatement.bindLong(4, snapshot.NamesHash);
+					myInsertDirectorySnapshotStatement.execute();
+				}
+			}
+		});
+	}
+
 	protected Collection<FileInfo> loadFileInfos() {
 		Cursor cursor = myDatabase.rawQuery(
-			"SELECT file_id,name,parent_id,size FROM Files", null
+			"SELECT file_id,name,parent_id,size,modification_time FROM Files", null
 		);
 		HashMap<Long,FileInfo> infosById = new HashMap<Long,FileInfo>();
 		while (cursor.moveToNext()) {
@@ -578,6 +624,9 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			if (!cursor.isNull(3)) {
 				info.FileSize = cursor.getLong(3);
 			}
+			if (!cursor.isNull(4)) {
+				info.ModificationTime = cursor.getLong(4);
+			}
 			infosById.put(id, info);
 		}
 		cursor.close();
@@ -597,8 +646,8 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			parameters[0] = f.getLongName();
 			final Cursor cursor = myDatabase.rawQuery(
 				(current == null) ?
-					"SELECT file_id,size FROM Files WHERE name = ?" :
-					"SELECT file_id,size FROM Files WHERE parent_id = " + current.Id + " AND name = ?",
+					"SELECT file_id,size,modification_time FROM Files WHERE name = ?" :
+					"SELECT file_id,size,modification_time FROM Files WHERE parent_id = " + current.Id + " AND name = ?",
 				parameters
 			);
 			if (cursor.moveToNext()) {
@@ -606,6 +655,9 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 				if (!cursor.isNull(1)) {
 					current.FileSize = cursor.getLong(1);
 				}
+				if (!cursor.isNull(2)) {
+					current.ModificationTime = cursor.getLong(2);
+				}
 				infos.add(current);
 				cursor.close();
 			} else {
@@ -621,13 +673,16 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		final ArrayList<FileInfo> infos = new ArrayList<FileInfo>();
 		while (fileId != -1) {
 			final Cursor cursor = myDatabase.rawQuery(
-				"SELECT name,size,parent_id FROM Files WHERE file_id = " + fileId, null
+				"SELECT name,size,parent_id,modification_time FROM Files WHERE file_id = " + fileId, null
 			);
 			if (cursor.moveToNext()) {
 				FileInfo info = createFileInfo(fileId, cursor.getString(0), null);
 				if (!cursor.isNull(1)) {
 					info.FileSize = cursor.getLong(1);
 				}
+				if (!cursor.isNull(3)) {
+					info.ModificationTime = cursor.getLong(3);
+				}
 				infos.add(0, info);
 				fileId = cursor.isNull(2) ? -1 : cursor.getLong(2);
 			} else {
@@ -639,6 +694,7 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			final FileInfo oldInfo = infos.get(i);
 			final FileInfo newInfo = createFileInfo(oldInfo.Id, oldInfo.Name, infos.get(i - 1));
 			newInfo.FileSize = oldInfo.FileSize;
+			newInfo.ModificationTime = oldInfo.ModificationTime;
 			infos.set(i, newInfo);
 		}
 		return infos;
@@ -1250,4 +1306,17 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 	private void updateTables19() {
 		myDatabase.execSQL("DROP TABLE BookList");
 	}
+
+	private void updateTables20() {
+		myDatabase.execSQL(
+			"CREATE TABLE IF NOT EXISTS DirectorySnapshots(" +
+				"path TEXT PRIMARY KEY," +
+				"modification_time INTEGER NOT NULL," +
+				"children_number INTEGER NOT NULL," +
+				"names_hash INTEGER NOT NULL)");
+	}
+
+	private void updateTables21() {
+		myDatabase.execSQL("ALTER TABLE Files ADD COLUMN modification_time INTEGER");
+	}
 }
@@ -20,7 +20,10 @@
 package org.geometerplus.android.fbreader.libraryService;
 
 import org.geometerplus.fbreader.book.Author;
+import org.geometerplus.fbreader.book.Book;
+import org.geometerplus.fbreader.book.BookQuery;
 import org.geometerplus.fbreader.book.Tag;
+import org.geometerplus.fbreader.book.TextSearchHit;
 
 abstract class Util {
 	static String authorToString(Author author) {
@@ -48,4 +51,62 @@ abstract class Util {
 			return Tag.NULL;
 		}
 	}
+
+	static String hitToString(TextSearchHit hit) {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(hit.Book.getId()).append('\000');
+		builder.append(hit.ParagraphIndex).append('\000');
+		builder.append(hit.Score).append('\000');
+		builder.append(hit.Snippet);
+		return builder.toString();
+	}
+
+	static long hitBookId(String string) {
+		return Long.parseLong(string.substring(0, string.indexOf('\000')));
+	}
+
+	static TextSearchHit stringToHit(String string, Book book) {
+		final String[] splitted = string.split("\000", 4);
+		return new TextSearchHit(
+			book, Integer.parseInt(splitted[1]), splitted[3], Float.parseFloat(splitted[2])
+		);
+	}
+
+	static String queryToString(BookQuery query) {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(query.QueryKind).append('\001');
+		builder.append(query.SortOrder).append('\001');
+		if (query.Author != null) {
+			builder.append(authorToString(query.Author));
+		}
+		builder.append('\001');
+		if (query.Tag != null) {
+			builder.append(tagToString(query.Tag));
+		}
+		builder.append('\001');
+		if (query.Series != null) {
+			builder.append(query.Series);
+		}
+		builder.append('\001');
+		if (query.Text != null) {
+			builder.append(query.Text);
+		}
+		return builder.toString();
+	}
+
+	static BookQuery stringToQuery(String string) {
+		final String[] splitted = string.split("\001", -1);
+		final BookQuery.Kind kind = BookQuery.Kind.valueOf(splitted[0]);
+		return new BookQuery(
+			kind,
+			BookQuery.Order.valueOf(splitted[1]),
+			kind == BookQuery.Kind.Author || kind == BookQuery.Kind.SeriesAndAuthor
+				? stringToAuthor(splitted[2]) : null,
+			kind == BookQuery.Kind.Tag ? stringToTag(splitted[3]) : null,
+			kind == BookQuery.Kind.Series || kind == BookQuery.Kind.SeriesAndAuthor
+				? splitted[4] : null,
+			kind == BookQuery.Kind.TitlePrefix || kind == BookQuery.Kind.Pattern
+				? splitted[5] : null
+		);
+	}
 }
@@ -38,6 +38,7 @@ import org.geometerplus.zlibrary.ui.android.R;
 
 import org.geometerplus.zlibrary.core.resources.ZLResource;
 import org.geometerplus.zlibrary.core.network.*;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.fbreader.network.urlInfo.UrlInfo;
 import org.geometerplus.fbreader.network.urlInfo.BookUrlInfo;
@@ -331,7 +332,7 @@ public class BookDownloaderService extends Service {
 			}
 		};
 
-		final Thread downloader = new Thread(new Runnable() {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Download, new Runnable() {
 			public void run() {
 				boolean success = false;
 				try {
@@ -346,7 +347,5 @@ public class BookDownloaderService extends Service {
 				}
 			}
 		});
-		downloader.setPriority(Thread.MIN_PRIORITY);
-		downloader.start();
 	}
 }
@@ -30,6 +30,7 @@ import android.os.Message;
 import android.widget.Toast;
 
 import org.geometerplus.zlibrary.core.resources.ZLResource;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 public abstract class UIUtil {
 	private static final Object ourMonitor = new Object();
@@ -91,7 +92,7 @@ public abstract class UIUtil {
 			}
 		}
 		final ProgressDialog currentProgress = ourProgress;
-		new Thread(new Runnable() {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Load, new Runnable() {
 			public void run() {
 				while ((ourProgress == currentProgress) && !ourTaskQueue.isEmpty()) {
 					Pair p = ourTaskQueue.poll();
@@ -105,7 +106,7 @@ public abstract class UIUtil {
 					}
 				}
 			}
-		}).start();
+		});
 	}
 
 	public static void runWithMessage(final Activity activity, String key, final Runnable action, final Runnable postAction, final boolean minPriority) {
@@ -115,7 +116,9 @@ public abstract class UIUtil {
 			public void run() {
 				final ProgressDialog progress = ProgressDialog.show(activity, null, message, true, false);
 
-				final Thread runner = new Thread() {
+				final ZLTaskScheduler.Lane lane =
+					minPriority ? ZLTaskScheduler.Lane.Maintenance : ZLTaskScheduler.Lane.Load;
+				ZLTaskScheduler.submit(lane, new Runnable() {
 					public void run() {
 						action.run();
 						activity.runOnUiThread(new Runnable() {
@@ -131,11 +134,7 @@ public abstract class UIUtil {
 							}
 						});
 					}
-				};
-				if (minPriority) {
-					runner.setPriority(Thread.MIN_PRIORITY);
-				}
-				runner.start();
+				});
 			}
 		});
 	}
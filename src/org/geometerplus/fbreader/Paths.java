@@ -44,12 +44,34 @@ public abstract class Paths {
 		return BooksDirectoryOption().getValue();
 	}
 
-	public static String cacheDirectory() {
+	private static final ThreadLocal<String> ourThreadCacheDirectory = new ThreadLocal<String>();
+
+	private static String mainCacheDirectory() {
 		return mainBookDirectory() + "/.FBReader";
 	}
 
+	// the directory for the working files of book reading (java & native plugins)
+	public static String cacheDirectory() {
+		final String directory = ourThreadCacheDirectory.get();
+		return directory != null ? directory : mainCacheDirectory();
+	}
+
+	// books read by the calling thread will not overwrite the working files
+	// of the book opened in the reader; null restores the default directory
+	public static void setThreadCacheDirectory(String directory) {
+		ourThreadCacheDirectory.set(directory);
+	}
+
 	public static String networkCacheDirectory() {
-		return cacheDirectory() + "/cache";
+		return mainCacheDirectory() + "/cache";
+	}
+
+	public static String modelCacheDirectory() {
+		return mainCacheDirectory() + "/models";
+	}
+
+	public static String textIndexDirectory() {
+		return mainCacheDirectory() + "/textIndex";
 	}
 
 	public static String systemShareDirectory() {
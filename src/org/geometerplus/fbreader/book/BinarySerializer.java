@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+
+/*
+ * Compact serialization for passing books and bookmarks between processes.
+ * A serialized object is a string starting with MARKER and the format
+ * version; ints take 2 chars, longs 4 chars, strings are prefixed by their
+ * length (-1 for null).  A string with an unknown version is rejected,
+ * so the reader falls back to null just like for a broken XML.
+ */
+class BinarySerializer extends AbstractSerializer {
+	static final char MARKER = '\u0000';
+	static final char VERSION = 1;
+
+	private static final char BOOK = 'B';
+	private static final char BOOKMARK = 'M';
+
+	static boolean isBinary(String serialized) {
+		return serialized.length() > 0 && serialized.charAt(0) == MARKER;
+	}
+
+	@Override
+	public String serialize(Book book) {
+		final Writer writer = new Writer(BOOK);
+		writer.writeLong(book.getId());
+		writer.writeString(book.File.getUrl());
+		writer.writeString(book.getTitle());
+		writer.writeString(book.getEncodingNoDetection());
+		writer.writeString(book.getLanguage());
+
+		final List<Author> authors = book.authors();
+		writer.writeInt(authors.size());
+		for (Author author : authors) {
+			writer.writeString(author.DisplayName);
+			writer.writeString(author.SortKey);
+		}
+
+		final List<Tag> tags = book.tags();
+		writer.writeInt(tags.size());
+		for (Tag tag : tags) {
+			writer.writeTag(tag);
+		}
+
+		final SeriesInfo seriesInfo = book.getSeriesInfo();
+		if (seriesInfo != null) {
+			writer.writeString(seriesInfo.Title);
+			writer.writeString(seriesInfo.Index != null ? seriesInfo.Index.toString() : null);
+		} else {
+			writer.writeString(null);
+		}
+		return writer.toString();
+	}
+
+	@Override
+	public Book deserializeBook(String serialized) {
+		final Reader reader = Reader.create(serialized, BOOK);
+		if (reader == null) {
+			return null;
+		}
+		try {
+			final long id = reader.readLong();
+			final String url = reader.readString();
+			final String title = reader.readString();
+			final String encoding = reader.readString();
+			final String language = reader.readString();
+			final ZLFile file = url != null ? ZLFile.createFileByUrl(url) : null;
+			if (file == null) {
+				return null;
+			}
+			final Book book = new Book(id, file, title, encoding, language);
+
+			for (int count = reader.readInt(); count > 0; --count) {
+				final String name = reader.readString();
+				final String sortKey = reader.readString();
+				book.addAuthorWithNoCheck(new Author(name, sortKey));
+			}
+
+			for (int count = reader.readInt(); count > 0; --count) {
+				final Tag tag = reader.readTag();
+				if (tag != null) {
+					book.addTagWithNoCheck(tag);
+				}
+			}
+
+			final String seriesTitle = reader.readString();
+			if (seriesTitle != null) {
+				book.setSeriesInfoWithNoCheck(seriesTitle, reader.readString());
+			}
+			return book;
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String serialize(Bookmark bookmark) {
+		final Writer writer = new Writer(BOOKMARK);
+		writer.writeLong(bookmark.getId());
+		writer.writeLong(bookmark.getBookId());
+		writer.writeString(bookmark.getBookTitle());
+		writer.writeString(bookmark.getText());
+		writer.writeDate(bookmark.getDate(Bookmark.DateType.Creation));
+		writer.writeDate(bookmark.getDate(Bookmark.DateType.Modification));
+		writer.writeDate(bookmark.getDate(Bookmark.DateType.Access));
+		writer.writeInt(bookmark.getAccessCount());
+		writer.writeString(bookmark.ModelId);
+		writer.writeInt(bookmark.getParagraphIndex());
+		writer.writeInt(bookmark.getElementIndex());
+		writer.writeInt(bookmark.getCharIndex());
+		writer.writeInt(bookmark.IsVisible ? 1 : 0);
+		return writer.toString();
+	}
+
+	@Override
+	public Bookmark deserializeBookmark(String serialized) {
+		final Reader reader = Reader.create(serialized, BOOKMARK);
+		if (reader == null) {
+			return null;
+		}
+		try {
+			return new Bookmark(
+				reader.readLong(), reader.readLong(), reader.readString(), reader.readString(),
+				reader.readDate(), reader.readDate(), reader.readDate(), reader.readInt(),
+				reader.readString(), reader.readInt(), reader.readInt(), reader.readInt(),
+				reader.readInt() != 0
+			);
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	private static final class Writer {
+		private final StringBuilder myBuffer = new StringBuilder(256);
+
+		Writer(char type) {
+			myBuffer.append(MARKER).append(VERSION).append(type);
+		}
+
+		void writeInt(int value) {
+			myBuffer.append((char)(value >>> 16)).append((char)value);
+		}
+
+		void writeLong(long value) {
+			writeInt((int)(value >>> 32));
+			writeInt((int)value);
+		}
+
+		void writeString(String value) {
+			if (value == null) {
+				writeInt(-1);
+			} else {
+				writeInt(value.length());
+				myBuffer.append(value);
+			}
+		}
+
+		void writeDate(Date date) {
+			writeLong(date != null ? date.getTime() : Long.MIN_VALUE);
+		}
+
+		// the path from the root, so that names containing '/' survive
+		void writeTag(Tag tag) {
+			int depth = 0;
+			for (Tag t = tag; t != null; t = t.Parent) {
+				++depth;
+			}
+			writeInt(depth);
+			final String[] names = new String[depth];
+			for (Tag t = tag; t != null; t = t.Parent) {
+				names[--depth] = t.Name;
+			}
+			for (String name : names) {
+				writeString(name);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return myBuffer.toString();
+		}
+	}
+
+	private static final class Reader {
+		static Reader create(String serialized, char type) {
+			if (serialized.length() < 3 ||
+				serialized.charAt(0) != MARKER ||
+				serialized.charAt(1) != VERSION ||
+				serialized.charAt(2) != type) {
+				return null;
+			}
+			return new Reader(serialized);
+		}
+
+		private final String myData;
+		private int myPosition = 3;
+
+		private Reader(String data) {
+			myData = data;
+		}
+
+		int readInt() {
+			final int value = (myData.charAt(myPosition) << 16) | myData.charAt(myPosition + 1);
+			myPosition += 2;
+			return value;
+		}
+
+		long readLong() {
+			final long high = readInt();
+			return (high << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+
+		String readString() {
+			final int length = readInt();
+			if (length == -1) {
+				return null;
+			}
+			final String value = myData.substring(myPosition, myPosition + length);
+			myPosition += length;
+			return value;
+		}
+
+		Date readDate() {
+			final long time = readLong();
+			return time != Long.MIN_VALUE ? new Date(time) : null;
+		}
+
+		Tag readTag() {
+			final int depth = readInt();
+			if (depth <= 0) {
+				return null;
+			}
+			final String[] names = new String[depth];
+			for (int i = 0; i < depth; ++i) {
+				names[i] = readString();
+			}
+			return Tag.getTag(names);
+		}
+	}
+}
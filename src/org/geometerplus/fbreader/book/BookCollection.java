@@ -20,10 +20,14 @@
 package org.geometerplus.fbreader.book;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.zlibrary.text.view.ZLTextPosition;
 
@@ -32,16 +36,51 @@ import org.geometerplus.fbreader.bookmodel.BookReadingException;
 import org.geometerplus.fbreader.formats.*;
 
 public class BookCollection extends AbstractBookCollection {
+	private static final long TEXT_INDEX_MAX_SIZE = 128L * 1024 * 1024;
+
 	private final BooksDatabase myDatabase;
 	private final Map<ZLFile,Book> myBooksByFile =
 		Collections.synchronizedMap(new LinkedHashMap<ZLFile,Book>());
 	private final Map<Long,Book> myBooksById =
 		Collections.synchronizedMap(new HashMap<Long,Book>());
+	// guarded by myBooksByFile
+	private final BookIndex myIndex = new BookIndex();
+	// results of recent windowed queries; dropped on every book event
+	private final LinkedHashMap<BookQuery,List<Book>> myQueryResults =
+		new LinkedHashMap<BookQuery,List<Book>>(8, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BookQuery,List<Book>> eldest) {
+				return size() > 4;
+			}
+		};
+	// guarded by myQueryResults
+	private int myQueryGeneration;
+	// results pinned by listings that read them window by window; guarded by myQueryResults
+	private final LinkedHashMap<Integer,List<Book>> mySnapshots =
+		new LinkedHashMap<Integer,List<Book>>(8, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,List<Book>> eldest) {
+				return size() > 8;
+			}
+		};
+	private int mySnapshotCounter;
+	// books are indexed after the first build, in background
+	private final LibraryTextIndex myTextIndex =
+		new LibraryTextIndex(Paths.textIndexDirectory(), TEXT_INDEX_MAX_SIZE);
 	private final List<String> myFilesToRescan =
 		Collections.synchronizedList(new LinkedList<String>());
+	// directories visited by the build and by rescans, to be watched for changes
+	private final Set<String> myScannedDirectories =
+		Collections.synchronizedSet(new HashSet<String>());
 
 	private volatile Status myStatus = Status.NotStarted;
 
+	private final AtomicInteger myFilesFound = new AtomicInteger();
+	private final AtomicInteger myFilesProcessed = new AtomicInteger();
+	private final AtomicInteger myBooksFound = new AtomicInteger();
+	private volatile long myBuildStartTime;
+	private volatile long myBuildFinishTime;
+
 	public BookCollection(BooksDatabase db) {
 		myDatabase = db;
 	}
@@ -154,10 +193,14 @@ public class BookCollection extends AbstractBookCollection {
 			if (existing == null) {
 				myBooksByFile.put(book.File, book);
 				myBooksById.put(book.getId(), book);
+				myIndex.add(book);
 				fireBookEvent(BookEvent.Added, book);
+				myTextIndex.add(book);
 			} else if (force) {
 				existing.updateFrom(book);
+				myIndex.add(existing);
 				fireBookEvent(BookEvent.Updated, existing);
+				myTextIndex.add(existing);
 			}
 		}
 	}
@@ -176,6 +219,8 @@ public class BookCollection extends AbstractBookCollection {
 		synchronized (myBooksByFile) {
 			myBooksByFile.remove(book.File);
 			myBooksById.remove(book.getId());
+			myIndex.remove(book);
+			myTextIndex.remove(book);
 
 			final List<Long> ids = myDatabase.loadRecentBookIds();
 			if (ids.remove(book.getId())) {
@@ -192,6 +237,40 @@ public class BookCollection extends AbstractBookCollection {
 		return myStatus;
 	}
 
+	public static final class BuildProgress {
+		public final Status Status;
+		// physical files found in book directories
+		public final int FilesFound;
+		public final int FilesProcessed;
+		public final int BooksFound;
+		// in milliseconds
+		public final long ElapsedTime;
+
+		BuildProgress(Status status, int filesFound, int filesProcessed, int booksFound, long elapsedTime) {
+			Status = status;
+			FilesFound = filesFound;
+			FilesProcessed = filesProcessed;
+			BooksFound = booksFound;
+			ElapsedTime = elapsedTime;
+		}
+
+		public float filesPerSecond() {
+			return ElapsedTime > 0 ? FilesProcessed * 1000f / ElapsedTime : 0;
+		}
+	}
+
+	public BuildProgress buildProgress() {
+		final long startTime = myBuildStartTime;
+		final long finishTime = myBuildFinishTime;
+		return new BuildProgress(
+			myStatus,
+			myFilesFound.get(),
+			myFilesProcessed.get(),
+			myBooksFound.get(),
+			startTime == 0 ? 0 : (finishTime != 0 ? finishTime : System.currentTimeMillis()) - startTime
+		);
+	}
+
 	public List<Book> books() {
 		synchronized (myBooksByFile) {
 			return new ArrayList<Book>(myBooksByFile.values());
@@ -199,62 +278,33 @@ public class BookCollection extends AbstractBookCollection {
 	}
 
 	public List<Book> booksForAuthor(Author author) {
-		final boolean isNull = Author.NULL.equals(author);
-		final LinkedList<Book> filtered = new LinkedList<Book>();
-		for (Book b : books()) {
-			final List<Author> bookAuthors = b.authors();
-			if (isNull && bookAuthors.isEmpty() || bookAuthors.contains(author)) {
-				filtered.add(b);
-			}
+		synchronized (myBooksByFile) {
+			return myIndex.booksForAuthor(author, Integer.MAX_VALUE);
 		}
-		return filtered;
 	}
 
 	public List<Book> booksForTag(Tag tag) {
-		final boolean isNull = Tag.NULL.equals(tag);
-		final LinkedList<Book> filtered = new LinkedList<Book>();
-		for (Book b : books()) {
-			final List<Tag> bookTags = b.tags();
-			if (isNull && bookTags.isEmpty() || bookTags.contains(tag)) {
-				filtered.add(b);
-			}
+		synchronized (myBooksByFile) {
+			return myIndex.booksForTag(tag, Integer.MAX_VALUE);
 		}
-		return filtered;
 	}
 
 	public List<Book> booksForSeries(String series) {
-		final LinkedList<Book> filtered = new LinkedList<Book>();
-		for (Book b : books()) {
-			final SeriesInfo info = b.getSeriesInfo();
-			if (info != null && series.equals(info.Title)) {
-				filtered.add(b);
-			}
+		synchronized (myBooksByFile) {
+			return myIndex.booksForSeries(series, Integer.MAX_VALUE);
 		}
-		return filtered;
 	}
 
 	public List<Book> booksForSeriesAndAuthor(String series, Author author) {
-		final boolean isNull = Author.NULL.equals(author);
-		final LinkedList<Book> filtered = new LinkedList<Book>();
-		for (Book b : books()) {
-			final List<Author> bookAuthors = b.authors();
-			final SeriesInfo info = b.getSeriesInfo();
-			if (info != null && series.equals(info.Title)
-				&& (isNull && bookAuthors.isEmpty() || bookAuthors.contains(author))) {
-				filtered.add(b);
-			}
+		synchronized (myBooksByFile) {
+			return myIndex.booksForSeriesAndAuthor(series, author, Integer.MAX_VALUE);
 		}
-		return filtered;
 	}
 
 	public List<Book> booksForTitlePrefix(String prefix) {
-		final LinkedList<Book> filtered = new LinkedList<Book>();
-		for (Book b : books()) {
-			if (prefix.equals(TitleUtil.firstTitleLetter(b))) {
-				filtered.add(b);
-			}
+		synchronized (myBooksByFile) {
+			return myIndex.booksForTitleLetter(prefix, Integer.MAX_VALUE);
 		}
-		return filtered;
 	}
 
 	public boolean hasBooksForPattern(String pattern) {
@@ -263,12 +313,9 @@ public class BookCollection extends AbstractBookCollection {
 		}
 		pattern = pattern.toLowerCase();
 
-		for (Book b : books()) {
-			if (b.matches(pattern)) {
-				return true;
-			}
+		synchronized (myBooksByFile) {
+			return !myIndex.booksForPattern(pattern, 1).isEmpty();
 		}
-		return false;
 	}
 
 	public List<Book> booksForPattern(String pattern) {
@@ -277,13 +324,155 @@ public class BookCollection extends AbstractBookCollection {
 		}
 		pattern = pattern.toLowerCase();
 
-		final LinkedList<Book> filtered = new LinkedList<Book>();
-		for (Book b : books()) {
-			if (b.matches(pattern)) {
-				filtered.add(b);
+		synchronized (myBooksByFile) {
+			return myIndex.booksForPattern(pattern, Integer.MAX_VALUE);
+		}
+	}
+
+	public List<TextSearchHit> searchText(String query, int limit) {
+		if (query == null) {
+			return Collections.emptyList();
+		}
+		final List<TextSearchHit> hits = new ArrayList<TextSearchHit>();
+		for (LibraryTextIndex.Hit hit : myTextIndex.search(query, limit)) {
+			final Book book = getBookById(hit.BookId);
+			if (book != null) {
+				hits.add(new TextSearchHit(book, hit.ParagraphIndex, hit.Snippet, hit.Score));
 			}
 		}
-		return filtered;
+		return hits;
+	}
+
+	public int size(BookQuery query) {
+		return queryResult(query).size();
+	}
+
+	public List<Book> books(BookQuery query, int offset, int limit) {
+		final List<Book> books = queryResult(query);
+		final int start = Math.max(0, Math.min(offset, books.size()));
+		final int end = (int)Math.min((long)start + Math.max(limit, 0), books.size());
+		return new ArrayList<Book>(books.subList(start, end));
+	}
+
+	// the windows of a snapshot do not change when books are added or removed
+	public int openSnapshot(BookQuery query) {
+		final List<Book> books = queryResult(query);
+		synchronized (myQueryResults) {
+			mySnapshots.put(++mySnapshotCounter, books);
+			return mySnapshotCounter;
+		}
+	}
+
+	// null if the snapshot has been dropped (too many listings at once)
+	public List<Book> snapshotWindow(int snapshot, int offset, int limit) {
+		final List<Book> books;
+		synchronized (myQueryResults) {
+			books = mySnapshots.get(snapshot);
+		}
+		if (books == null) {
+			return null;
+		}
+		final int start = Math.max(0, Math.min(offset, books.size()));
+		final int end = (int)Math.min((long)start + Math.max(limit, 0), books.size());
+		return new ArrayList<Book>(books.subList(start, end));
+	}
+
+	private List<Book> queryResult(BookQuery query) {
+		final int generation;
+		synchronized (myQueryResults) {
+			final List<Book> cached = myQueryResults.get(query);
+			if (cached != null) {
+				return cached;
+			}
+			generation = myQueryGeneration;
+		}
+
+		List<Book> books;
+		switch (query.QueryKind) {
+			case All:
+				synchronized (myBooksByFile) {
+					books = myIndex.books(Integer.MAX_VALUE);
+				}
+				break;
+			case Author:
+				books = booksForAuthor(query.Author);
+				break;
+			case Tag:
+				books = booksForTag(query.Tag);
+				break;
+			case Series:
+				books = booksForSeries(query.Series);
+				break;
+			case SeriesAndAuthor:
+				books = booksForSeriesAndAuthor(query.Series, query.Author);
+				break;
+			case TitlePrefix:
+				books = booksForTitlePrefix(query.Text);
+				break;
+			case Pattern:
+				books = booksForPattern(query.Text);
+				break;
+			case Recent:
+				// small, and changed without book events
+				return recentBooks();
+			case Favorites:
+				books = favorites();
+				break;
+			default:
+				books = Collections.emptyList();
+				break;
+		}
+		if (query.SortOrder == BookQuery.Order.Title) {
+			books = new ArrayList<Book>(books);
+			Collections.sort(books, BY_TITLE);
+		}
+
+		synchronized (myQueryResults) {
+			if (generation == myQueryGeneration) {
+				myQueryResults.put(query, books);
+			}
+		}
+		return books;
+	}
+
+	// the same order as of book nodes in library trees
+	private static final Comparator<Book> BY_TITLE = new Comparator<Book>() {
+		public int compare(Book b0, Book b1) {
+			final String key0 = sortKey(b0.getTitle());
+			final String key1 = sortKey(b1.getTitle());
+			if (key0 == null || key1 == null) {
+				if (key0 != key1) {
+					return key0 == null ? -1 : 1;
+				}
+			} else {
+				final int cmp = String.CASE_INSENSITIVE_ORDER.compare(key0, key1);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return b0.File.getPath().compareTo(b1.File.getPath());
+		}
+
+		private String sortKey(String title) {
+			if (title == null || title.length() <= 1 || Character.isLetterOrDigit(title.charAt(0))) {
+				return title;
+			}
+			for (int i = 1; i < title.length(); ++i) {
+				if (Character.isLetterOrDigit(title.charAt(i))) {
+					return title.substring(i);
+				}
+			}
+			return title;
+		}
+	};
+
+	@Override
+	protected void fireBookEvent(BookEvent event, Book book) {
+		synchronized (myQueryResults) {
+			++myQueryGeneration;
+			myQueryResults.clear();
+		}
+		super.fireBookEvent(event, book);
 	}
 
 	public List<Book> recentBooks() {
@@ -306,61 +495,27 @@ public class BookCollection extends AbstractBookCollection {
 	}
 
 	public List<Author> authors() {
-		final Set<Author> authors = new TreeSet<Author>();
 		synchronized (myBooksByFile) {
-			for (Book book : myBooksByFile.values()) {
-				final List<Author> bookAuthors = book.authors();
-				if (bookAuthors.isEmpty()) {
-					authors.add(Author.NULL);
-				} else {
-					authors.addAll(bookAuthors);
-				}
-			}
+			return myIndex.authors();
 		}
-		return new ArrayList<Author>(authors);
 	}
 
 	public List<Tag> tags() {
-		final Set<Tag> tags = new HashSet<Tag>();
 		synchronized (myBooksByFile) {
-			for (Book book : myBooksByFile.values()) {
-				final List<Tag> bookTags = book.tags();
-				if (bookTags.isEmpty()) {
-					tags.add(Tag.NULL);
-				} else {
-					for (Tag t : bookTags) {
-						for (; t != null; t = t.Parent) {
-							tags.add(t);
-						}
-					}
-				}
-			}
+			return myIndex.tags();
 		}
-		return new ArrayList<Tag>(tags);
 	}
 
 	public boolean hasSeries() {
 		synchronized (myBooksByFile) {
-			for (Book book : myBooksByFile.values()) {
-				if (book.getSeriesInfo() != null) {
-					return true;
-				}
-			}
+			return myIndex.hasSeries();
 		}
-		return false;
 	}
 
 	public List<String> series() {
-		final Set<String> series = new TreeSet<String>();
 		synchronized (myBooksByFile) {
-			for (Book book : myBooksByFile.values()) {
-				final SeriesInfo info = book.getSeriesInfo();
-				if (info != null) {
-					series.add(info.Title);
-				}
-			}
+			return myIndex.series();
 		}
-		return new ArrayList<String>(series);
 	}
 
 	public List<String> titles() {
@@ -373,101 +528,57 @@ public class BookCollection extends AbstractBookCollection {
 		}
 	}
 
+	private static List<String> titles(List<Book> books) {
+		final List<String> titles = new ArrayList<String>(books.size());
+		for (Book b : books) {
+			titles.add(b.getTitle());
+		}
+		return titles;
+	}
+
 	public List<String> titlesForAuthor(Author author, int limit) {
 		if (limit <= 0) {
 			return Collections.emptyList();
 		}
-		final ArrayList<String> titles = new ArrayList<String>(limit);
-		final boolean isNull = Author.NULL.equals(author);
 		synchronized (myBooksByFile) {
-			for (Book b : myBooksByFile.values()) {
-				if (isNull ? b.authors().isEmpty() : b.authors().contains(author)) {
-					titles.add(b.getTitle());
-					if (--limit == 0) {
-						break;
-					}
-				}
-			}
+			return titles(myIndex.booksForAuthor(author, limit));
 		}
-		return titles;
 	}
 
 	public List<String> titlesForSeries(String series, int limit) {
 		if (limit <= 0) {
 			return Collections.emptyList();
 		}
-		final ArrayList<String> titles = new ArrayList<String>(limit);
 		synchronized (myBooksByFile) {
-			for (Book b : myBooksByFile.values()) {
-				final SeriesInfo info = b.getSeriesInfo();
-				if (info != null && series.equals(info.Title)) {
-					titles.add(b.getTitle());
-					if (--limit == 0) {
-						break;
-					}
-				}
-			}
+			return titles(myIndex.booksForSeries(series, limit));
 		}
-		return titles;
 	}
 
 	public List<String> titlesForSeriesAndAuthor(String series, Author author, int limit) {
 		if (limit <= 0) {
 			return Collections.emptyList();
 		}
-		final boolean isNull = Author.NULL.equals(author);
-		final ArrayList<String> titles = new ArrayList<String>(limit);
 		synchronized (myBooksByFile) {
-			for (Book b : myBooksByFile.values()) {
-				final List<Author> bookAuthors = b.authors();
-				final SeriesInfo info = b.getSeriesInfo();
-				if (info != null && series.equals(info.Title)
-					&& (isNull && bookAuthors.isEmpty() || bookAuthors.contains(author))) {
-					titles.add(b.getTitle());
-					if (--limit == 0) {
-						break;
-					}
-				}
-			}
+			return titles(myIndex.booksForSeriesAndAuthor(series, author, limit));
 		}
-		return titles;
 	}
 
 	public List<String> titlesForTag(Tag tag, int limit) {
 		if (limit <= 0) {
 			return Collections.emptyList();
 		}
-		final ArrayList<String> titles = new ArrayList<String>(limit);
-		final boolean isNull = Tag.NULL.equals(tag);
 		synchronized (myBooksByFile) {
-			for (Book b : myBooksByFile.values()) {
-				if (isNull ? b.tags().isEmpty() : b.tags().contains(tag)) {
-					titles.add(b.getTitle());
-					if (--limit == 0) {
-						break;
-					}
-				}
-			}
+			return titles(myIndex.booksForTag(tag, limit));
 		}
-		return titles;
 	}
 
 	public List<String> titlesForTitlePrefix(String prefix, int limit) {
 		if (limit <= 0) {
 			return Collections.emptyList();
 		}
-		final ArrayList<String> titles = new ArrayList<String>(limit);
 		synchronized (myBooksByFile) {
-			for (Book b : myBooksByFile.values()) {
-				if (prefix.equals(TitleUtil.firstTitleLetter(b))) {
-					titles.add(b.getTitle());
-					if (--limit == 0) {
-						break;
-					}
-				}
-			}
+			return titles(myIndex.booksForTitleLetter(prefix, limit));
 		}
-		return titles;
 	}
 
 	public Book getRecentBook(int index) {
@@ -507,6 +618,9 @@ public class BookCollection extends AbstractBookCollection {
 	}
 
 	private void setStatus(Status status) {
+		if (status.IsCompleted) {
+			myBuildFinishTime = System.currentTimeMillis();
+		}
 		myStatus = status;
 		fireBuildEvent(status);
 	}
@@ -517,7 +631,7 @@ public class BookCollection extends AbstractBookCollection {
 		}
 		setStatus(Status.Started);
 
-		final Thread builder = new Thread("Library.build") {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Maintenance, new Runnable() {
 			public void run() {
 				try {
 					build();
@@ -528,11 +642,10 @@ public class BookCollection extends AbstractBookCollection {
 					synchronized (myFilesToRescan) {
 						processFilesQueue();
 					}
+					myTextIndex.start();
 				}
 			}
-		};
-		builder.setPriority(Thread.MIN_PRIORITY);
-		builder.start();
+		});
 	}
 
 	public void rescan(String path) {
@@ -548,20 +661,99 @@ public class BookCollection extends AbstractBookCollection {
 				return;
 			}
 
-			for (ZLFile file : collectPhysicalFiles(myFilesToRescan)) {
-				// TODO:
-				// collect books from archives
-				// rescan files and check book id
-				final Book book = getBookByFile(file);
-				if (book != null) {
-					saveBook(book, false);
+			for (String path : myFilesToRescan) {
+				if (!new File(path).exists()) {
+					removeMissingBooks(path);
+					myScannedDirectories.remove(path);
 				}
 			}
+
+			final DirectoryScanner scanner =
+				new DirectoryScanner(Collections.<String,DirectorySnapshot>emptyMap());
+			scanner.scan(myFilesToRescan);
+			for (ZLPhysicalFile file : scanner.files()) {
+				rescanFile(file);
+				file.setCached(false);
+			}
+			for (DirectorySnapshot snapshot : scanner.snapshots()) {
+				myScannedDirectories.add(snapshot.Path);
+			}
 			myFilesToRescan.clear();
 		}
 	}
 
+	private void rescanFile(ZLPhysicalFile file) {
+		final FileInfoSet fileInfos = new FileInfoSet(myDatabase, file);
+		final boolean changed = !fileInfos.check(file, true);
+		fileInfos.save();
+
+		final Book existing = myBooksByFile.get(file);
+		if (existing != null) {
+			if (changed) {
+				try {
+					existing.readMetaInfo();
+					saveBook(existing, true);
+				} catch (BookReadingException e) {
+					// ignore
+				}
+			}
+			return;
+		}
+
+		final List<Book> found = new LinkedList<Book>();
+		final Book book = getBookByFile(file);
+		if (book != null) {
+			found.add(book);
+		} else if (file.isArchive()) {
+			for (ZLFile entry : fileInfos.archiveEntries(file)) {
+				final Book entryBook = getBookByFile(entry);
+				if (entryBook != null) {
+					found.add(entryBook);
+				}
+			}
+		}
+		// books could be marked as "orphaned" by one of previous builds
+		myDatabase.setExistingFlag(found, true);
+	}
+
+	private void removeMissingBooks(String path) {
+		try {
+			path = new File(path).getCanonicalPath();
+		} catch (IOException e) {
+			// ignore
+		}
+		final String prefix = path + '/';
+
+		final List<Book> removed = new LinkedList<Book>();
+		synchronized (myBooksByFile) {
+			for (Iterator<Book> it = myBooksByFile.values().iterator(); it.hasNext(); ) {
+				final Book book = it.next();
+				final ZLPhysicalFile file = book.File.getPhysicalFile();
+				if (file == null) {
+					continue;
+				}
+				final String filePath = file.getPath();
+				if ((filePath.equals(path) || filePath.startsWith(prefix)) && !file.exists()) {
+					it.remove();
+					myBooksById.remove(book.getId());
+					myIndex.remove(book);
+					myTextIndex.remove(book);
+					removed.add(book);
+				}
+			}
+		}
+		myDatabase.setExistingFlag(removed, false);
+		for (Book book : removed) {
+			fireBookEvent(BookEvent.Removed, book);
+		}
+	}
+
 	private void build() {
+		myFilesFound.set(0);
+		myFilesProcessed.set(0);
+		myBooksFound.set(0);
+		myBuildStartTime = System.currentTimeMillis();
+
 		// Step 0: get database books marked as "existing"
 		final FileInfoSet fileInfos = new FileInfoSet(myDatabase);
 		final Map<Long,Book> savedBooksByFileId = myDatabase.loadBooks(fileInfos, true);
@@ -570,62 +762,68 @@ public class BookCollection extends AbstractBookCollection {
 			savedBooksByBookId.put(b.getId(), b);
 		}
 
-		// Step 1: check if files corresponding to "existing" books really exists;
-		//         add books to library if yes (and reload book info if needed);
-		//         remove from recent/favorites list if no;
-		//         collect newly "orphaned" books
-		final Set<Book> orphanedBooks = new HashSet<Book>();
-		final Set<ZLPhysicalFile> physicalFiles = new HashSet<ZLPhysicalFile>();
-		int count = 0;
-		for (Book book : savedBooksByFileId.values()) {
-			final ZLPhysicalFile file = book.File.getPhysicalFile();
-			if (file != null) {
-				physicalFiles.add(file);
-			}
-			if (file != book.File && file != null && file.getPath().endsWith(".epub")) {
-				continue;
-			}
-			if (book.File.exists()) {
-				boolean doAdd = true;
-				if (file == null) {
-					continue;
+		// directories not changed since the previous build are not listed file by file
+		final DirectoryScanner scanner = new DirectoryScanner(myDatabase.loadDirectorySnapshots());
+		scanner.scan(bookDirectories());
+		for (DirectorySnapshot snapshot : scanner.snapshots()) {
+			myScannedDirectories.add(snapshot.Path);
+		}
+
+		final BuildPipeline pipeline = new BuildPipeline(fileInfos, savedBooksByFileId);
+		final Set<ZLPhysicalFile> filesToUncache = new HashSet<ZLPhysicalFile>();
+		try {
+			// Step 1: check if files corresponding to "existing" books really exists;
+			//         add books to library if yes (and reload book info if needed);
+			//         remove from recent/favorites list if no;
+			//         collect newly "orphaned" books
+			final Set<Book> orphanedBooks = new HashSet<Book>();
+			final Set<ZLPhysicalFile> physicalFiles = new HashSet<ZLPhysicalFile>();
+			for (Book book : savedBooksByFileId.values()) {
+				final ZLPhysicalFile file = book.File.getPhysicalFile();
+				if (file != null) {
+					physicalFiles.add(file);
 				}
-				if (!fileInfos.check(file, true)) {
-					try {
-						book.readMetaInfo();
-						saveBook(book, false);
-					} catch (BookReadingException e) {
-						doAdd = false;
-					}
-					file.setCached(false);
+				if (file != book.File && file != null && file.getPath().endsWith(".epub")) {
+					continue;
 				}
-				if (doAdd) {
+				if (file != null && scanner.isUnchanged(file)) {
 					// loaded from db
 					addBook(book, false);
+				} else if (book.File.exists()) {
+					if (file == null) {
+						continue;
+					}
+					if (!fileInfos.check(file, true)) {
+						pipeline.refresh(book);
+						filesToUncache.add(file);
+					} else {
+						// loaded from db
+						addBook(book, false);
+					}
+				} else {
+					orphanedBooks.add(book);
 				}
-			} else {
-				orphanedBooks.add(book);
 			}
-		}
-		myDatabase.setExistingFlag(orphanedBooks, false);
+			myDatabase.setExistingFlag(orphanedBooks, false);
 
-		// Step 2: collect books from physical files; add new, update already added,
-		//         unmark orphaned as existing again, collect newly added
-		final Map<Long,Book> orphanedBooksByFileId = myDatabase.loadBooks(fileInfos, false);
-		final Set<Book> newBooks = new HashSet<Book>();
+			// Step 2: collect books from physical files; add new, update already added,
+			//         unmark orphaned as existing again, collect newly added
+			pipeline.setOrphanedBooks(myDatabase.loadBooks(fileInfos, false));
 
-		final List<ZLPhysicalFile> physicalFilesList = collectPhysicalFiles(bookDirectories());
-		for (ZLPhysicalFile file : physicalFilesList) {
-			if (physicalFiles.contains(file)) {
-				continue;
+			final List<ZLPhysicalFile> physicalFilesList = scanner.files();
+			myFilesFound.set(physicalFilesList.size());
+			for (ZLPhysicalFile file : physicalFilesList) {
+				if (!physicalFiles.contains(file)) {
+					pipeline.collect(file, !fileInfos.check(file, true));
+				}
+				filesToUncache.add(file);
+			}
+			pipeline.finish();
+		} finally {
+			pipeline.shutdown();
+			for (ZLPhysicalFile file : filesToUncache) {
+				file.setCached(false);
 			}
-			collectBooks(
-				file, fileInfos,
-				savedBooksByFileId, orphanedBooksByFileId,
-				newBooks,
-				!fileInfos.check(file, true)
-			);
-			file.setCached(false);
 		}
 
 		// Step 3: add help file
@@ -643,92 +841,207 @@ public class BookCollection extends AbstractBookCollection {
 			e.printStackTrace();
 		}
 
-		// Step 4: save changes into database
+		// Step 4: save remaining file infos and directory snapshots into database
 		fileInfos.save();
-
-		myDatabase.executeAsTransaction(new Runnable() {
-			public void run() {
-				for (Book book : newBooks) {
-					saveBook(book, false);
-				}
-			}
-		});
-		myDatabase.setExistingFlag(newBooks, true);
+		if (scanner.snapshotsChanged()) {
+			myDatabase.saveDirectorySnapshots(scanner.snapshots());
+		}
 	}
 
-	public List<String> bookDirectories() {
-		return Collections.singletonList(Paths.BooksDirectoryOption().getValue());
+	private static final class ScanResult {
+		final ZLFile File;
+		final Book Book;
+		final boolean IsNew;
+		final boolean DoReadMetaInfo;
+
+		ScanResult(ZLFile file, Book book, boolean isNew, boolean doReadMetaInfo) {
+			File = file;
+			Book = book;
+			IsNew = isNew;
+			DoReadMetaInfo = doReadMetaInfo;
+		}
 	}
 
-	private List<ZLPhysicalFile> collectPhysicalFiles(List<String> directories) {
-		final Queue<ZLPhysicalFile> fileQueue = new LinkedList<ZLPhysicalFile>();
-		final HashSet<ZLPhysicalFile> dirSet = new HashSet<ZLPhysicalFile>();
-		final LinkedList<ZLPhysicalFile> fileList = new LinkedList<ZLPhysicalFile>();
+	/*
+	 * Metadata extraction pipeline used by build().
+	 *
+	 * Change detection and FileInfoSet access stay on the building thread;
+	 * book meta info is read by a pool of worker threads.  Format plugins
+	 * are shared by the workers: every NativeFormatPlugin is a front-end for
+	 * a single native plugin object, so its synchronized methods serialize
+	 * native calls for that format, while files of other formats (and Java
+	 * plugins) are processed in parallel.  Found books are written into
+	 * the database in batches, one transaction per batch.
+	 */
+	private final class BuildPipeline {
+		private static final int BATCH_SIZE = 64;
+
+		private final FileInfoSet myFileInfos;
+		private final Map<Long,Book> mySavedBooksByFileId;
+		private Map<Long,Book> myOrphanedBooksByFileId = Collections.emptyMap();
+
+		private final ExecutorService myExecutor;
+		private final CompletionService<ScanResult> myCompletionService;
+		private final int myMaxPendingTasks;
+		private int myPendingTasks;
+
+		private final List<Book> myBatch = new ArrayList<Book>(BATCH_SIZE);
+
+		BuildPipeline(FileInfoSet fileInfos, Map<Long,Book> savedBooksByFileId) {
+			myFileInfos = fileInfos;
+			mySavedBooksByFileId = savedBooksByFileId;
+
+			// books of java plugins are read in parallel; NativeFormatPlugin
+			// serializes the native calls by itself
+			final int threadsNumber = Runtime.getRuntime().availableProcessors();
+			myExecutor = Executors.newFixedThreadPool(threadsNumber, new ThreadFactory() {
+				private int myCounter;
+
+				public synchronized Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Library.build." + ++myCounter);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+			myCompletionService = new ExecutorCompletionService<ScanResult>(myExecutor);
+			myMaxPendingTasks = 4 * threadsNumber;
+		}
 
-		for (String path : directories) {
-			fileQueue.offer(new ZLPhysicalFile(new File(path)));
+		void setOrphanedBooks(Map<Long,Book> orphanedBooksByFileId) {
+			myOrphanedBooksByFileId = orphanedBooksByFileId;
 		}
 
-		while (!fileQueue.isEmpty()) {
-			final ZLPhysicalFile entry = fileQueue.poll();
-			if (entry.isDirectory()) {
-				if (dirSet.contains(entry)) {
-					continue;
+		void refresh(final Book book) {
+			submit(new Callable<ScanResult>() {
+				public ScanResult call() {
+					try {
+						book.readMetaInfo();
+						return new ScanResult(book.File, book, false, true);
+					} catch (BookReadingException e) {
+						return new ScanResult(book.File, null, false, true);
+					}
 				}
-				dirSet.add(entry);
-				for (ZLFile file : entry.children()) {
-					fileQueue.add((ZLPhysicalFile)file);
+			});
+		}
+
+		void collect(final ZLFile file, final boolean doReadMetaInfo) {
+			final long fileId = myFileInfos.getId(file);
+			if (mySavedBooksByFileId.get(fileId) != null) {
+				processed(file);
+				return;
+			}
+
+			final Book orphanedBook = myOrphanedBooksByFileId.get(fileId);
+			if (orphanedBook != null && !doReadMetaInfo) {
+				addNewBook(orphanedBook);
+				processed(file);
+				return;
+			}
+
+			submit(new Callable<ScanResult>() {
+				public ScanResult call() {
+					if (orphanedBook != null) {
+						try {
+							orphanedBook.readMetaInfo();
+							return new ScanResult(file, orphanedBook, true, doReadMetaInfo);
+						} catch (BookReadingException e) {
+							// ignore
+						}
+					}
+					try {
+						return new ScanResult(file, new Book(file), true, doReadMetaInfo);
+					} catch (BookReadingException e) {
+						return new ScanResult(file, null, true, doReadMetaInfo);
+					}
 				}
-			} else {
-				entry.setCached(true);
-				fileList.add(entry);
+			});
+		}
+
+		void finish() {
+			while (myPendingTasks > 0) {
+				takeResult();
 			}
+			flush();
 		}
 
-		return fileList;
-	}
+		void shutdown() {
+			myExecutor.shutdownNow();
+		}
 
-	private void collectBooks(
-		ZLFile file, FileInfoSet fileInfos,
-		Map<Long,Book> savedBooksByFileId, Map<Long,Book> orphanedBooksByFileId,
-		Set<Book> newBooks,
-		boolean doReadMetaInfo
-	) {
-		final long fileId = fileInfos.getId(file);
-		if (savedBooksByFileId.get(fileId) != null) {
-			return;
+		private void submit(Callable<ScanResult> task) {
+			while (myPendingTasks >= myMaxPendingTasks) {
+				takeResult();
+			}
+			myCompletionService.submit(task);
+			++myPendingTasks;
 		}
 
-		try {
-			final Book book = orphanedBooksByFileId.get(fileId);
-			if (book != null) {
-				if (doReadMetaInfo) {
-					book.readMetaInfo();
+		private void takeResult() {
+			final ScanResult result;
+			try {
+				result = myCompletionService.take().get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				--myPendingTasks;
+			}
+
+			if (!result.IsNew) {
+				if (result.Book != null) {
+					saveBook(result.Book, false);
+				}
+			} else if (result.Book != null) {
+				addNewBook(result.Book);
+			} else if (result.File.isArchive()) {
+				for (ZLFile entry : myFileInfos.archiveEntries(result.File)) {
+					collect(entry, result.DoReadMetaInfo);
 				}
-				newBooks.add(book);
-				return;
 			}
-		} catch (BookReadingException e) {
-			// ignore
+			processed(result.File);
 		}
 
-		try {
-			final Book book = new Book(file);
-			newBooks.add(book);
-			return;
-		} catch (BookReadingException e) {
-			// ignore
+		private void processed(ZLFile file) {
+			if (file instanceof ZLPhysicalFile) {
+				myFilesProcessed.incrementAndGet();
+			}
 		}
 
-		if (file.isArchive()) {
-			for (ZLFile entry : fileInfos.archiveEntries(file)) {
-				collectBooks(
-					entry, fileInfos,
-					savedBooksByFileId, orphanedBooksByFileId,
-					newBooks,
-					doReadMetaInfo
-				);
+		private void addNewBook(Book book) {
+			myBooksFound.incrementAndGet();
+			myBatch.add(book);
+			if (myBatch.size() >= BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		private void flush() {
+			if (myBatch.isEmpty()) {
+				return;
 			}
+			final List<Book> batch = new ArrayList<Book>(myBatch);
+			myBatch.clear();
+
+			myFileInfos.save();
+			myDatabase.executeAsTransaction(new Runnable() {
+				public void run() {
+					for (Book book : batch) {
+						saveBook(book, false);
+					}
+				}
+			});
+			myDatabase.setExistingFlag(batch, true);
+		}
+	}
+
+	public List<String> bookDirectories() {
+		return Collections.singletonList(Paths.BooksDirectoryOption().getValue());
+	}
+
+	public List<String> scannedDirectories() {
+		synchronized (myScannedDirectories) {
+			return new ArrayList<String>(myScannedDirectories);
 		}
 	}
 
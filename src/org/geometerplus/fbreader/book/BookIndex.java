@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.util.*;
+
+/*
+ * Incrementally maintained search index over the books of a collection.
+ *
+ * Books are grouped by author, tag, series and first title letter; for
+ * pattern search, every letter-or-digit run of the searchable fields
+ * (title, series, authors, tags, file name; the same fields as in
+ * Book.matches()) is a token with a posting list.  A pattern is a substring
+ * of the text only if each of its runs is a substring of some token, so
+ * posting lists of such tokens give a candidate set; the candidates are then
+ * checked against the whole text.
+ *
+ * The class is not thread-safe; BookCollection guards it by its book map.
+ */
+final class BookIndex {
+	private static final class Entry {
+		final Book Book;
+		final long Sequence;
+		final String Text;
+		final Set<String> Tokens;
+		final List<Author> Authors;
+		final List<Tag> Tags;
+		final String Series;
+		final String TitleLetter;
+
+		Entry(Book book, long sequence) {
+			Book = book;
+			Sequence = sequence;
+
+			final StringBuilder text = new StringBuilder();
+			appendText(text, book.getTitle());
+			final SeriesInfo seriesInfo = book.getSeriesInfo();
+			Series = seriesInfo != null ? seriesInfo.Title : null;
+			appendText(text, Series);
+			final List<Author> authors = book.authors();
+			Authors = authors.isEmpty()
+				? Collections.singletonList(Author.NULL)
+				: new ArrayList<Author>(authors);
+			for (Author a : authors) {
+				appendText(text, a.DisplayName);
+			}
+			final List<Tag> tags = book.tags();
+			Tags = tags.isEmpty()
+				? Collections.singletonList(Tag.NULL)
+				: new ArrayList<Tag>(tags);
+			for (Tag t : tags) {
+				appendText(text, t.Name);
+			}
+			appendText(text, book.File.getLongName());
+			Text = text.toString();
+			Tokens = new HashSet<String>(tokens(Text));
+			TitleLetter = TitleUtil.firstTitleLetter(book);
+		}
+
+		private static void appendText(StringBuilder builder, String text) {
+			if (text != null) {
+				// '\n' never occurs in a search pattern, so no match crosses field boundaries
+				builder.append(text.toLowerCase()).append('\n');
+			}
+		}
+	}
+
+	private static final Comparator<Entry> BY_SEQUENCE = new Comparator<Entry>() {
+		public int compare(Entry e0, Entry e1) {
+			return e0.Sequence < e1.Sequence ? -1 : (e0.Sequence == e1.Sequence ? 0 : 1);
+		}
+	};
+
+	private long myNextSequence;
+	private final Map<Long,Entry> myEntries = new HashMap<Long,Entry>();
+	private final SortedSet<Entry> myAllEntries = new TreeSet<Entry>(BY_SEQUENCE);
+
+	private final Map<String,SortedSet<Entry>> myPostings = new HashMap<String,SortedSet<Entry>>();
+	private final Map<Author,SortedSet<Entry>> myByAuthor = new HashMap<Author,SortedSet<Entry>>();
+	private final Map<Tag,SortedSet<Entry>> myByTag = new HashMap<Tag,SortedSet<Entry>>();
+	private final Map<String,SortedSet<Entry>> myBySeries = new HashMap<String,SortedSet<Entry>>();
+	private final Map<String,SortedSet<Entry>> myByTitleLetter = new HashMap<String,SortedSet<Entry>>();
+
+	// tokens containing recently searched runs; search-as-you-type narrows these lists
+	private final LinkedHashMap<String,List<String>> myTokensByRun =
+		new LinkedHashMap<String,List<String>>(16, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,List<String>> eldest) {
+				return size() > 8;
+			}
+		};
+
+	// adds a book, or re-indexes it keeping its position
+	void add(Book book) {
+		final Entry old = myEntries.get(book.getId());
+		final Entry entry = new Entry(book, old != null ? old.Sequence : myNextSequence++);
+		if (old != null) {
+			remove(old);
+		}
+		myEntries.put(book.getId(), entry);
+		myAllEntries.add(entry);
+		for (String token : entry.Tokens) {
+			if (put(myPostings, token, entry)) {
+				myTokensByRun.clear();
+			}
+		}
+		for (Author a : entry.Authors) {
+			put(myByAuthor, a, entry);
+		}
+		for (Tag t : entry.Tags) {
+			put(myByTag, t, entry);
+		}
+		if (entry.Series != null) {
+			put(myBySeries, entry.Series, entry);
+		}
+		if (entry.TitleLetter != null) {
+			put(myByTitleLetter, entry.TitleLetter, entry);
+		}
+	}
+
+	void remove(Book book) {
+		final Entry entry = myEntries.remove(book.getId());
+		if (entry != null) {
+			remove(entry);
+		}
+	}
+
+	private void remove(Entry entry) {
+		myAllEntries.remove(entry);
+		for (String token : entry.Tokens) {
+			if (remove(myPostings, token, entry)) {
+				myTokensByRun.clear();
+			}
+		}
+		for (Author a : entry.Authors) {
+			remove(myByAuthor, a, entry);
+		}
+		for (Tag t : entry.Tags) {
+			remove(myByTag, t, entry);
+		}
+		if (entry.Series != null) {
+			remove(myBySeries, entry.Series, entry);
+		}
+		if (entry.TitleLetter != null) {
+			remove(myByTitleLetter, entry.TitleLetter, entry);
+		}
+	}
+
+	// returns true if the key is new
+	private static <K> boolean put(Map<K,SortedSet<Entry>> map, K key, Entry entry) {
+		SortedSet<Entry> set = map.get(key);
+		final boolean isNew = set == null;
+		if (isNew) {
+			set = new TreeSet<Entry>(BY_SEQUENCE);
+			map.put(key, set);
+		}
+		set.add(entry);
+		return isNew;
+	}
+
+	// returns true if the key is removed
+	private static <K> boolean remove(Map<K,SortedSet<Entry>> map, K key, Entry entry) {
+		final SortedSet<Entry> set = map.get(key);
+		if (set != null && set.remove(entry) && set.isEmpty()) {
+			map.remove(key);
+			return true;
+		}
+		return false;
+	}
+
+	private static List<Book> books(Collection<Entry> entries, int limit) {
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		final List<Book> books = new ArrayList<Book>(Math.min(entries.size(), limit));
+		for (Entry e : entries) {
+			if (books.size() >= limit) {
+				break;
+			}
+			books.add(e.Book);
+		}
+		return books;
+	}
+
+	List<Book> books(int limit) {
+		return books(myAllEntries, limit);
+	}
+
+	List<Book> booksForAuthor(Author author, int limit) {
+		return books(myByAuthor.get(author), limit);
+	}
+
+	List<Book> booksForTag(Tag tag, int limit) {
+		return books(myByTag.get(tag), limit);
+	}
+
+	List<Book> booksForSeries(String series, int limit) {
+		return books(myBySeries.get(series), limit);
+	}
+
+	List<Book> booksForSeriesAndAuthor(String series, Author author, int limit) {
+		final SortedSet<Entry> bySeries = myBySeries.get(series);
+		final SortedSet<Entry> byAuthor = myByAuthor.get(author);
+		if (bySeries == null || byAuthor == null) {
+			return Collections.emptyList();
+		}
+		final List<Entry> entries = new LinkedList<Entry>();
+		for (Entry e : bySeries) {
+			if (byAuthor.contains(e)) {
+				entries.add(e);
+			}
+		}
+		return books(entries, limit);
+	}
+
+	List<Book> booksForTitleLetter(String letter, int limit) {
+		return books(myByTitleLetter.get(letter), limit);
+	}
+
+	List<Author> authors() {
+		return new ArrayList<Author>(new TreeSet<Author>(myByAuthor.keySet()));
+	}
+
+	List<Tag> tags() {
+		final Set<Tag> tags = new HashSet<Tag>();
+		for (Tag t : myByTag.keySet()) {
+			for (; t != null; t = t.Parent) {
+				tags.add(t);
+			}
+		}
+		return new ArrayList<Tag>(tags);
+	}
+
+	boolean hasSeries() {
+		return !myBySeries.isEmpty();
+	}
+
+	List<String> series() {
+		return new ArrayList<String>(new TreeSet<String>(myBySeries.keySet()));
+	}
+
+	// pattern must be in lower case
+	List<Book> booksForPattern(String pattern, int limit) {
+		final List<String> runs = tokens(pattern);
+		Collection<Entry> candidates = myAllEntries;
+		if (!runs.isEmpty()) {
+			// longer runs are usually more selective
+			Collections.sort(runs, new Comparator<String>() {
+				public int compare(String s0, String s1) {
+					return s1.length() - s0.length();
+				}
+			});
+			Set<Entry> intersection = null;
+			for (String run : runs) {
+				final Set<Entry> union = new HashSet<Entry>();
+				for (String token : tokensContaining(run)) {
+					union.addAll(myPostings.get(token));
+				}
+				if (intersection == null) {
+					intersection = union;
+				} else {
+					intersection.retainAll(union);
+				}
+				if (intersection.isEmpty()) {
+					return Collections.emptyList();
+				}
+			}
+			final List<Entry> sorted = new ArrayList<Entry>(intersection);
+			Collections.sort(sorted, BY_SEQUENCE);
+			candidates = sorted;
+		}
+
+		final List<Entry> entries = new LinkedList<Entry>();
+		for (Entry e : candidates) {
+			if (e.Text.indexOf(pattern) >= 0) {
+				entries.add(e);
+				if (entries.size() >= limit) {
+					break;
+				}
+			}
+		}
+		return books(entries, limit);
+	}
+
+	private List<String> tokensContaining(String run) {
+		List<String> tokens = myTokensByRun.get(run);
+		if (tokens != null) {
+			return tokens;
+		}
+
+		Collection<String> vocabulary = myPostings.keySet();
+		for (Map.Entry<String,List<String>> cached : myTokensByRun.entrySet()) {
+			if (run.contains(cached.getKey()) && cached.getValue().size() < vocabulary.size()) {
+				vocabulary = cached.getValue();
+			}
+		}
+		tokens = new ArrayList<String>();
+		for (String token : vocabulary) {
+			if (token.contains(run)) {
+				tokens.add(token);
+			}
+		}
+		myTokensByRun.put(run, tokens);
+		return tokens;
+	}
+
+	private static List<String> tokens(String text) {
+		final List<String> tokens = new ArrayList<String>();
+		final int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; ++i) {
+			if (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (start != -1) {
+				tokens.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import org.geometerplus.zlibrary.core.util.MiscUtil;
+
+public final class BookQuery {
+	public enum Kind {
+		All,
+		Author,
+		Tag,
+		Series,
+		SeriesAndAuthor,
+		TitlePrefix,
+		Pattern,
+		Recent,
+		Favorites
+	}
+
+	public enum Order {
+		// the order of the corresponding list method
+		Natural,
+		// the order of the library tree nodes: by title ignoring case, then by file path
+		Title
+	}
+
+	public static BookQuery all() {
+		return new BookQuery(Kind.All, Order.Natural, null, null, null, null);
+	}
+
+	public static BookQuery forAuthor(Author author) {
+		return new BookQuery(Kind.Author, Order.Natural, author, null, null, null);
+	}
+
+	public static BookQuery forTag(Tag tag) {
+		return new BookQuery(Kind.Tag, Order.Natural, null, tag, null, null);
+	}
+
+	public static BookQuery forSeries(String series) {
+		return new BookQuery(Kind.Series, Order.Natural, null, null, series, null);
+	}
+
+	public static BookQuery forSeriesAndAuthor(String series, Author author) {
+		return new BookQuery(Kind.SeriesAndAuthor, Order.Natural, author, null, series, null);
+	}
+
+	public static BookQuery forTitlePrefix(String prefix) {
+		return new BookQuery(Kind.TitlePrefix, Order.Natural, null, null, null, prefix);
+	}
+
+	public static BookQuery forPattern(String pattern) {
+		return new BookQuery(Kind.Pattern, Order.Natural, null, null, null, pattern);
+	}
+
+	public static BookQuery recent() {
+		return new BookQuery(Kind.Recent, Order.Natural, null, null, null, null);
+	}
+
+	public static BookQuery favorites() {
+		return new BookQuery(Kind.Favorites, Order.Natural, null, null, null, null);
+	}
+
+	public final Kind QueryKind;
+	public final Order SortOrder;
+	public final Author Author;
+	public final Tag Tag;
+	public final String Series;
+	// title prefix or search pattern
+	public final String Text;
+
+	public BookQuery(Kind kind, Order order, Author author, Tag tag, String series, String text) {
+		QueryKind = kind;
+		SortOrder = order;
+		Author = author;
+		Tag = tag;
+		Series = series;
+		Text = text;
+	}
+
+	public BookQuery sortedBy(Order order) {
+		return order == SortOrder ? this : new BookQuery(QueryKind, order, Author, Tag, Series, Text);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof BookQuery)) {
+			return false;
+		}
+		final BookQuery q = (BookQuery)o;
+		return
+			QueryKind == q.QueryKind &&
+			SortOrder == q.SortOrder &&
+			MiscUtil.equals(Author, q.Author) &&
+			MiscUtil.equals(Tag, q.Tag) &&
+			MiscUtil.equals(Series, q.Series) &&
+			MiscUtil.equals(Text, q.Text);
+	}
+
+	@Override
+	public int hashCode() {
+		return
+			QueryKind.hashCode() + 31 * SortOrder.hashCode() +
+			MiscUtil.hashCode(Author) + MiscUtil.hashCode(Tag) +
+			MiscUtil.hashCode(Series) + MiscUtil.hashCode(Text);
+	}
+}
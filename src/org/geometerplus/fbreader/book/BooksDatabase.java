@@ -83,6 +83,14 @@ public abstract class BooksDatabase {
 	protected abstract void removeFileInfo(long fileId);
 	protected abstract void saveFileInfo(FileInfo fileInfo);
 
+	protected DirectorySnapshot createDirectorySnapshot(String path, long modificationTime, int childrenNumber, long namesHash) {
+		return new DirectorySnapshot(path, modificationTime, childrenNumber, namesHash);
+	}
+
+	// returns map path -> snapshot
+	protected abstract Map<String,DirectorySnapshot> loadDirectorySnapshots();
+	protected abstract void saveDirectorySnapshots(Collection<DirectorySnapshot> snapshots);
+
 	protected abstract List<Long> loadRecentBookIds();
 	protected abstract void saveRecentBookIds(final List<Long> ids);
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.io.File;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
+
+/*
+ * Enumerates book directories, comparing every directory with its snapshot
+ * from the previous scan.  A directory with the same modification time
+ * and the same set of names is not listed file by file: its files are
+ * not reported, and its subdirectories are taken from the old snapshots.
+ * Changes inside unchanged directories (e.g. a file rewritten in place)
+ * are expected to come through BookCollection.rescan().
+ */
+final class DirectoryScanner {
+	private final Map<String,DirectorySnapshot> myOldSnapshots;
+	private Map<String,List<String>> mySubdirectories;
+
+	private final Map<String,DirectorySnapshot> myNewSnapshots =
+		new HashMap<String,DirectorySnapshot>();
+	private final Set<String> myUnchangedDirectories = new HashSet<String>();
+	private final List<ZLPhysicalFile> myFiles = new LinkedList<ZLPhysicalFile>();
+
+	DirectoryScanner(Map<String,DirectorySnapshot> oldSnapshots) {
+		myOldSnapshots = oldSnapshots;
+	}
+
+	void scan(List<String> paths) {
+		final Queue<File> queue = new LinkedList<File>();
+		for (String path : paths) {
+			final File file = new File(path);
+			if (file.isDirectory()) {
+				queue.offer(file);
+			} else if (file.exists()) {
+				addFile(file);
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			final File directory = queue.poll();
+			final String[] names = directory.list();
+			if (names == null) {
+				continue;
+			}
+			final String path = new ZLPhysicalFile(directory).getPath();
+			if (myNewSnapshots.containsKey(path)) {
+				continue;
+			}
+			final DirectorySnapshot snapshot = new DirectorySnapshot(
+				path, directory.lastModified(), names.length, DirectorySnapshot.namesHash(names)
+			);
+			myNewSnapshots.put(path, snapshot);
+
+			if (snapshot.equals(myOldSnapshots.get(path))) {
+				myUnchangedDirectories.add(path);
+				for (String subPath : subdirectories(path)) {
+					queue.offer(new File(subPath));
+				}
+				continue;
+			}
+
+			for (String name : names) {
+				if (name.startsWith(".")) {
+					continue;
+				}
+				final File file = new File(directory, name);
+				if (file.isDirectory()) {
+					queue.offer(file);
+				} else {
+					addFile(file);
+				}
+			}
+		}
+	}
+
+	private void addFile(File file) {
+		final ZLPhysicalFile physicalFile = new ZLPhysicalFile(file);
+		physicalFile.setCached(true);
+		myFiles.add(physicalFile);
+	}
+
+	private List<String> subdirectories(String path) {
+		if (mySubdirectories == null) {
+			mySubdirectories = new HashMap<String,List<String>>();
+			for (DirectorySnapshot snapshot : myOldSnapshots.values()) {
+				final String parentPath = snapshot.parentPath();
+				List<String> list = mySubdirectories.get(parentPath);
+				if (list == null) {
+					list = new LinkedList<String>();
+					mySubdirectories.put(parentPath, list);
+				}
+				list.add(snapshot.Path);
+			}
+		}
+		final List<String> list = mySubdirectories.get(path);
+		return list != null ? list : Collections.<String>emptyList();
+	}
+
+	// files from changed directories only
+	List<ZLPhysicalFile> files() {
+		return myFiles;
+	}
+
+	boolean isUnchanged(ZLPhysicalFile file) {
+		final String path = file.getPath();
+		final int index = path.lastIndexOf('/');
+		return index > 0 && myUnchangedDirectories.contains(path.substring(0, index));
+	}
+
+	boolean snapshotsChanged() {
+		return !myNewSnapshots.equals(myOldSnapshots);
+	}
+
+	Collection<DirectorySnapshot> snapshots() {
+		return myNewSnapshots.values();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+public final class DirectorySnapshot {
+	public final String Path;
+	public final long ModificationTime;
+	public final int ChildrenNumber;
+	public final long NamesHash;
+
+	DirectorySnapshot(String path, long modificationTime, int childrenNumber, long namesHash) {
+		Path = path;
+		ModificationTime = modificationTime;
+		ChildrenNumber = childrenNumber;
+		NamesHash = namesHash;
+	}
+
+	// does not depend on the order of names
+	static long namesHash(String[] names) {
+		long hash = 0;
+		for (String n : names) {
+			final long h = n.hashCode();
+			hash += h * h + h;
+		}
+		return hash;
+	}
+
+	String parentPath() {
+		final int index = Path.lastIndexOf('/');
+		return index > 0 ? Path.substring(0, index) : null;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof DirectorySnapshot)) {
+			return false;
+		}
+		final DirectorySnapshot s = (DirectorySnapshot)o;
+		return
+			Path.equals(s.Path) &&
+			ModificationTime == s.ModificationTime &&
+			ChildrenNumber == s.ChildrenNumber &&
+			NamesHash == s.NamesHash;
+	}
+
+	@Override
+	public int hashCode() {
+		return Path.hashCode() + (int)ModificationTime + 31 * ChildrenNumber + (int)NamesHash;
+	}
+}
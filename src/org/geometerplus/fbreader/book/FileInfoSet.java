@@ -105,11 +105,18 @@ public final class FileInfoSet {
 			return true;
 		}
 		final long fileSize = file.size();
+		final long modificationTime = file.lastModified();
 		FileInfo info = get(file);
-		if (info.FileSize == fileSize) {
+		if (info.FileSize == fileSize && info.ModificationTime == modificationTime) {
+			return true;
+		} else if (info.FileSize == fileSize && info.ModificationTime == -1) {
+			// saved before modification times were stored
+			info.ModificationTime = modificationTime;
+			myInfosToSave.add(info);
 			return true;
 		} else {
 			info.FileSize = fileSize;
+			info.ModificationTime = modificationTime;
 			if (processChildren && !"epub".equals(file.getExtension())) {
 				removeChildren(info);
 				myInfosToSave.add(info);
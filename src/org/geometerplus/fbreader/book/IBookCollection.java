@@ -59,6 +59,13 @@ public interface IBookCollection {
 	boolean hasBooksForPattern(String pattern);
 	List<Book> booksForPattern(String pattern);
 
+	// a window of the query result; limit == Integer.MAX_VALUE means `up to the end'
+	int size(BookQuery query);
+	List<Book> books(BookQuery query, int offset, int limit);
+
+	// ranked paragraphs of indexed books containing all the query words
+	List<TextSearchHit> searchText(String query, int limit);
+
 	List<Book> favorites();
 	boolean hasFavorites();
 	boolean isFavorite(Book book);
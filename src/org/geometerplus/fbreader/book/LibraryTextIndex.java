@@ -0,0 +1,923 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
+
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+import org.geometerplus.zlibrary.text.model.ZLTextParagraph;
+
+import org.geometerplus.fbreader.Paths;
+import org.geometerplus.fbreader.bookmodel.BookModel;
+import org.geometerplus.fbreader.bookmodel.BookReadingException;
+
+/*
+ * Full-text index of the library books.
+ *
+ * Every book is indexed into its own segment file: a sorted array of 64-bit
+ * hashes of the book words (maximal runs of letters and digits, in lower
+ * case), for every word its (paragraph, frequency) postings, and the
+ * paragraph texts, deflated in blocks, for snippets.  A search reads
+ * the memory-mapped segments of all the books; paragraphs containing all
+ * the query words are ranked by the sum of BM25-like word weights.
+ *
+ * The state file lists the indexed books with the identity of the file
+ * (path, size, modification time) every segment was built for.  It is
+ * rewritten after every book, so indexing resumes where it stopped, and
+ * an unchanged book is never indexed twice.  Books are indexed one by one,
+ * by maintenance tasks; the next task is delayed twice as long as the
+ * previous one worked.  Books are read with a private working directory,
+ * so the files of the book opened in the reader are never touched.  A book
+ * that cannot be read or does not fit into the size limit is recorded in
+ * the state file too, and is not tried again until its file changes.
+ */
+final class LibraryTextIndex {
+	private static final int VERSION = 2;
+	private static final String STATE_FILE_NAME = "state";
+	private static final String SEGMENT_SUFFIX = ".segment";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final String READING_DIRECTORY_NAME = "reading";
+	// paragraphs per deflated text block
+	private static final int BLOCK_SIZE = 32;
+	private static final int PAUSE_RATIO = 2;
+	private static final int SNIPPET_LENGTH = 160;
+	private static final float K1 = 1.2f;
+
+	private static final AtomicLong ourIndexedBookCount = new AtomicLong();
+	private static final AtomicLong ourIndexedCharCount = new AtomicLong();
+	private static final AtomicLong ourIndexTime = new AtomicLong();
+	private static final AtomicLong ourSearchCount = new AtomicLong();
+	private static final AtomicLong ourSearchTime = new AtomicLong();
+
+	public static long indexedBookCount() {
+		return ourIndexedBookCount.get();
+	}
+
+	// characters of indexed text per second of indexing (not counting book reading)
+	public static long indexingSpeed() {
+		final long time = ourIndexTime.get();
+		return time != 0 ? ourIndexedCharCount.get() * 1000000000L / time : 0;
+	}
+
+	// in milliseconds
+	public static long averageSearchTime() {
+		final long count = ourSearchCount.get();
+		return count != 0 ? ourSearchTime.get() / count / 1000000 : 0;
+	}
+
+	public static void resetStatistics() {
+		ourIndexedBookCount.set(0);
+		ourIndexedCharCount.set(0);
+		ourIndexTime.set(0);
+		ourSearchCount.set(0);
+		ourSearchTime.set(0);
+	}
+
+	static final class Hit {
+		final long BookId;
+		final int ParagraphIndex;
+		final float Score;
+		String Snippet;
+
+		Hit(long bookId, int paragraphIndex, float score) {
+			BookId = bookId;
+			ParagraphIndex = paragraphIndex;
+			Score = score;
+		}
+	}
+
+	private static final Comparator<Hit> BY_SCORE = new Comparator<Hit>() {
+		public int compare(Hit h0, Hit h1) {
+			if (h0.Score != h1.Score) {
+				return h0.Score > h1.Score ? -1 : 1;
+			}
+			if (h0.BookId != h1.BookId) {
+				return h0.BookId < h1.BookId ? -1 : 1;
+			}
+			return h0.ParagraphIndex - h1.ParagraphIndex;
+		}
+	};
+
+	private static final class Entry {
+		final String Key;
+		final long Size;
+
+		Entry(String key, long size) {
+			Key = key;
+			Size = size;
+		}
+	}
+
+	private final File myDirectory;
+	private final long myMaxSize;
+	// all the fields below are guarded by this; myEntries is null until the state is read
+	private Map<Long,Entry> myEntries;
+	private long myTotalSize;
+	private final LinkedHashMap<Long,Book> myQueue = new LinkedHashMap<Long,Book>();
+	// books not indexed, by the file identity they were tried for; saved with myEntries
+	private final Map<Long,String> myRejectedKeys = new HashMap<Long,String>();
+	private final Map<Long,ByteBuffer> mySegments = new HashMap<Long,ByteBuffer>();
+	private boolean myStarted;
+	private long myCurrentId = -1;
+	private boolean myCurrentRemoved;
+	// no book is indexed before the time, in milliseconds
+	private long myResumeTime;
+	// a task is submitted (maybe with a delay), and has not started yet
+	private boolean myWakeupScheduled;
+
+	LibraryTextIndex(String directory, long maxSize) {
+		myDirectory = new File(directory);
+		myMaxSize = maxSize;
+	}
+
+	// books added before the call are queued, but not indexed
+	synchronized void start() {
+		myStarted = true;
+		startWorker();
+	}
+
+	synchronized void add(Book book) {
+		if (book.getId() == -1) {
+			return;
+		}
+		myQueue.put(book.getId(), book);
+		startWorker();
+	}
+
+	synchronized void remove(Book book) {
+		final long id = book.getId();
+		myQueue.remove(id);
+		if (id == myCurrentId) {
+			myCurrentRemoved = true;
+		}
+		loadState();
+		final boolean rejected = myRejectedKeys.remove(id) != null;
+		if (myEntries.containsKey(id)) {
+			deleteSegment(id);
+			writeState();
+		} else if (rejected) {
+			writeState();
+		}
+	}
+
+	// every task indexes one book, so other maintenance tasks are not held up
+	private void startWorker() {
+		if (myStarted && !myQueue.isEmpty() && !myWakeupScheduled) {
+			myWakeupScheduled = true;
+			ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Maintenance, this, new Runnable() {
+				public void run() {
+					processNext();
+				}
+			}, myResumeTime - System.currentTimeMillis());
+		}
+	}
+
+	private void processNext() {
+		final Book book;
+		synchronized (this) {
+			myWakeupScheduled = false;
+			final Iterator<Book> it = myQueue.values().iterator();
+			// another task is indexing a book; it queues the next task when finished
+			if (myCurrentId != -1 || !it.hasNext()) {
+				return;
+			}
+			if (System.currentTimeMillis() < myResumeTime) {
+				startWorker();
+				return;
+			}
+			book = it.next();
+			it.remove();
+			myCurrentId = book.getId();
+			myCurrentRemoved = false;
+		}
+		final long startTime = System.currentTimeMillis();
+		boolean worked = false;
+		try {
+			worked = index(book);
+		} finally {
+			synchronized (this) {
+				myCurrentId = -1;
+				if (worked) {
+					final long endTime = System.currentTimeMillis();
+					myResumeTime = endTime + PAUSE_RATIO * (endTime - startTime);
+				}
+				startWorker();
+			}
+		}
+	}
+
+	private static String key(Book book) {
+		final ZLPhysicalFile physicalFile = book.File.getPhysicalFile();
+		if (physicalFile == null) {
+			return null;
+		}
+		final StringBuilder builder = new StringBuilder();
+		builder.append(book.File.getPath()).append('\000');
+		builder.append(book.File.size()).append('\000');
+		builder.append(physicalFile.javaFile().lastModified());
+		return builder.toString();
+	}
+
+	// returns false if there was nothing to do
+	private boolean index(Book book) {
+		final long id = book.getId();
+		final String key = key(book);
+		if (key == null) {
+			return false;
+		}
+		synchronized (this) {
+			loadState();
+			final Entry entry = myEntries.get(id);
+			if (entry != null && key.equals(entry.Key)) {
+				return false;
+			}
+			final String rejectedKey = myRejectedKeys.get(id);
+			if (key.equals(rejectedKey)) {
+				return false;
+			}
+			if (rejectedKey != null) {
+				// the file has changed since it was rejected
+				myRejectedKeys.remove(id);
+				writeState();
+			}
+		}
+
+		final File readingDirectory = new File(myDirectory, READING_DIRECTORY_NAME);
+		deleteDirectory(readingDirectory);
+		readingDirectory.mkdirs();
+		Paths.setThreadCacheDirectory(readingDirectory.getPath());
+		try {
+			ZLTextModel model = null;
+			try {
+				model = BookModel.createModel(book, false).getTextModel();
+			} catch (BookReadingException e) {
+			} catch (RuntimeException e) {
+			}
+			if (model == null || !indexModel(id, key, model)) {
+				synchronized (this) {
+					if (!myCurrentRemoved) {
+						myRejectedKeys.put(id, key);
+						writeState();
+					}
+				}
+			}
+		} finally {
+			Paths.setThreadCacheDirectory(null);
+			deleteDirectory(readingDirectory);
+		}
+		return true;
+	}
+
+	boolean indexModel(long id, String key, ZLTextModel model) {
+		synchronized (this) {
+			// reading the state removes unknown files, the temporary file among them
+			loadState();
+		}
+		myDirectory.mkdirs();
+		final File temporary = new File(myDirectory, id + SEGMENT_SUFFIX + TEMPORARY_SUFFIX);
+		try {
+			final long startTime = System.nanoTime();
+			final long chars = writeSegment(model, temporary);
+			ourIndexTime.addAndGet(System.nanoTime() - startTime);
+			ourIndexedCharCount.addAndGet(chars);
+			ourIndexedBookCount.incrementAndGet();
+		} catch (IOException e) {
+			temporary.delete();
+			return false;
+		}
+
+		synchronized (this) {
+			loadState();
+			if (myEntries.containsKey(id)) {
+				// an outdated segment
+				deleteSegment(id);
+			}
+			final long size = temporary.length();
+			if (myCurrentRemoved || myTotalSize + size > myMaxSize ||
+				!temporary.renameTo(segmentFile(id))) {
+				temporary.delete();
+				writeState();
+				return false;
+			}
+			myEntries.put(id, new Entry(key, size));
+			myTotalSize += size;
+			myRejectedKeys.remove(id);
+			writeState();
+			return true;
+		}
+	}
+
+	private File segmentFile(long id) {
+		return new File(myDirectory, id + SEGMENT_SUFFIX);
+	}
+
+	private void deleteSegment(long id) {
+		final Entry entry = myEntries.remove(id);
+		if (entry != null) {
+			myTotalSize -= entry.Size;
+		}
+		mySegments.remove(id);
+		segmentFile(id).delete();
+	}
+
+	private static void deleteDirectory(File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private void loadState() {
+		if (myEntries != null) {
+			return;
+		}
+		myEntries = new HashMap<Long,Entry>();
+		myRejectedKeys.clear();
+		myTotalSize = 0;
+
+		final File file = new File(myDirectory, STATE_FILE_NAME);
+		if (file.exists()) {
+			DataInputStream stream = null;
+			try {
+				stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 32768));
+				final int version = stream.readInt();
+				// version 1 has no rejected books; its segments are still valid
+				if (version == VERSION || version == 1) {
+					for (int count = stream.readInt(); count > 0; --count) {
+						final long id = stream.readLong();
+						final Entry entry = new Entry(stream.readUTF(), stream.readLong());
+						myEntries.put(id, entry);
+						myTotalSize += entry.Size;
+					}
+				}
+				if (version == VERSION) {
+					for (int count = stream.readInt(); count > 0; --count) {
+						final long id = stream.readLong();
+						myRejectedKeys.put(id, stream.readUTF());
+					}
+				}
+			} catch (IOException e) {
+				myEntries.clear();
+				myRejectedKeys.clear();
+				myTotalSize = 0;
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		// segments of an older version, or written when the process was killed
+		final File[] files = myDirectory.listFiles();
+		if (files != null) {
+			final Set<String> names = new HashSet<String>();
+			names.add(STATE_FILE_NAME);
+			names.add(READING_DIRECTORY_NAME);
+			for (long id : myEntries.keySet()) {
+				names.add(segmentFile(id).getName());
+			}
+			for (File f : files) {
+				if (!names.contains(f.getName())) {
+					f.delete();
+				}
+			}
+		}
+	}
+
+	private void writeState() {
+		myDirectory.mkdirs();
+		final File temporary = new File(myDirectory, STATE_FILE_NAME + TEMPORARY_SUFFIX);
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 32768));
+			stream.writeInt(VERSION);
+			stream.writeInt(myEntries.size());
+			for (Map.Entry<Long,Entry> e : myEntries.entrySet()) {
+				stream.writeLong(e.getKey());
+				stream.writeUTF(e.getValue().Key);
+				stream.writeLong(e.getValue().Size);
+			}
+			stream.writeInt(myRejectedKeys.size());
+			for (Map.Entry<Long,String> e : myRejectedKeys.entrySet()) {
+				stream.writeLong(e.getKey());
+				stream.writeUTF(e.getValue());
+			}
+			stream.close();
+			stream = null;
+			if (!temporary.renameTo(new File(myDirectory, STATE_FILE_NAME))) {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			temporary.delete();
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+				temporary.delete();
+			}
+		}
+	}
+
+	private interface TokenHandler {
+		void onToken(long hash, int start, int end);
+	}
+
+	private static final long HASH_SEED = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
+
+	private static void tokenize(CharSequence text, TokenHandler handler) {
+		final int length = text.length();
+		long hash = HASH_SEED;
+		int start = -1;
+		for (int i = 0; i <= length; ++i) {
+			final char c = i < length ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				if (start == -1) {
+					start = i;
+				}
+				hash = (hash ^ Character.toLowerCase(c)) * HASH_PRIME;
+			} else if (start != -1) {
+				handler.onToken(hash, start, i);
+				hash = HASH_SEED;
+				start = -1;
+			}
+		}
+	}
+
+	private static final class PostingsWriter {
+		byte[] Data = new byte[8];
+		int Size;
+		int Count;
+		private int myWrittenParagraph;
+		private int myParagraph = -1;
+		private int myFrequency;
+
+		void add(int paragraph) {
+			if (paragraph == myParagraph) {
+				++myFrequency;
+				return;
+			}
+			flush();
+			myParagraph = paragraph;
+			myFrequency = 1;
+		}
+
+		void flush() {
+			if (myParagraph == -1) {
+				return;
+			}
+			writeVarint(myParagraph - myWrittenParagraph);
+			writeVarint(myFrequency);
+			myWrittenParagraph = myParagraph;
+			myParagraph = -1;
+			++Count;
+		}
+
+		private void writeVarint(int value) {
+			if (Size + 5 > Data.length) {
+				final byte[] data = new byte[Data.length * 2];
+				System.arraycopy(Data, 0, data, 0, Size);
+				Data = data;
+			}
+			while ((value & ~0x7F) != 0) {
+				Data[Size++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			Data[Size++] = (byte)value;
+		}
+	}
+
+	/*
+	 * Segment layout: version, paragraphs number, words number (n),
+	 * blocks number (b); n sorted word hashes; n posting counts;
+	 * n + 1 posting offsets; b + 1 text block offsets; postings
+	 * (paragraph delta and frequency varints); deflated UTF-8 text blocks
+	 * (paragraphs are separated by '\n').  Returns the text length.
+	 */
+	private static long writeSegment(ZLTextModel model, File file) throws IOException {
+		final int paragraphsNumber = model.getParagraphsNumber();
+		final HashMap<Long,PostingsWriter> postings = new HashMap<Long,PostingsWriter>();
+		final int blocksNumber = (paragraphsNumber + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		final int[] blockOffsets = new int[blocksNumber + 1];
+		final ByteArrayOutputStream text = new ByteArrayOutputStream();
+		final StringBuilder block = new StringBuilder();
+		final StringBuilder paragraph = new StringBuilder();
+		final byte[] buffer = new byte[8192];
+		final Deflater deflater = new Deflater();
+		long length = 0;
+		try {
+			for (int i = 0; i < paragraphsNumber; ++i) {
+				paragraph.setLength(0);
+				for (ZLTextParagraph.EntryIterator it = model.getParagraph(i).iterator(); it.hasNext(); ) {
+					it.next();
+					if (it.getType() == ZLTextParagraph.Entry.TEXT) {
+						paragraph.append(it.getTextData(), it.getTextOffset(), it.getTextLength());
+					}
+				}
+				length += paragraph.length();
+				final int paragraphIndex = i;
+				tokenize(paragraph, new TokenHandler() {
+					public void onToken(long hash, int start, int end) {
+						PostingsWriter writer = postings.get(hash);
+						if (writer == null) {
+							writer = new PostingsWriter();
+							postings.put(hash, writer);
+						}
+						writer.add(paragraphIndex);
+					}
+				});
+				for (int j = paragraph.indexOf("\n"); j != -1; j = paragraph.indexOf("\n", j + 1)) {
+					paragraph.setCharAt(j, ' ');
+				}
+				block.append(paragraph).append('\n');
+
+				if ((i + 1) % BLOCK_SIZE == 0 || i + 1 == paragraphsNumber) {
+					deflater.reset();
+					deflater.setInput(block.toString().getBytes("UTF-8"));
+					deflater.finish();
+					while (!deflater.finished()) {
+						text.write(buffer, 0, deflater.deflate(buffer));
+					}
+					blockOffsets[i / BLOCK_SIZE + 1] = text.size();
+					block.setLength(0);
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+
+		final long[] hashes = new long[postings.size()];
+		int index = 0;
+		for (long hash : postings.keySet()) {
+			hashes[index++] = hash;
+		}
+		Arrays.sort(hashes);
+
+		final DataOutputStream stream =
+			new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 32768));
+		try {
+			stream.writeInt(VERSION);
+			stream.writeInt(paragraphsNumber);
+			stream.writeInt(hashes.length);
+			stream.writeInt(blocksNumber);
+			for (long hash : hashes) {
+				stream.writeLong(hash);
+			}
+			for (long hash : hashes) {
+				final PostingsWriter writer = postings.get(hash);
+				writer.flush();
+				stream.writeInt(writer.Count);
+			}
+			int offset = 0;
+			for (long hash : hashes) {
+				stream.writeInt(offset);
+				offset += postings.get(hash).Size;
+			}
+			stream.writeInt(offset);
+			for (int blockOffset : blockOffsets) {
+				stream.writeInt(blockOffset);
+			}
+			for (long hash : hashes) {
+				final PostingsWriter writer = postings.get(hash);
+				stream.write(writer.Data, 0, writer.Size);
+			}
+			text.writeTo(stream);
+		} finally {
+			stream.close();
+		}
+		return length;
+	}
+
+	private static final class Segment {
+		final long BookId;
+		final ByteBuffer Buffer;
+		final int ParagraphsNumber;
+		final int WordsNumber;
+		final int BlocksNumber;
+
+		Segment(long bookId, ByteBuffer buffer) {
+			BookId = bookId;
+			Buffer = buffer;
+			ParagraphsNumber = buffer.getInt(4);
+			WordsNumber = buffer.getInt(8);
+			BlocksNumber = buffer.getInt(12);
+		}
+
+		private int countsStart() {
+			return 16 + 8 * WordsNumber;
+		}
+
+		private int postingOffsetsStart() {
+			return countsStart() + 4 * WordsNumber;
+		}
+
+		private int blockOffsetsStart() {
+			return postingOffsetsStart() + 4 * (WordsNumber + 1);
+		}
+
+		private int postingsStart() {
+			return blockOffsetsStart() + 4 * (BlocksNumber + 1);
+		}
+
+		private int textStart() {
+			return postingsStart() + Buffer.getInt(postingOffsetsStart() + 4 * WordsNumber);
+		}
+
+		// index of the word, -1 if the book does not contain it
+		int find(long hash) {
+			int low = 0;
+			int high = WordsNumber - 1;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				final long value = Buffer.getLong(16 + 8 * middle);
+				if (value < hash) {
+					low = middle + 1;
+				} else if (value > hash) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -1;
+		}
+
+		int count(int word) {
+			return Buffer.getInt(countsStart() + 4 * word);
+		}
+
+		// paragraphs and frequencies, alternately
+		int[] postings(int word) {
+			final int[] result = new int[2 * count(word)];
+			int pos = postingsStart() + Buffer.getInt(postingOffsetsStart() + 4 * word);
+			int paragraph = 0;
+			for (int i = 0; i < result.length; ++i) {
+				int value = 0;
+				for (int shift = 0; ; shift += 7) {
+					final byte b = Buffer.get(pos++);
+					value |= (b & 0x7F) << shift;
+					if (b >= 0) {
+						break;
+					}
+				}
+				if (i % 2 == 0) {
+					paragraph += value;
+					value = paragraph;
+				}
+				result[i] = value;
+			}
+			return result;
+		}
+
+		String[] block(int index) throws IOException {
+			final int start = textStart() + Buffer.getInt(blockOffsetsStart() + 4 * index);
+			final int end = textStart() + Buffer.getInt(blockOffsetsStart() + 4 * index + 4);
+			final byte[] data = new byte[end - start];
+			final ByteBuffer buffer = Buffer.duplicate();
+			buffer.position(start);
+			buffer.get(data);
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data);
+				final ByteArrayOutputStream output = new ByteArrayOutputStream(4 * data.length);
+				final byte[] chunk = new byte[8192];
+				while (!inflater.finished()) {
+					final int count = inflater.inflate(chunk);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new IOException("Broken text block");
+					}
+					output.write(chunk, 0, count);
+				}
+				return output.toString("UTF-8").split("\n", -1);
+			} catch (DataFormatException e) {
+				throw new IOException("Broken text block");
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	private Segment segment(long id) {
+		ByteBuffer buffer;
+		synchronized (this) {
+			buffer = mySegments.get(id);
+		}
+		if (buffer == null) {
+			try {
+				final RandomAccessFile file = new RandomAccessFile(segmentFile(id), "r");
+				try {
+					final FileChannel channel = file.getChannel();
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				} finally {
+					file.close();
+				}
+			} catch (IOException e) {
+				return null;
+			}
+			if (buffer.capacity() < 16 || buffer.getInt(0) != VERSION) {
+				return null;
+			}
+			synchronized (this) {
+				if (myEntries.containsKey(id)) {
+					mySegments.put(id, buffer);
+				}
+			}
+		}
+		return new Segment(id, buffer);
+	}
+
+	List<Hit> search(String query, int limit) {
+		final long startTime = System.nanoTime();
+		try {
+			return searchInternal(query, limit);
+		} finally {
+			ourSearchCount.incrementAndGet();
+			ourSearchTime.addAndGet(System.nanoTime() - startTime);
+		}
+	}
+
+	private List<Hit> searchInternal(String query, int limit) {
+		final LinkedHashSet<Long> hashSet = new LinkedHashSet<Long>();
+		tokenize(query, new TokenHandler() {
+			public void onToken(long hash, int start, int end) {
+				hashSet.add(hash);
+			}
+		});
+		if (hashSet.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+		final long[] hashes = new long[hashSet.size()];
+		int index = 0;
+		for (long hash : hashSet) {
+			hashes[index++] = hash;
+		}
+
+		final List<Long> ids;
+		synchronized (this) {
+			loadState();
+			ids = new ArrayList<Long>(myEntries.keySet());
+		}
+
+		// pass 1: books containing all the words, and the word paragraph frequencies
+		long paragraphsNumber = 0;
+		final long[] frequencies = new long[hashes.length];
+		final List<Segment> segments = new ArrayList<Segment>();
+		final List<int[]> words = new ArrayList<int[]>();
+		for (long id : ids) {
+			final Segment segment = segment(id);
+			if (segment == null) {
+				continue;
+			}
+			paragraphsNumber += segment.ParagraphsNumber;
+			final int[] indices = new int[hashes.length];
+			boolean found = true;
+			for (int i = 0; i < hashes.length && found; ++i) {
+				indices[i] = segment.find(hashes[i]);
+				found = indices[i] != -1;
+			}
+			if (!found) {
+				continue;
+			}
+			for (int i = 0; i < hashes.length; ++i) {
+				frequencies[i] += segment.count(indices[i]);
+			}
+			segments.add(segment);
+			words.add(indices);
+		}
+		final float[] weights = new float[hashes.length];
+		for (int i = 0; i < hashes.length; ++i) {
+			weights[i] = (float)Math.log(1 + (double)paragraphsNumber / Math.max(frequencies[i], 1));
+		}
+
+		// pass 2: paragraphs containing all the words, best first
+		final PriorityQueue<Hit> best = new PriorityQueue<Hit>(limit, Collections.reverseOrder(BY_SCORE));
+		for (int s = 0; s < segments.size(); ++s) {
+			final Segment segment = segments.get(s);
+			final int[] indices = words.get(s);
+			final int[][] postings = new int[hashes.length][];
+			for (int i = 0; i < hashes.length; ++i) {
+				postings[i] = segment.postings(indices[i]);
+			}
+			final int[] positions = new int[hashes.length];
+			// paragraphs of the first word are checked against all the others
+			for (int p = 0; p < postings[0].length; p += 2) {
+				final int paragraph = postings[0][p];
+				float score = weight(weights[0], postings[0][p + 1]);
+				boolean found = true;
+				for (int i = 1; i < hashes.length && found; ++i) {
+					final int[] list = postings[i];
+					int pos = positions[i];
+					while (pos < list.length && list[pos] < paragraph) {
+						pos += 2;
+					}
+					positions[i] = pos;
+					if (pos < list.length && list[pos] == paragraph) {
+						score += weight(weights[i], list[pos + 1]);
+					} else {
+						found = false;
+					}
+				}
+				if (!found) {
+					continue;
+				}
+				final Hit hit = new Hit(segment.BookId, paragraph, score);
+				if (best.size() < limit) {
+					best.add(hit);
+				} else if (BY_SCORE.compare(hit, best.peek()) < 0) {
+					best.poll();
+					best.add(hit);
+				}
+			}
+		}
+
+		final List<Hit> hits = new ArrayList<Hit>(best);
+		Collections.sort(hits, BY_SCORE);
+		final Map<Long,Segment> segmentsById = new HashMap<Long,Segment>();
+		for (Segment segment : segments) {
+			segmentsById.put(segment.BookId, segment);
+		}
+		final Map<String,String[]> blocks = new HashMap<String,String[]>();
+		for (Hit hit : hits) {
+			final String blockKey = hit.BookId + ":" + hit.ParagraphIndex / BLOCK_SIZE;
+			String[] block = blocks.get(blockKey);
+			if (block == null) {
+				try {
+					block = segmentsById.get(hit.BookId).block(hit.ParagraphIndex / BLOCK_SIZE);
+				} catch (IOException e) {
+					block = new String[0];
+				}
+				blocks.put(blockKey, block);
+			}
+			final int indexInBlock = hit.ParagraphIndex % BLOCK_SIZE;
+			hit.Snippet = indexInBlock < block.length ? snippet(block[indexInBlock], hashSet) : "";
+		}
+		return hits;
+	}
+
+	private static float weight(float wordWeight, int frequency) {
+		return wordWeight * frequency * (K1 + 1) / (frequency + K1);
+	}
+
+	private static String snippet(final String text, final Set<Long> hashes) {
+		final int[] found = { 0, 0 };
+		final boolean[] done = { false };
+		tokenize(text, new TokenHandler() {
+			public void onToken(long hash, int start, int end) {
+				if (!done[0] && hashes.contains(hash)) {
+					found[0] = start;
+					found[1] = end;
+					done[0] = true;
+				}
+			}
+		});
+		final int length = text.length();
+		int start = Math.max(0, Math.min(found[0] - SNIPPET_LENGTH / 3, length - SNIPPET_LENGTH));
+		int end = Math.min(length, start + SNIPPET_LENGTH);
+		// cut at spaces, if any, but never cut the found word
+		if (start > 0) {
+			final int space = text.indexOf(' ', start);
+			if (space != -1 && space < found[0]) {
+				start = space + 1;
+			}
+		}
+		if (end < length) {
+			final int space = text.lastIndexOf(' ', end);
+			if (space > found[1]) {
+				end = space;
+			}
+		}
+		return (start > 0 ? "..." : "") + text.substring(start, end).trim() + (end < length ? "..." : "");
+	}
+}
@@ -25,22 +25,28 @@ public abstract class SerializerUtil {
 	private SerializerUtil() {
 	}
 
-	private static final AbstractSerializer defaultSerializer = new XMLSerializer();
+	private static final AbstractSerializer defaultSerializer = new BinarySerializer();
+	private static final AbstractSerializer xmlSerializer = new XMLSerializer();
+
+	// strings produced by an older version may still come in intents
+	private static AbstractSerializer serializerFor(String serialized) {
+		return BinarySerializer.isBinary(serialized) ? defaultSerializer : xmlSerializer;
+	}
 
 	public static String serialize(Book book) {
 		return book != null ? defaultSerializer.serialize(book) : null;
 	}
 
-	public static Book deserializeBook(String xml) {
-		return xml != null ? defaultSerializer.deserializeBook(xml) : null;
+	public static Book deserializeBook(String serialized) {
+		return serialized != null ? serializerFor(serialized).deserializeBook(serialized) : null;
 	}
 
 	public static String serialize(Bookmark bookmark) {
 		return bookmark != null ? defaultSerializer.serialize(bookmark) : null;
 	}
 
-	public static Bookmark deserializeBookmark(String xml) {
-		return xml != null ? defaultSerializer.deserializeBookmark(xml) : null;
+	public static Bookmark deserializeBookmark(String serialized) {
+		return serialized != null ? serializerFor(serialized).deserializeBookmark(serialized) : null;
 	}
 
 	public static List<String> serializeBookList(List<Book> books) {
@@ -51,10 +57,10 @@ public abstract class SerializerUtil {
 		return serialized;
 	}
 
-	public static List<Book> deserializeBookList(List<String> xmlList) {
-		final List<Book> books = new ArrayList<Book>(xmlList.size());
-		for (String xml : xmlList) {
-			books.add(defaultSerializer.deserializeBook(xml));
+	public static List<Book> deserializeBookList(List<String> serializedList) {
+		final List<Book> books = new ArrayList<Book>(serializedList.size());
+		for (String serialized : serializedList) {
+			books.add(deserializeBook(serialized));
 		}
 		return books;
 	}
@@ -67,10 +73,10 @@ public abstract class SerializerUtil {
 		return serialized;
 	}
 
-	public static List<Bookmark> deserializeBookmarkList(List<String> xmlList) {
-		final List<Bookmark> bookmarks = new ArrayList<Bookmark>(xmlList.size());
-		for (String xml : xmlList) {
-			bookmarks.add(defaultSerializer.deserializeBookmark(xml));
+	public static List<Bookmark> deserializeBookmarkList(List<String> serializedList) {
+		final List<Bookmark> bookmarks = new ArrayList<Bookmark>(serializedList.size());
+		for (String serialized : serializedList) {
+			bookmarks.add(deserializeBookmark(serialized));
 		}
 		return bookmarks;
 	}
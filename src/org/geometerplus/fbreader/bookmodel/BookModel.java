@@ -28,10 +28,21 @@ import org.geometerplus.fbreader.formats.FormatPlugin;
 
 public abstract class BookModel {
 	public static BookModel createModel(Book book) throws BookReadingException {
+		return createModel(book, true);
+	}
+
+	// storeInCache == false: a model read by the plugin is not stored into the model cache
+	public static BookModel createModel(Book book, boolean storeInCache) throws BookReadingException {
 		final FormatPlugin plugin = book.getPlugin();
 
 		System.err.println("using plugin: " + plugin.supportedFileType() + "/" + plugin.type());
 
+		final BookModel cachedModel = BookModelCache.load(book, plugin);
+		if (cachedModel != null) {
+			cachedModel.setLabelResolver(plugin.labelResolver());
+			return cachedModel;
+		}
+
 		final BookModel model;
 		switch (plugin.type()) {
 			case NATIVE:
@@ -45,6 +56,10 @@ public abstract class BookModel {
 		}
 
 		plugin.readModel(model);
+		model.setLabelResolver(plugin.labelResolver());
+		if (storeInCache) {
+			BookModelCache.store(model, plugin);
+		}
 		return model;
 	}
 
@@ -65,6 +80,23 @@ public abstract class BookModel {
 		Book = book;
 	}
 
+	private static final String SEARCH_INDEX_FILE_NAME = "search.index";
+
+	private String myCacheDirectory;
+
+	void setCacheDirectory(String directory) {
+		myCacheDirectory = directory;
+		final ZLTextModel textModel = getTextModel();
+		if (textModel instanceof ZLTextPlainModel) {
+			((ZLTextPlainModel)textModel).setSearchIndexFileName(getCacheFileName(SEARCH_INDEX_FILE_NAME));
+		}
+	}
+
+	// a file in the cache entry of the model; null if the model is not cached
+	public String getCacheFileName(String name) {
+		return myCacheDirectory != null ? myCacheDirectory + "/" + name : null;
+	}
+
 	public abstract ZLTextModel getTextModel();
 	public abstract ZLTextModel getFootnoteModel(String id);
 	protected abstract Label getLabelInternal(String id);
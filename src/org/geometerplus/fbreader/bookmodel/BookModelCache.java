@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.bookmodel;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
+import org.geometerplus.zlibrary.core.image.ZLFileImage;
+import org.geometerplus.zlibrary.core.image.ZLImage;
+
+import org.geometerplus.zlibrary.text.model.*;
+
+import org.geometerplus.fbreader.Paths;
+import org.geometerplus.fbreader.book.Book;
+import org.geometerplus.fbreader.formats.FormatPlugin;
+
+/*
+ * Persistent storage for parsed book models.
+ *
+ * Every entry is a directory named by a digest of the book file identity
+ * (path, size, modification time) and of the reading parameters (plugin
+ * type, language, encoding).  The directory contains a MappedCharStorage
+ * block file for every text model and for the internal hyperlinks, plus
+ * an index file with the paragraph arrays, image map and TOC tree.  A valid
+ * entry is restored as a read-only model without running the format plugin.
+ * Views and models store their own data (page indices, search indices)
+ * in the same directory, so they are evicted together with the model.
+ */
+abstract class BookModelCache {
+	private static final int VERSION = 2;
+	private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+	private static final String INDEX_FILE_NAME = "index";
+	private static final String LINKS_FILE_NAME = "links.blocks";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	static synchronized BookModel load(Book book, FormatPlugin plugin) {
+		final String key = key(book, plugin);
+		if (key == null) {
+			return null;
+		}
+
+		final File directory = new File(Paths.modelCacheDirectory(), digest(key));
+		final File indexFile = new File(directory, INDEX_FILE_NAME);
+		if (!indexFile.exists()) {
+			return null;
+		}
+
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 32768));
+			if (stream.readInt() != VERSION || !key.equals(stream.readUTF())) {
+				return null;
+			}
+			final NativeBookModel model = new NativeBookModel(book);
+			final MappedCharStorage links =
+				new MappedCharStorage(new File(directory, LINKS_FILE_NAME).getPath());
+			if (links.size() != stream.readInt()) {
+				return null;
+			}
+			model.myInternalHyperlinks = links;
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final String id = stream.readUTF();
+				final ZLFileImage image = ZLFileImage.byUrlPath(stream.readUTF());
+				if (image == null) {
+					return null;
+				}
+				model.addImage(id, image);
+			}
+
+			final HashMap<String,ZLTextModel> textModels = new HashMap<String,ZLTextModel>();
+			final int modelsNumber = stream.readInt();
+			for (int i = 0; i < modelsNumber; ++i) {
+				final String id = readString(stream);
+				final String language = readString(stream);
+				final int size = stream.readInt();
+				final int[] entryIndices = new int[size];
+				final int[] entryOffsets = new int[size];
+				final int[] paragraphLengths = new int[size];
+				final int[] textSizes = new int[size];
+				final byte[] paragraphKinds = new byte[size];
+				for (int j = 0; j < size; ++j) {
+					entryIndices[j] = stream.readInt();
+					entryOffsets[j] = stream.readInt();
+					paragraphLengths[j] = stream.readInt();
+					textSizes[j] = stream.readInt();
+					paragraphKinds[j] = stream.readByte();
+				}
+				final MappedCharStorage storage =
+					new MappedCharStorage(new File(directory, textFileName(i)).getPath());
+				if (storage.size() != stream.readInt()) {
+					return null;
+				}
+				final ZLTextModel textModel = new ZLTextNativeModel(
+					id, language, size,
+					entryIndices, entryOffsets,
+					paragraphLengths, textSizes, paragraphKinds,
+					storage, model.myImageMap
+				);
+				if (i == 0) {
+					model.setBookTextModel(textModel);
+				} else {
+					model.setFootnoteModel(textModel);
+				}
+				textModels.put(id, textModel);
+			}
+
+			readTOCTree(stream, model.TOCTree, textModels);
+
+			indexFile.setLastModified(System.currentTimeMillis());
+			model.setCacheDirectory(directory.getPath());
+			return model;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	static synchronized void store(BookModel model, FormatPlugin plugin) {
+		if (!(model instanceof BookModelImpl)) {
+			return;
+		}
+		final BookModelImpl modelImpl = (BookModelImpl)model;
+
+		final String key = key(model.Book, plugin);
+		if (key == null) {
+			return;
+		}
+
+		final ArrayList<ZLTextPlainModel> textModels = new ArrayList<ZLTextPlainModel>();
+		final ZLTextModel bookTextModel = model.getTextModel();
+		if (!(bookTextModel instanceof ZLTextPlainModel)) {
+			return;
+		}
+		textModels.add((ZLTextPlainModel)bookTextModel);
+		for (ZLTextModel footnoteModel : modelImpl.myFootnotes.values()) {
+			if (!(footnoteModel instanceof ZLTextPlainModel)) {
+				return;
+			}
+			textModels.add((ZLTextPlainModel)footnoteModel);
+		}
+		for (ZLImage image : modelImpl.myImageMap.values()) {
+			// only images referring to the book file itself survive the model
+			if (!(image instanceof ZLFileImage)) {
+				return;
+			}
+		}
+
+		final String name = digest(key);
+		final File root = new File(Paths.modelCacheDirectory());
+		final File directory = new File(root, name + TEMPORARY_SUFFIX);
+		deleteDirectory(directory);
+		if (!directory.mkdirs()) {
+			return;
+		}
+
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, INDEX_FILE_NAME)), 32768
+			));
+			stream.writeInt(VERSION);
+			stream.writeUTF(key);
+
+			final CharStorage links = modelImpl.myInternalHyperlinks;
+			if (links != null) {
+				MappedCharStorage.store(links, new File(directory, LINKS_FILE_NAME).getPath());
+				stream.writeInt(links.size());
+			} else {
+				new File(directory, LINKS_FILE_NAME).createNewFile();
+				stream.writeInt(0);
+			}
+
+			stream.writeInt(modelImpl.myImageMap.size());
+			final int prefixLength = ZLFileImage.SCHEME.length() + 3;
+			for (Map.Entry<String,ZLImage> entry : modelImpl.myImageMap.entrySet()) {
+				stream.writeUTF(entry.getKey());
+				stream.writeUTF(((ZLFileImage)entry.getValue()).getURI().substring(prefixLength));
+			}
+
+			stream.writeInt(textModels.size());
+			for (int i = 0; i < textModels.size(); ++i) {
+				final ZLTextPlainModel textModel = textModels.get(i);
+				writeString(stream, textModel.getId());
+				writeString(stream, textModel.getLanguage());
+				textModel.writeIndex(stream);
+				textModel.writeBlocks(new File(directory, textFileName(i)).getPath());
+			}
+
+			writeTOCTree(stream, model.TOCTree);
+
+			stream.close();
+			stream = null;
+
+			final File target = new File(root, name);
+			deleteDirectory(target);
+			if (directory.renameTo(target)) {
+				model.setCacheDirectory(target.getPath());
+			} else {
+				deleteDirectory(directory);
+			}
+		} catch (IOException e) {
+			deleteDirectory(directory);
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+				deleteDirectory(directory);
+			}
+		}
+
+		evict(root);
+	}
+
+	private static String key(Book book, FormatPlugin plugin) {
+		final ZLPhysicalFile physicalFile = book.File.getPhysicalFile();
+		if (physicalFile == null) {
+			return null;
+		}
+		final StringBuilder builder = new StringBuilder();
+		builder.append(book.File.getPath()).append('\000');
+		builder.append(book.File.size()).append('\000');
+		builder.append(physicalFile.javaFile().lastModified()).append('\000');
+		builder.append(plugin.type()).append('\000');
+		builder.append(book.getLanguage()).append('\000');
+		builder.append(book.getEncodingNoDetection());
+		return builder.toString();
+	}
+
+	private static String digest(String key) {
+		try {
+			final MessageDigest hash = MessageDigest.getInstance("MD5");
+			hash.update(key.getBytes("UTF-8"));
+			final Formatter f = new Formatter();
+			for (byte b : hash.digest()) {
+				f.format("%02X", b & 0xFF);
+			}
+			return f.toString();
+		} catch (NoSuchAlgorithmException e) {
+		} catch (UnsupportedEncodingException e) {
+		}
+		return Integer.toHexString(key.hashCode());
+	}
+
+	private static String textFileName(int index) {
+		return index == 0 ? "text.blocks" : "text" + index + ".blocks";
+	}
+
+	private static void writeString(DataOutput output, String s) throws IOException {
+		output.writeBoolean(s != null);
+		if (s != null) {
+			output.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInput input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	private static void writeTOCTree(DataOutput output, TOCTree tree) throws IOException {
+		final List<TOCTree> subTrees = tree.subTrees();
+		output.writeInt(subTrees.size());
+		for (TOCTree subTree : subTrees) {
+			writeString(output, subTree.getText());
+			final TOCTree.Reference reference = subTree.getReference();
+			if (reference != null) {
+				output.writeInt(reference.ParagraphIndex);
+				writeString(output, reference.Model != null ? reference.Model.getId() : null);
+			} else {
+				output.writeInt(-1);
+			}
+			writeTOCTree(output, subTree);
+		}
+	}
+
+	private static void readTOCTree(DataInput input, TOCTree tree, Map<String,ZLTextModel> textModels) throws IOException {
+		for (int count = input.readInt(); count > 0; --count) {
+			final TOCTree subTree = new TOCTree(tree);
+			subTree.setText(readString(input));
+			final int paragraphIndex = input.readInt();
+			if (paragraphIndex != -1) {
+				subTree.setReference(textModels.get(readString(input)), paragraphIndex);
+			}
+			readTOCTree(input, subTree, textModels);
+		}
+	}
+
+	private static long directorySize(File directory) {
+		long size = 0;
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				size += f.length();
+			}
+		}
+		return size;
+	}
+
+	private static void deleteDirectory(File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static void evict(File root) {
+		final File[] entries = root.listFiles();
+		if (entries == null) {
+			return;
+		}
+
+		long totalSize = 0;
+		final HashMap<File,Long> sizes = new HashMap<File,Long>();
+		final HashMap<File,Long> times = new HashMap<File,Long>();
+		for (File entry : entries) {
+			final long size = directorySize(entry);
+			sizes.put(entry, size);
+			times.put(entry, new File(entry, INDEX_FILE_NAME).lastModified());
+			totalSize += size;
+		}
+		if (totalSize <= MAX_SIZE) {
+			return;
+		}
+
+		Arrays.sort(entries, new Comparator<File>() {
+			public int compare(File f0, File f1) {
+				return times.get(f0).compareTo(times.get(f1));
+			}
+		});
+		// the most recent entry (just stored or just opened) is never evicted
+		for (int i = 0; i < entries.length - 1 && totalSize > MAX_SIZE; ++i) {
+			totalSize -= sizes.get(entries[i]);
+			deleteDirectory(entries[i]);
+		}
+	}
+}
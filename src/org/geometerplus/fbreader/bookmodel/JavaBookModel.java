@@ -32,7 +32,11 @@ public class JavaBookModel extends BookModelImpl {
 	JavaBookModel(Book book) {
 		super(book);
 		myInternalHyperlinks = new CachedCharStorage(32768, Paths.cacheDirectory(), "links");
-		BookTextModel = new ZLTextWritablePlainModel(null, book.getLanguage(), 1024, 65536, Paths.cacheDirectory(), "cache", myImageMap);
+		BookTextModel = new ZLTextWritablePlainModel(
+			null, book.getLanguage(), 1024,
+			new MappedCharStorage(65536, Paths.cacheDirectory() + "/cache.blocks"),
+			myImageMap
+		);
 	}
 
 	@Override
@@ -44,7 +48,11 @@ public class JavaBookModel extends BookModelImpl {
 	public ZLTextModel getFootnoteModel(String id) {
 		ZLTextModel model = myFootnotes.get(id);
 		if (model == null) {
-			model = new ZLTextWritablePlainModel(id, Book.getLanguage(), 8, 512, Paths.cacheDirectory(), "cache" + myFootnotes.size(), myImageMap);
+			model = new ZLTextWritablePlainModel(
+				id, Book.getLanguage(), 8,
+				new MappedCharStorage(512, Paths.cacheDirectory() + "/cache" + myFootnotes.size() + ".blocks"),
+				myImageMap
+			);
 			myFootnotes.put(id, model);
 		}
 		return model;
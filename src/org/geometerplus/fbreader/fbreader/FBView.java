@@ -352,6 +352,12 @@ public final class FBView extends ZLTextView {
 		return myReader.BottomMarginOption.getValue();
 	}
 
+	@Override
+	protected String getCacheFileName(String name) {
+		final BookModel model = myReader.Model;
+		return model != null && model.getTextModel() == getModel() ? model.getCacheFileName(name) : null;
+	}
+
 	@Override
 	public ZLFile getWallpaperFile() {
 		final String filePath = myReader.getColorProfile().WallpaperOption.getValue();
@@ -47,6 +47,10 @@ public abstract class FormatPlugin {
 	public abstract ZLImage readCover(ZLFile file);
 	public abstract String readAnnotation(ZLFile file);
 
+	public BookModel.LabelResolver labelResolver() {
+		return null;
+	}
+
 	public enum Type {
 		ANY,
 		JAVA,
@@ -42,13 +42,21 @@ public class NativeFormatPlugin extends FormatPlugin {
 		}
 	}
 
+	// the native code keeps unsynchronized static data (tags, statistics maps),
+	// so all the native plugins are called one at a time, from any thread
+	private static final Object ourNativeLock = new Object();
+
 	protected NativeFormatPlugin(String fileType) {
 		super(fileType);
 	}
 
 	@Override
-	synchronized public void readMetaInfo(Book book) throws BookReadingException {
-		if (!readMetaInfoNative(book)) {
+	public void readMetaInfo(Book book) throws BookReadingException {
+		final boolean result;
+		synchronized (ourNativeLock) {
+			result = readMetaInfoNative(book);
+		}
+		if (!result) {
 			throw new BookReadingException("errorReadingFile", book.File);
 		}
 	}
@@ -57,14 +65,20 @@ public class NativeFormatPlugin extends FormatPlugin {
 
 	@Override
 	public void detectLanguageAndEncoding(Book book) {
-		detectLanguageAndEncodingNative(book);
+		synchronized (ourNativeLock) {
+			detectLanguageAndEncodingNative(book);
+		}
 	}
 
 	public native void detectLanguageAndEncodingNative(Book book);
 
 	@Override
-	synchronized public void readModel(BookModel model) throws BookReadingException {
-		if (!readModelNative(model)) {
+	public void readModel(BookModel model) throws BookReadingException {
+		final boolean result;
+		synchronized (ourNativeLock) {
+			result = readModelNative(model);
+		}
+		if (!result) {
 			throw new BookReadingException("errorReadingFile", model.Book.File);
 		}
 	}
@@ -87,7 +101,9 @@ public class NativeFormatPlugin extends FormatPlugin {
 			@Override
 			public ZLSingleImage getRealImage() {
 				final ZLImage[] box = new ZLImage[1];
-				readCoverInternal(file, box);
+				synchronized (ourNativeLock) {
+					readCoverInternal(file, box);
+				}
 				return (ZLSingleImage)box[0];
 			}
 		};
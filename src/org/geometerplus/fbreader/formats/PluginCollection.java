@@ -38,7 +38,7 @@ public class PluginCollection {
 	private final Map<FormatPlugin.Type,List<FormatPlugin>> myPlugins =
 		new HashMap<FormatPlugin.Type,List<FormatPlugin>>();
 
-	public static PluginCollection Instance() {
+	public static synchronized PluginCollection Instance() {
 		if (ourInstance == null) {
 			ourInstance = new PluginCollection();
 
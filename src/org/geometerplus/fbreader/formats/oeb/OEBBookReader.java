@@ -58,14 +58,6 @@ class OEBBookReader extends ZLXMLReaderAdapter implements XMLNamespaces {
 
 	OEBBookReader(BookModel model) {
 		myModelReader = new BookReader(model);
-		model.setLabelResolver(new BookModel.LabelResolver() {
-			public List<String> getCandidates(String id) {
-				final int index = id.indexOf("#");
-				return index > 0
-					? Collections.<String>singletonList(id.substring(0, index))
-					: Collections.<String>emptyList();
-			}
-		});
 	}
 
 	private HashMap<String,String> myFileNumbers = new HashMap<String,String>();
@@ -67,6 +67,11 @@ public class OEBPlugin extends JavaFormatPlugin {
 		new OEBBookReader(model).readBook(getOpfFile(model.Book.File));
 	}
 
+	@Override
+	public BookModel.LabelResolver labelResolver() {
+		return OEBLabelResolver.Instance;
+	}
+
 	@Override
 	public ZLImage readCover(ZLFile file) {
 		try {
@@ -85,7 +85,7 @@ public class AuthorTree extends LibraryTree {
 	@Override
 	public void waitForOpening() {
 		clear();
-		for (Book book : Collection.booksForAuthor(Author)) {
+		for (Book book : booksByTitle(BookQuery.forAuthor(Author))) {
 			createBookSubTree(book);
 		}
 	}
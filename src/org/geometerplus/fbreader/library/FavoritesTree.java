@@ -43,7 +43,7 @@ public class FavoritesTree extends FirstLevelTree {
 	@Override
 	public void waitForOpening() {
 		clear();
-		for (Book book : Collection.favorites()) {
+		for (Book book : booksByTitle(BookQuery.favorites())) {
 			createBookWithAuthorsSubTree(book);
 		}
 	}
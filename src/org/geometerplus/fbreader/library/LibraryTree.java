@@ -69,6 +69,11 @@ public abstract class LibraryTree extends FBTree {
 		return true;
 	}
 
+	// in the order of book nodes, so every node insertion is an append
+	List<Book> booksByTitle(BookQuery query) {
+		return Collection.books(query.sortedBy(BookQuery.Order.Title), 0, Integer.MAX_VALUE);
+	}
+
 	boolean createTagSubTree(Tag tag) {
 		final TagTree temp = new TagTree(Collection, tag);
 		int position = Collections.binarySearch(subTrees(), temp);
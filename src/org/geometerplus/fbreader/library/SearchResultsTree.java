@@ -21,6 +21,7 @@ package org.geometerplus.fbreader.library;
 
 import org.geometerplus.fbreader.book.Book;
 import org.geometerplus.fbreader.book.BookEvent;
+import org.geometerplus.fbreader.book.BookQuery;
 
 public class SearchResultsTree extends FirstLevelTree {
 	public final String Pattern;
@@ -43,7 +44,7 @@ public class SearchResultsTree extends FirstLevelTree {
 	@Override
 	public void waitForOpening() {
 		clear();
-		for (Book book : Collection.booksForPattern(Pattern)) {
+		for (Book book : booksByTitle(BookQuery.forPattern(Pattern))) {
 			createBookWithAuthorsSubTree(book);
 		}
 	}
@@ -90,7 +90,7 @@ public final class TagTree extends LibraryTree {
 				}
 			}
 		}
-		for (Book book : Collection.booksForTag(Tag)) {
+		for (Book book : booksByTitle(BookQuery.forTag(Tag))) {
 			createBookWithAuthorsSubTree(book);
 		}
 	}
@@ -57,7 +57,7 @@ public class TitleListTree extends FirstLevelTree {
 				createTitleSubTree(letter);
 			}
 		} else {
-			for (Book b : Collection.books()) {
+			for (Book b : booksByTitle(BookQuery.all())) {
 				createBookWithAuthorsSubTree(b);
 			}
 		}
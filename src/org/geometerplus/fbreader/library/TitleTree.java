@@ -65,7 +65,7 @@ public final class TitleTree extends LibraryTree {
 	public void waitForOpening() {
 		clear();
 
-		for (Book b : Collection.booksForTitlePrefix(Prefix)) {
+		for (Book b : booksByTitle(BookQuery.forTitlePrefix(Prefix))) {
 			createBookWithAuthorsSubTree(b);
 		}
 	}
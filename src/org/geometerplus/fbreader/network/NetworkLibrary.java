@@ -25,12 +25,14 @@ import java.lang.ref.WeakReference;
 import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.core.util.ZLNetworkUtil;
 import org.geometerplus.zlibrary.core.util.MimeType;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 import org.geometerplus.zlibrary.core.image.ZLImage;
 import org.geometerplus.zlibrary.core.options.ZLStringOption;
-import org.geometerplus.zlibrary.core.network.ZLNetworkException;
+import org.geometerplus.zlibrary.core.network.*;
 import org.geometerplus.zlibrary.core.language.ZLLanguageUtil;
 import org.geometerplus.zlibrary.core.resources.ZLResource;
 
+import org.geometerplus.fbreader.Paths;
 import org.geometerplus.fbreader.tree.FBTree;
 import org.geometerplus.fbreader.network.tree.*;
 import org.geometerplus.fbreader.network.opds.OPDSLinkReader;
@@ -213,6 +215,11 @@ public class NetworkLibrary {
 			return;
 		}
 
+		final ZLNetworkManager manager = ZLNetworkManager.Instance();
+		if (manager.getCache() == null) {
+			manager.setCache(new ZLNetworkCache(Paths.networkCacheDirectory() + "/http", 8L * 1024 * 1024));
+		}
+
 		try {
 			myLinks.addAll(OPDSLinkReader.loadOPDSLinks(OPDSLinkReader.CacheMode.LOAD));
 		} catch (ZLNetworkException e) {
@@ -263,7 +270,8 @@ public class NetworkLibrary {
 			return;
 		}
 
-		final Thread thread = new Thread(new Runnable() {
+		// an update waiting in the queue is not queued again
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Load, force ? "NetworkLibrary.forcedUpdate" : "NetworkLibrary.update", new Runnable() {
 			public void run() {
 				try {
 					myUpdateInProgress = true;
@@ -277,8 +285,6 @@ public class NetworkLibrary {
 				}
 			}
 		});
-		thread.setPriority(Thread.MIN_PRIORITY);
-		thread.start();
 	}
 
 	private void runBackgroundUpdateInternal(boolean force) throws ZLNetworkException {
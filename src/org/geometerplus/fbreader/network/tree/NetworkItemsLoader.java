@@ -22,6 +22,7 @@ package org.geometerplus.fbreader.network.tree;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.network.ZLNetworkException;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.fbreader.network.NetworkLibrary;
 import org.geometerplus.fbreader.network.NetworkItem;
@@ -37,9 +38,7 @@ public abstract class NetworkItemsLoader implements Runnable {
 	}
 
 	public final void start() {
-		final Thread loaderThread = new Thread(this);
-		loaderThread.setPriority(Thread.MIN_PRIORITY);
-		loaderThread.start();
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Load, this);
 	}
 
 	public NetworkCatalogTree getTree() {
@@ -27,6 +27,7 @@ import org.geometerplus.zlibrary.core.options.ZLBooleanOption;
 import org.geometerplus.zlibrary.core.options.ZLIntegerOption;
 import org.geometerplus.zlibrary.core.network.ZLNetworkManager;
 import org.geometerplus.zlibrary.core.network.ZLNetworkException;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.fbreader.Paths;
 import org.geometerplus.fbreader.network.atom.ATOMXMLReader;
@@ -152,7 +153,7 @@ public class TipsManager {
 		myDownloadInProgress = true;
 
 		new File(Paths.networkCacheDirectory() + "/tips").mkdirs();
-		new Thread(new Runnable() {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Maintenance, new Runnable() {
 			public void run() {
 				try {
 					ZLNetworkManager.Instance().downloadToFile(
@@ -164,6 +165,6 @@ public class TipsManager {
 					myDownloadInProgress = false;
 				}
 			}
-		}).start();
+		});
 	}
 }
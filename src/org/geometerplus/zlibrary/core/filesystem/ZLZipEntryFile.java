@@ -42,7 +42,35 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 
 	private static HashMap<ZLFile,ZipFile> ourZipFileMap = new HashMap<ZLFile,ZipFile>();
 
+	private static final int PHYSICAL_ZIP_FILES_CACHE_SIZE = 8;
+	// physical archives are shared by all the callers, keyed by path and modification time
+	private static LinkedHashMap<String,ZipFile> ourPhysicalZipFileMap =
+		new LinkedHashMap<String,ZipFile>(PHYSICAL_ZIP_FILES_CACHE_SIZE + 1, 1f, true) {
+			private static final long serialVersionUID = 3201823478913257412L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,ZipFile> eldest) {
+				if (size() > PHYSICAL_ZIP_FILES_CACHE_SIZE) {
+					eldest.getValue().close();
+					return true;
+				}
+				return false;
+			}
+		};
+
 	private static ZipFile getZipFile(final ZLFile file) throws IOException {
+		if (file instanceof ZLPhysicalFile) {
+			final File javaFile = ((ZLPhysicalFile)file).javaFile();
+			final String key = file.getPath() + ":" + javaFile.lastModified() + ":" + javaFile.length();
+			synchronized (ourPhysicalZipFileMap) {
+				ZipFile zf = ourPhysicalZipFileMap.get(key);
+				if (zf == null) {
+					zf = new ZipFile(file.getPath());
+					ourPhysicalZipFileMap.put(key, zf);
+				}
+				return zf;
+			}
+		}
 		synchronized (ourZipFileMap) {
 			ZipFile zf = file.isCached() ? ourZipFileMap.get(file) : null;
 			if (zf == null) {
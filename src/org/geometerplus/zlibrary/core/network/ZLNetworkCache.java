@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2010-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.network;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.*;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/*
+ * Disk-backed cache of GET responses.
+ *
+ * Every entry is a pair of files named by a digest of the URL: a decoded
+ * response body and a small metadata file (validators and expiration time).
+ * Fresh entries are served without network access; stale entries with
+ * validators are revalidated with a conditional request.  The total size
+ * of the bodies is bounded; least recently used entries are evicted first.
+ * Responses to requests with credentials or cookies are never stored, and
+ * a body is stored only if the request handler has read it successfully.
+ */
+public final class ZLNetworkCache {
+	private static final int VERSION = 1;
+	private static final String META_SUFFIX = ".meta";
+	private static final String BODY_SUFFIX = ".body";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	// heuristic freshness for responses with Last-Modified only
+	private static final long MAX_HEURISTIC_FRESHNESS = 24L * 60 * 60 * 1000;
+
+	static final class Entry {
+		final String Url;
+		final String ETag;
+		final String LastModified;
+		final long Expires;
+		final boolean MustRevalidate;
+		final long Length;
+
+		private final String myName;
+
+		private Entry(String name, String url, String eTag, String lastModified, long expires, boolean mustRevalidate, long length) {
+			myName = name;
+			Url = url;
+			ETag = eTag;
+			LastModified = lastModified;
+			Expires = expires;
+			MustRevalidate = mustRevalidate;
+			Length = length;
+		}
+
+		boolean isFresh() {
+			return !MustRevalidate && System.currentTimeMillis() < Expires;
+		}
+	}
+
+	private final File myDirectory;
+	private final long myMaxSize;
+	private final long myMaxEntrySize;
+	private long myTotalSize = -1;
+
+	private final AtomicLong myHitCount = new AtomicLong();
+	private final AtomicLong myRevalidationCount = new AtomicLong();
+	private final AtomicLong myMissCount = new AtomicLong();
+
+	public ZLNetworkCache(String directory, long maxSize) {
+		myDirectory = new File(directory);
+		myMaxSize = maxSize;
+		myMaxEntrySize = maxSize / 8;
+	}
+
+	// responses served without network access
+	public long hitCount() {
+		return myHitCount.get();
+	}
+
+	// responses served after a `304 Not Modified'
+	public long revalidationCount() {
+		return myRevalidationCount.get();
+	}
+
+	public long missCount() {
+		return myMissCount.get();
+	}
+
+	public float hitRate() {
+		final long hits = myHitCount.get() + myRevalidationCount.get();
+		final long total = hits + myMissCount.get();
+		return total != 0 ? (float)hits / total : 0;
+	}
+
+	public synchronized void clear() {
+		final File[] files = myDirectory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		myTotalSize = 0;
+	}
+
+	synchronized Entry lookup(String url) {
+		final String name = digest(url);
+		final File bodyFile = new File(myDirectory, name + BODY_SUFFIX);
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(myDirectory, name + META_SUFFIX))
+			));
+			if (stream.readInt() != VERSION || !url.equals(stream.readUTF())) {
+				return null;
+			}
+			final Entry entry = new Entry(
+				name, url, readString(stream), readString(stream),
+				stream.readLong(), stream.readBoolean(), stream.readLong()
+			);
+			return bodyFile.length() == entry.Length ? entry : null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	void addConditionalHeaders(HttpRequest request, Entry entry) {
+		if (entry.ETag != null) {
+			request.setHeader("If-None-Match", entry.ETag);
+		}
+		if (entry.LastModified != null) {
+			request.setHeader("If-Modified-Since", entry.LastModified);
+		}
+	}
+
+	InputStream openFresh(Entry entry) {
+		final InputStream stream = open(entry);
+		if (stream != null) {
+			myHitCount.incrementAndGet();
+		}
+		return stream;
+	}
+
+	// called on `304 Not Modified'
+	InputStream openRevalidated(Entry entry, HttpResponse response) {
+		final InputStream stream = open(entry);
+		if (stream != null) {
+			myRevalidationCount.incrementAndGet();
+			final long now = System.currentTimeMillis();
+			final long freshness = freshness(response, now);
+			final Header eTag = response.getFirstHeader("ETag");
+			final Header lastModified = response.getFirstHeader("Last-Modified");
+			synchronized (this) {
+				writeMeta(new Entry(
+					entry.myName, entry.Url,
+					eTag != null ? eTag.getValue() : entry.ETag,
+					lastModified != null ? lastModified.getValue() : entry.LastModified,
+					now + Math.max(freshness, 0), freshness <= 0, entry.Length
+				));
+			}
+		}
+		return stream;
+	}
+
+	private InputStream open(Entry entry) {
+		try {
+			final InputStream stream =
+				new FileInputStream(new File(myDirectory, entry.myName + BODY_SUFFIX));
+			// meta file modification time is the access time for eviction
+			new File(myDirectory, entry.myName + META_SUFFIX).setLastModified(System.currentTimeMillis());
+			return stream;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// the body read from the stream returned by store() is committed on close
+	void setHandled(InputStream stream) {
+		if (stream instanceof CachingInputStream) {
+			((CachingInputStream)stream).myIsHandled = true;
+		}
+	}
+
+	// returns a stream that stores data into the cache while they are read
+	InputStream store(String url, HttpResponse response, InputStream stream) {
+		myMissCount.incrementAndGet();
+
+		if (response.containsHeader("Set-Cookie")) {
+			return stream;
+		}
+		for (Header h : response.getHeaders("Vary")) {
+			for (HeaderElement e : h.getElements()) {
+				if (!"Accept-Encoding".equalsIgnoreCase(e.getName())) {
+					return stream;
+				}
+			}
+		}
+		final Header contentLength = response.getFirstHeader("Content-Length");
+		if (contentLength != null) {
+			try {
+				if (Long.parseLong(contentLength.getValue()) > myMaxEntrySize) {
+					return stream;
+				}
+			} catch (NumberFormatException e) {
+			}
+		}
+
+		final long now = System.currentTimeMillis();
+		final long freshness = freshness(response, now);
+		if (freshness == Long.MIN_VALUE) {
+			return stream;
+		}
+		final Header eTag = response.getFirstHeader("ETag");
+		final Header lastModified = response.getFirstHeader("Last-Modified");
+		if (freshness <= 0 && eTag == null && lastModified == null) {
+			return stream;
+		}
+
+		myDirectory.mkdirs();
+		final File bodyFile;
+		final OutputStream output;
+		try {
+			bodyFile = File.createTempFile("body", TEMPORARY_SUFFIX, myDirectory);
+			output = new BufferedOutputStream(new FileOutputStream(bodyFile), 8192);
+		} catch (IOException e) {
+			return stream;
+		}
+		final Entry entry = new Entry(
+			digest(url), url,
+			eTag != null ? eTag.getValue() : null,
+			lastModified != null ? lastModified.getValue() : null,
+			now + Math.max(freshness, 0), freshness <= 0, 0
+		);
+		return new CachingInputStream(stream, output, bodyFile, entry);
+	}
+
+	private synchronized void commit(Entry entry, File temporaryBodyFile, long length) {
+		final Entry complete = new Entry(
+			entry.myName, entry.Url, entry.ETag, entry.LastModified,
+			entry.Expires, entry.MustRevalidate, length
+		);
+		final File bodyFile = new File(myDirectory, entry.myName + BODY_SUFFIX);
+		final long oldLength = bodyFile.length();
+		bodyFile.delete();
+		if (!temporaryBodyFile.renameTo(bodyFile) || !writeMeta(complete)) {
+			temporaryBodyFile.delete();
+			bodyFile.delete();
+			new File(myDirectory, entry.myName + META_SUFFIX).delete();
+			if (myTotalSize != -1) {
+				myTotalSize -= oldLength;
+			}
+			return;
+		}
+		if (myTotalSize == -1) {
+			myTotalSize = computeTotalSize();
+		} else {
+			myTotalSize += length - oldLength;
+		}
+		if (myTotalSize > myMaxSize) {
+			evict();
+		}
+	}
+
+	private boolean writeMeta(Entry entry) {
+		final File temporaryFile = new File(myDirectory, entry.myName + META_SUFFIX + TEMPORARY_SUFFIX);
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			stream.writeInt(VERSION);
+			stream.writeUTF(entry.Url);
+			writeString(stream, entry.ETag);
+			writeString(stream, entry.LastModified);
+			stream.writeLong(entry.Expires);
+			stream.writeBoolean(entry.MustRevalidate);
+			stream.writeLong(entry.Length);
+			stream.close();
+			stream = null;
+			final File metaFile = new File(myDirectory, entry.myName + META_SUFFIX);
+			metaFile.delete();
+			return temporaryFile.renameTo(metaFile);
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	private long computeTotalSize() {
+		long size = 0;
+		final File[] files = myDirectory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().endsWith(BODY_SUFFIX)) {
+					size += f.length();
+				}
+			}
+		}
+		return size;
+	}
+
+	private void evict() {
+		final File[] metaFiles = myDirectory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(META_SUFFIX);
+			}
+		});
+		if (metaFiles == null) {
+			return;
+		}
+		final HashMap<File,Long> times = new HashMap<File,Long>();
+		for (File f : metaFiles) {
+			times.put(f, f.lastModified());
+		}
+		Arrays.sort(metaFiles, new Comparator<File>() {
+			public int compare(File f0, File f1) {
+				return times.get(f0).compareTo(times.get(f1));
+			}
+		});
+		// evict a bit more than required, not to do it on every store
+		final long targetSize = myMaxSize * 3 / 4;
+		for (File metaFile : metaFiles) {
+			if (myTotalSize <= targetSize) {
+				break;
+			}
+			final String name = metaFile.getName();
+			final File bodyFile = new File(
+				myDirectory, name.substring(0, name.length() - META_SUFFIX.length()) + BODY_SUFFIX
+			);
+			myTotalSize -= bodyFile.length();
+			bodyFile.delete();
+			metaFile.delete();
+		}
+	}
+
+	// in milliseconds; Long.MIN_VALUE means `must not be stored'
+	private static long freshness(HttpResponse response, long now) {
+		boolean noCache = false;
+		long maxAge = -1;
+		for (Header h : response.getHeaders("Cache-Control")) {
+			for (HeaderElement e : h.getElements()) {
+				final String name = e.getName();
+				if ("no-store".equalsIgnoreCase(name)) {
+					return Long.MIN_VALUE;
+				} else if ("no-cache".equalsIgnoreCase(name)) {
+					noCache = true;
+				} else if ("max-age".equalsIgnoreCase(name) && e.getValue() != null) {
+					try {
+						maxAge = Long.parseLong(e.getValue()) * 1000;
+					} catch (NumberFormatException ex) {
+					}
+				}
+			}
+		}
+		for (Header h : response.getHeaders("Pragma")) {
+			if ("no-cache".equalsIgnoreCase(h.getValue())) {
+				noCache = true;
+			}
+		}
+		if (noCache) {
+			return 0;
+		}
+		if (maxAge >= 0) {
+			return maxAge;
+		}
+
+		final Date date = parseDate(response.getFirstHeader("Date"));
+		final long responseTime = date != null ? date.getTime() : now;
+		final Header expiresHeader = response.getFirstHeader("Expires");
+		if (expiresHeader != null) {
+			final Date expires = parseDate(expiresHeader);
+			// an invalid date means `already expired'
+			return expires != null ? expires.getTime() - responseTime : 0;
+		}
+		final Date lastModified = parseDate(response.getFirstHeader("Last-Modified"));
+		if (lastModified != null) {
+			return Math.min((responseTime - lastModified.getTime()) / 10, MAX_HEURISTIC_FRESHNESS);
+		}
+		return 0;
+	}
+
+	private static Date parseDate(Header header) {
+		if (header == null) {
+			return null;
+		}
+		try {
+			return DateUtils.parseDate(header.getValue());
+		} catch (DateParseException e) {
+			return null;
+		}
+	}
+
+	private static String digest(String url) {
+		try {
+			final MessageDigest hash = MessageDigest.getInstance("MD5");
+			hash.update(url.getBytes("UTF-8"));
+			final Formatter f = new Formatter();
+			for (byte b : hash.digest()) {
+				f.format("%02X", b & 0xFF);
+			}
+			return f.toString();
+		} catch (NoSuchAlgorithmException e) {
+		} catch (UnsupportedEncodingException e) {
+		}
+		return Integer.toHexString(url.hashCode());
+	}
+
+	private static void writeString(DataOutput output, String s) throws IOException {
+		output.writeBoolean(s != null);
+		if (s != null) {
+			output.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInput input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	private final class CachingInputStream extends FilterInputStream {
+		private OutputStream myOutput;
+		private final File myBodyFile;
+		private final Entry myEntry;
+		private long myLength;
+		private boolean myIsComplete;
+		volatile boolean myIsHandled;
+
+		CachingInputStream(InputStream stream, OutputStream output, File bodyFile, Entry entry) {
+			super(stream);
+			myOutput = output;
+			myBodyFile = bodyFile;
+			myEntry = entry;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b == -1) {
+				myIsComplete = true;
+			} else if (myOutput != null) {
+				write(new byte[] { (byte)b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			final int size = in.read(buffer, offset, length);
+			if (size == -1) {
+				myIsComplete = true;
+			} else if (myOutput != null) {
+				write(buffer, offset, size);
+			}
+			return size;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped data are to be stored too
+			final byte[] buffer = new byte[(int)Math.min(n, 8192)];
+			long skipped = 0;
+			while (skipped < n) {
+				final int size = read(buffer, 0, (int)Math.min(n - skipped, buffer.length));
+				if (size <= 0) {
+					break;
+				}
+				skipped += size;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void write(byte[] buffer, int offset, int length) {
+			myLength += length;
+			if (myLength > myMaxEntrySize) {
+				abandon();
+				return;
+			}
+			try {
+				myOutput.write(buffer, offset, length);
+			} catch (IOException e) {
+				abandon();
+			}
+		}
+
+		private void abandon() {
+			try {
+				myOutput.close();
+			} catch (IOException e) {
+			}
+			myOutput = null;
+			myBodyFile.delete();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!myIsHandled && myOutput != null) {
+				// the handler failed: the body can be partial or wrong
+				abandon();
+			}
+			try {
+				if (myOutput != null && !myIsComplete) {
+					// the rest of the response is read anyway to reuse the connection
+					final byte[] buffer = new byte[8192];
+					while (myOutput != null && read(buffer, 0, buffer.length) != -1);
+				}
+			} catch (IOException e) {
+				myIsComplete = false;
+			} finally {
+				super.close();
+				if (myOutput != null) {
+					try {
+						myOutput.close();
+						if (myIsComplete) {
+							commit(myEntry, myBodyFile, myLength);
+						} else {
+							myBodyFile.delete();
+						}
+					} catch (IOException e) {
+						myBodyFile.delete();
+					}
+					myOutput = null;
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@
 package org.geometerplus.zlibrary.core.network;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
 import java.io.*;
 import java.net.*;
@@ -30,13 +31,22 @@ import org.apache.http.client.CookieStore;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.*;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.*;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.*;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.impl.cookie.BrowserCompatSpec;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.*;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
 
 import org.geometerplus.zlibrary.core.util.MiscUtil;
 import org.geometerplus.zlibrary.core.util.ZLNetworkUtil;
@@ -45,7 +55,7 @@ import org.geometerplus.zlibrary.core.options.ZLStringOption;
 public class ZLNetworkManager {
 	private static ZLNetworkManager ourManager;
 
-	public static ZLNetworkManager Instance() {
+	public static synchronized ZLNetworkManager Instance() {
 		if (ourManager == null) {
 			ourManager = new ZLNetworkManager();
 		}
@@ -276,20 +286,104 @@ public class ZLNetworkManager {
 		return myCredentialsCreator;
 	}
 
+	private volatile ZLNetworkCache myCache;
+
+	public void setCache(ZLNetworkCache cache) {
+		myCache = cache;
+	}
+
+	public ZLNetworkCache getCache() {
+		return myCache;
+	}
+
+	private static final int MAX_CONNECTIONS = 16;
+	private static final int MAX_CONNECTIONS_PER_HOST = 4;
+	private static final int MAX_PARALLEL_REQUESTS = 6;
+	private static final int IDLE_CONNECTION_TIMEOUT = 30;
+
+	private DefaultHttpClient myHttpClient;
+
+	// one client (and one connection pool) for all the requests;
+	// connections are kept alive and reused for the same host
+	private synchronized DefaultHttpClient httpClient() {
+		if (myHttpClient == null) {
+			final HttpParams params = new BasicHttpParams();
+			HttpConnectionParams.setSoTimeout(params, 30000);
+			HttpConnectionParams.setConnectionTimeout(params, 15000);
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+			ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(
+				params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST)
+			);
+			ConnManagerParams.setTimeout(params, 15000);
+
+			final SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+			myHttpClient = new DefaultHttpClient(
+				new ThreadSafeClientConnManager(params, registry), params
+			);
+		}
+		return myHttpClient;
+	}
+
+	private static final ThreadLocal<Boolean> ourIsParallelWorker = new ThreadLocal<Boolean>();
+
+	private static final ExecutorService ourParallelExecutor =
+		Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS, new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(new Runnable() {
+					public void run() {
+						ourIsParallelWorker.set(true);
+						r.run();
+					}
+				}, "ZLNetworkManager");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	// responses depending on the account (basket, purchased books) are not cached:
+	// they can be requested after logout or by another account
+	private static boolean isPersonal(HttpContext context) {
+		final HttpRequest sent = (HttpRequest)context.getAttribute(ExecutionContext.HTTP_REQUEST);
+		return sent == null || sent.containsHeader("Authorization") || sent.containsHeader("Cookie");
+	}
+
+	private boolean hasCookiesFor(URI uri) {
+		final String host = uri.getHost();
+		if (host == null) {
+			return false;
+		}
+		final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		final int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+		final String path = uri.getPath() != null && uri.getPath().length() > 0 ? uri.getPath() : "/";
+		final CookieOrigin origin = new CookieOrigin(host, port, path, secure);
+		final BrowserCompatSpec spec = new BrowserCompatSpec();
+		final Date now = new Date();
+		for (Cookie c : myCookieStore.getCookies()) {
+			if (!c.isExpired(now) && spec.match(c, origin)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void perform(ZLNetworkRequest request) throws ZLNetworkException {
 		boolean success = false;
-		DefaultHttpClient httpClient = null;
+		HttpRequestBase httpRequest = null;
 		HttpEntity entity = null;
 		try {
 			final HttpContext httpContext = new BasicHttpContext();
 			httpContext.setAttribute(ClientContext.COOKIE_STORE, myCookieStore);
 
 			request.doBefore();
-			final HttpParams params = new BasicHttpParams();
-			HttpConnectionParams.setSoTimeout(params, 30000);
-			HttpConnectionParams.setConnectionTimeout(params, 15000);
-			httpClient = new DefaultHttpClient(params);
-			final HttpRequestBase httpRequest;
+			final DefaultHttpClient httpClient = httpClient();
+			final ClientConnectionManager connectionManager = httpClient.getConnectionManager();
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+
 			if (request.PostData != null) {
 				httpRequest = new HttpPost(request.URL);
 				((HttpPost)httpRequest).setEntity(new StringEntity(request.PostData, "utf-8"));
@@ -317,7 +411,33 @@ public class ZLNetworkManager {
 			httpRequest.setHeader("User-Agent", ZLNetworkUtil.getUserAgent());
 			httpRequest.setHeader("Accept-Encoding", "gzip");
 			httpRequest.setHeader("Accept-Language", Locale.getDefault().getLanguage());
-			httpClient.setCredentialsProvider(new MyCredentialsProvider(httpRequest, request.isQuiet()));
+
+			final ZLNetworkCache cache = myCache;
+			ZLNetworkCache.Entry cacheEntry = null;
+			if (cache != null && httpRequest instanceof HttpGet && !hasCookiesFor(httpRequest.getURI())) {
+				cacheEntry = cache.lookup(request.URL);
+				if (cacheEntry != null) {
+					if (cacheEntry.isFresh()) {
+						final InputStream stream = cache.openFresh(cacheEntry);
+						if (stream != null) {
+							try {
+								request.handleStream(stream, (int)cacheEntry.Length);
+							} finally {
+								stream.close();
+							}
+							success = true;
+							return;
+						}
+					}
+					cache.addConditionalHeaders(httpRequest, cacheEntry);
+				}
+			}
+
+			// the client is shared, so the provider is set for this request only
+			httpContext.setAttribute(
+				ClientContext.CREDS_PROVIDER,
+				new MyCredentialsProvider(httpRequest, request.isQuiet())
+			);
 			HttpResponse response = null;
 			IOException lastException = null;
 			for (int retryCounter = 0; retryCounter < 3 && entity == null; ++retryCounter) {
@@ -325,11 +445,18 @@ public class ZLNetworkManager {
 					response = httpClient.execute(httpRequest, httpContext);
 					entity = response.getEntity();
 					lastException = null;
+					if (response.getStatusLine().getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+						break;
+					}
 					if (response.getStatusLine().getStatusCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
 						final AuthState state = (AuthState)httpContext.getAttribute(ClientContext.TARGET_AUTH_STATE);
 						if (state != null) {
 							final AuthScopeKey key = new AuthScopeKey(state.getAuthScope());
 							if (myCredentialsCreator.removeCredentials(key)) {
+								// release the pooled connection before the next attempt
+								if (entity != null) {
+									entity.consumeContent();
+								}
 								entity = null;
 							}
 						}
@@ -344,17 +471,29 @@ public class ZLNetworkManager {
 			final int responseCode = response.getStatusLine().getStatusCode();
 
 			InputStream stream = null;
-			if (entity != null && responseCode == HttpURLConnection.HTTP_OK) {
+			int length = -1;
+			if (cacheEntry != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				stream = cache.openRevalidated(cacheEntry, response);
+				length = (int)cacheEntry.Length;
+			} else if (entity != null && responseCode == HttpURLConnection.HTTP_OK) {
 				stream = entity.getContent();
+				length = (int)entity.getContentLength();
 			}
 
 			if (stream != null) {
 				try {
-					final Header encoding = entity.getContentEncoding();
+					final Header encoding = entity != null ? entity.getContentEncoding() : null;
 					if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
 						stream = new GZIPInputStream(stream);
 					}
-					request.handleStream(stream, (int)entity.getContentLength());
+					if (cache != null && httpRequest instanceof HttpGet &&
+						responseCode == HttpURLConnection.HTTP_OK && !isPersonal(httpContext)) {
+						stream = cache.store(request.URL, response, stream);
+					}
+					request.handleStream(stream, length);
+					if (cache != null) {
+						cache.setHandled(stream);
+					}
 				} finally {
 					stream.close();
 				}
@@ -382,10 +521,10 @@ public class ZLNetworkManager {
 			throw new ZLNetworkException(true, e.getMessage(), e);
 		} finally {
 			request.doAfter(success);
-			if (httpClient != null) {
-				httpClient.getConnectionManager().shutdown();
-			}
-			if (entity != null) {
+			if (!success && httpRequest != null) {
+				// do not read the rest of a failed response; the connection is not reused
+				httpRequest.abort();
+			} else if (entity != null) {
 				try {
 					entity.consumeContent();
 				} catch (IOException e) {
@@ -402,19 +541,49 @@ public class ZLNetworkManager {
 			perform(requests.get(0));
 			return;
 		}
-		HashSet<String> errors = new HashSet<String>();
-		// TODO: implement concurrent execution !!!
-		for (ZLNetworkRequest r: requests) {
-			try {
-				perform(r);
-			} catch (ZLNetworkException e) {
-				e.printStackTrace();
-				errors.add(e.getMessage());
+		final Set<String> errors = Collections.synchronizedSet(new LinkedHashSet<String>());
+		if (ourIsParallelWorker.get() != null) {
+			// nested call from a request handler; waiting for the pool could deadlock
+			for (ZLNetworkRequest r : requests) {
+				try {
+					perform(r);
+				} catch (ZLNetworkException e) {
+					e.printStackTrace();
+					errors.add(e.getMessage());
+				}
+			}
+		} else {
+			final List<Future<?>> futures = new ArrayList<Future<?>>(requests.size());
+			for (final ZLNetworkRequest r : requests) {
+				futures.add(ourParallelExecutor.submit(new Runnable() {
+					public void run() {
+						try {
+							perform(r);
+						} catch (ZLNetworkException e) {
+							e.printStackTrace();
+							errors.add(e.getMessage());
+						}
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					for (Future<?> ff : futures) {
+						ff.cancel(true);
+					}
+					Thread.currentThread().interrupt();
+					throw new ZLNetworkException(true, e.getMessage(), e);
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					errors.add(String.valueOf(e.getCause().getMessage()));
+				}
 			}
 		}
 		if (errors.size() > 0) {
-			StringBuilder message = new StringBuilder();
-			for (String e : errors) {
+			final StringBuilder message = new StringBuilder();
+			for (String e : new ArrayList<String>(errors)) {
 				if (message.length() != 0) {
 					message.append(", ");
 				}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.util;
+
+import java.util.*;
+
+/*
+ * The background threads of the process.
+ *
+ * Tasks are queued in lanes; every lane has its own bounded FIFO queue and
+ * its own threads, started on demand and kept alive for a while after the
+ * queue is drained, so a burst of tasks does not create a thread per task.
+ * While a Render task is queued or running, Prefetch and Maintenance threads
+ * do not start new tasks, so speculative work never delays a page.
+ *
+ * A task submitted with a key is not queued again while a task with an equal
+ * key waits in the same lane; the token of the waiting task is returned.
+ * If a lane queue is full, its oldest task is dropped (its token is
+ * cancelled).  Cancelling a token removes the task from the queue; a running
+ * task can check isCancelled() by itself.
+ */
+public final class ZLTaskScheduler {
+	public enum Lane {
+		// pages to be shown next
+		Render(1, (Thread.MIN_PRIORITY + Thread.NORM_PRIORITY) / 2, 8, false),
+		// work the user is waiting for: catalogs, covers, searches
+		Load(6, (Thread.MIN_PRIORITY + Thread.NORM_PRIORITY) / 2, 1024, false),
+		// long blocking transfers (book downloads), kept off the Load threads
+		Download(4, Thread.MIN_PRIORITY, 1024, false),
+		// speculative reading ahead
+		Prefetch(1, Thread.MIN_PRIORITY, 64, true),
+		// library build, indexing, pagination
+		Maintenance(2, Thread.MIN_PRIORITY, 1024, true);
+
+		public final int ThreadsNumber;
+		public final int Capacity;
+		final int Priority;
+		final boolean YieldsToRender;
+
+		Lane(int threadsNumber, int priority, int capacity, boolean yieldsToRender) {
+			ThreadsNumber = threadsNumber;
+			Priority = priority;
+			Capacity = capacity;
+			YieldsToRender = yieldsToRender;
+		}
+	}
+
+	public static final class Token {
+		private final LaneQueue myQueue;
+		private final Object myKey;
+		private final Runnable myTask;
+		private final long mySubmitTime = System.nanoTime();
+		private volatile boolean myIsCancelled;
+
+		private Token(LaneQueue queue, Object key, Runnable task) {
+			myQueue = queue;
+			myKey = key;
+			myTask = task;
+		}
+
+		public boolean isCancelled() {
+			return myIsCancelled;
+		}
+
+		public void cancel() {
+			synchronized (ourLock) {
+				if (myIsCancelled) {
+					return;
+				}
+				myIsCancelled = true;
+				if (myQueue.remove(this)) {
+					++myQueue.CancelledCount;
+				}
+			}
+		}
+	}
+
+	public static final class Statistics {
+		public final int QueueDepth;
+		public final int MaxQueueDepth;
+		public final int RunningTasksNumber;
+		public final int ThreadsNumber;
+		public final long SubmittedCount;
+		public final long CompletedCount;
+		// removed from the queue by cancel()
+		public final long CancelledCount;
+		// removed from the full queue
+		public final long DroppedCount;
+		public final long DeduplicatedCount;
+		// in microseconds, from submit to start
+		public final long AverageWaitTime;
+		public final long MaxWaitTime;
+		// in microseconds
+		public final long AverageRunTime;
+
+		private Statistics(LaneQueue queue) {
+			QueueDepth = queue.Tasks.size();
+			MaxQueueDepth = queue.MaxDepth;
+			RunningTasksNumber = queue.RunningNumber;
+			ThreadsNumber = queue.ThreadsNumber;
+			SubmittedCount = queue.SubmittedCount;
+			CompletedCount = queue.CompletedCount;
+			CancelledCount = queue.CancelledCount;
+			DroppedCount = queue.DroppedCount;
+			DeduplicatedCount = queue.DeduplicatedCount;
+			final long started = Math.max(queue.StartedCount, 1);
+			AverageWaitTime = queue.WaitTime / started / 1000;
+			MaxWaitTime = queue.MaxWaitTime / 1000;
+			AverageRunTime = queue.RunTime / Math.max(queue.CompletedCount, 1) / 1000;
+		}
+	}
+
+	private static final long KEEP_ALIVE_TIME = 30000;
+
+	// guards all the queues
+	private static final Object ourLock = new Object();
+	private static final LaneQueue[] ourQueues = new LaneQueue[Lane.values().length];
+	static {
+		for (Lane lane : Lane.values()) {
+			ourQueues[lane.ordinal()] = new LaneQueue(lane);
+		}
+	}
+	private static final ThreadLocal<Token> ourCurrentToken = new ThreadLocal<Token>();
+
+	private static final class LaneQueue {
+		private final Lane myLane;
+		final ArrayDeque<Token> Tasks = new ArrayDeque<Token>();
+		final HashMap<Object,Token> TasksByKey = new HashMap<Object,Token>();
+		int ThreadsNumber;
+		int IdleThreadsNumber;
+		int RunningNumber;
+		private int myThreadCounter;
+
+		int MaxDepth;
+		long SubmittedCount;
+		long StartedCount;
+		long CompletedCount;
+		long CancelledCount;
+		long DroppedCount;
+		long DeduplicatedCount;
+		long WaitTime;
+		long MaxWaitTime;
+		long RunTime;
+
+		LaneQueue(Lane lane) {
+			myLane = lane;
+		}
+
+		boolean remove(Token token) {
+			if (!Tasks.remove(token)) {
+				return false;
+			}
+			if (token.myKey != null && TasksByKey.get(token.myKey) == token) {
+				TasksByKey.remove(token.myKey);
+			}
+			return true;
+		}
+
+		void resetStatistics() {
+			MaxDepth = Tasks.size();
+			SubmittedCount = 0;
+			StartedCount = 0;
+			CompletedCount = 0;
+			CancelledCount = 0;
+			DroppedCount = 0;
+			DeduplicatedCount = 0;
+			WaitTime = 0;
+			MaxWaitTime = 0;
+			RunTime = 0;
+		}
+
+		void startThread() {
+			++ThreadsNumber;
+			final Thread thread = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "ZLTaskScheduler." + myLane + "." + ++myThreadCounter);
+			thread.setDaemon(true);
+			thread.setPriority(myLane.Priority);
+			thread.start();
+		}
+
+		private Token take() {
+			synchronized (ourLock) {
+				long deadline = System.currentTimeMillis() + KEEP_ALIVE_TIME;
+				while (true) {
+					if (!Tasks.isEmpty()) {
+						if (!myLane.YieldsToRender || !renderIsBusy()) {
+							final Token token = Tasks.poll();
+							if (token.myKey != null && TasksByKey.get(token.myKey) == token) {
+								TasksByKey.remove(token.myKey);
+							}
+							++RunningNumber;
+							++StartedCount;
+							final long waitTime = System.nanoTime() - token.mySubmitTime;
+							WaitTime += waitTime;
+							MaxWaitTime = Math.max(MaxWaitTime, waitTime);
+							return token;
+						}
+						deadline = System.currentTimeMillis() + KEEP_ALIVE_TIME;
+					}
+					final long timeout = deadline - System.currentTimeMillis();
+					if (timeout <= 0) {
+						--ThreadsNumber;
+						return null;
+					}
+					++IdleThreadsNumber;
+					try {
+						ourLock.wait(timeout);
+					} catch (InterruptedException e) {
+					} finally {
+						--IdleThreadsNumber;
+					}
+				}
+			}
+		}
+
+		private void work() {
+			while (true) {
+				final Token token = take();
+				if (token == null) {
+					return;
+				}
+				final long startTime = System.nanoTime();
+				ourCurrentToken.set(token);
+				try {
+					if (!token.isCancelled()) {
+						token.myTask.run();
+					}
+				} catch (Throwable t) {
+					t.printStackTrace();
+				} finally {
+					ourCurrentToken.set(null);
+					Thread.interrupted();
+					synchronized (ourLock) {
+						--RunningNumber;
+						++CompletedCount;
+						RunTime += System.nanoTime() - startTime;
+						if (myLane == Lane.Render && !renderIsBusy()) {
+							ourLock.notifyAll();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// call with ourLock held
+	private static boolean renderIsBusy() {
+		final LaneQueue render = ourQueues[Lane.Render.ordinal()];
+		return render.RunningNumber > 0 || !render.Tasks.isEmpty();
+	}
+
+	public static Token submit(Lane lane, Runnable task) {
+		return submit(lane, null, task);
+	}
+
+	public static Token submit(Lane lane, Object key, Runnable task) {
+		synchronized (ourLock) {
+			final LaneQueue queue = ourQueues[lane.ordinal()];
+			if (key != null) {
+				final Token queued = queue.TasksByKey.get(key);
+				if (queued != null) {
+					++queue.DeduplicatedCount;
+					return queued;
+				}
+			}
+
+			if (queue.Tasks.size() >= lane.Capacity) {
+				final Token oldest = queue.Tasks.peek();
+				queue.remove(oldest);
+				oldest.myIsCancelled = true;
+				++queue.DroppedCount;
+			}
+			final Token token = new Token(queue, key, task);
+			queue.Tasks.add(token);
+			if (key != null) {
+				queue.TasksByKey.put(key, token);
+			}
+			++queue.SubmittedCount;
+			queue.MaxDepth = Math.max(queue.MaxDepth, queue.Tasks.size());
+
+			// an idle thread counts as idle until it gets the lock back, so compare
+			// with the queue length: a burst of tasks is not left to a single thread
+			if (queue.Tasks.size() > queue.IdleThreadsNumber && queue.ThreadsNumber < lane.ThreadsNumber) {
+				queue.startThread();
+			}
+			ourLock.notifyAll();
+			return token;
+		}
+	}
+
+	private static Timer ourTimer;
+
+	// the task is submitted after the delay (in milliseconds)
+	public static void submit(final Lane lane, final Object key, final Runnable task, long delay) {
+		if (delay <= 0) {
+			submit(lane, key, task);
+			return;
+		}
+		synchronized (ourLock) {
+			if (ourTimer == null) {
+				ourTimer = new Timer("ZLTaskScheduler.Timer", true);
+			}
+			ourTimer.schedule(new TimerTask() {
+				public void run() {
+					submit(lane, key, task);
+				}
+			}, delay);
+		}
+	}
+
+	// for the running task: true if its token is cancelled
+	public static boolean isCancelled() {
+		final Token token = ourCurrentToken.get();
+		return token != null && token.isCancelled();
+	}
+
+	public static Statistics statistics(Lane lane) {
+		synchronized (ourLock) {
+			return new Statistics(ourQueues[lane.ordinal()]);
+		}
+	}
+
+	public static void resetStatistics() {
+		synchronized (ourLock) {
+			for (LaneQueue queue : ourQueues) {
+				queue.resetStatistics();
+			}
+		}
+	}
+}
@@ -75,6 +75,7 @@ abstract public class ZLPaintContext {
 		if (myResetFont) {
 			myResetFont = false;
 			setFontInternal(myFontFamily, size, bold, italic, underline, strikeThrough);
+			myWidthTable = null;
 			mySpaceWidth = -1;
 			myStringHeight = -1;
 			myDescent = -1;
@@ -98,7 +99,35 @@ abstract public class ZLPaintContext {
 	public final int getStringWidth(String string) {
 		return getStringWidth(string.toCharArray(), 0, string.length());
 	}
-	abstract public int getStringWidth(char[] string, int offset, int length);
+
+	private ZLStringWidthCache.Table myWidthTable;
+	public final int getStringWidth(char[] string, int offset, int length) {
+		if (length > ZLStringWidthCache.MAX_STRING_LENGTH) {
+			return getStringWidthInternal(string, offset, length);
+		}
+		ZLStringWidthCache.Table table = myWidthTable;
+		if (table == null || table.isObsolete()) {
+			// underline and strike-through do not change the width
+			table = ZLStringWidthCache.table(
+				getClass().getName() + '\000' + myFontFamily + '\000' + myFontSize + '\000' +
+				myFontIsBold + '\000' + myFontIsItalic + '\000' + getRenderingFlags()
+			);
+			myWidthTable = table;
+		}
+		final int hash = ZLStringWidthCache.hash(string, offset, length);
+		int width = table.get(string, offset, length, hash);
+		if (width == -1) {
+			width = getStringWidthInternal(string, offset, length);
+			table.put(string, offset, length, hash, width);
+		}
+		return width;
+	}
+	abstract protected int getStringWidthInternal(char[] string, int offset, int length);
+
+	// rendering options affecting string widths (kerning, hinting, etc.)
+	protected int getRenderingFlags() {
+		return 0;
+	}
 
 	private int mySpaceWidth = -1;
 	public final int getSpaceWidth() {
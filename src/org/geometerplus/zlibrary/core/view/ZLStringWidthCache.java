@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.view;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Process-wide cache of string widths.  There is a table for every
+ * (paint context type, font family, size, bold, italic, rendering flags)
+ * combination; a table is a direct-mapped array keyed by the string hash,
+ * so lookups do not allocate and a colliding string replaces the old one.
+ * Only short strings (i.e. words) are cached.
+ */
+public final class ZLStringWidthCache {
+	static final int MAX_STRING_LENGTH = 32;
+
+	private static final int MAX_TABLES_NUMBER = 8;
+	private static final int TABLE_SIZE = 4096;
+
+	static final class Table {
+		private final int[] myHashes = new int[TABLE_SIZE];
+		private final char[][] myStrings = new char[TABLE_SIZE][];
+		private final int[] myWidths = new int[TABLE_SIZE];
+		private volatile boolean myIsObsolete;
+
+		// paint contexts keep a reference to their table; an obsolete table must be re-requested
+		boolean isObsolete() {
+			return myIsObsolete;
+		}
+
+		// returns -1 if the width is not cached
+		synchronized int get(char[] string, int offset, int length, int hash) {
+			final int slot = hash & (TABLE_SIZE - 1);
+			final char[] cached = myStrings[slot];
+			if (cached != null && myHashes[slot] == hash && cached.length == length) {
+				int i = 0;
+				while (i < length && cached[i] == string[offset + i]) {
+					++i;
+				}
+				if (i == length) {
+					ourHitCount.incrementAndGet();
+					return myWidths[slot];
+				}
+			}
+			ourMissCount.incrementAndGet();
+			return -1;
+		}
+
+		synchronized void put(char[] string, int offset, int length, int hash, int width) {
+			final int slot = hash & (TABLE_SIZE - 1);
+			char[] cached = myStrings[slot];
+			if (cached == null || cached.length != length) {
+				cached = new char[length];
+				myStrings[slot] = cached;
+			}
+			System.arraycopy(string, offset, cached, 0, length);
+			myHashes[slot] = hash;
+			myWidths[slot] = width;
+		}
+	}
+
+	private static final LinkedHashMap<String,Table> ourTables =
+		new LinkedHashMap<String,Table>(MAX_TABLES_NUMBER + 1, 1f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Table> eldest) {
+				return size() > MAX_TABLES_NUMBER;
+			}
+		};
+
+	static synchronized Table table(String fontKey) {
+		Table table = ourTables.get(fontKey);
+		if (table == null) {
+			table = new Table();
+			ourTables.put(fontKey, table);
+		}
+		return table;
+	}
+
+	static int hash(char[] string, int offset, int length) {
+		int hash = length;
+		for (int i = offset; i < offset + length; ++i) {
+			hash = 31 * hash + string[i];
+		}
+		// spread the high bits over the slot index
+		return hash ^ (hash >>> 12);
+	}
+
+	private static final AtomicLong ourHitCount = new AtomicLong();
+	private static final AtomicLong ourMissCount = new AtomicLong();
+
+	public static long hitCount() {
+		return ourHitCount.get();
+	}
+
+	public static long missCount() {
+		return ourMissCount.get();
+	}
+
+	public static float hitRate() {
+		final long hits = ourHitCount.get();
+		final long total = hits + ourMissCount.get();
+		return total != 0 ? (float)hits / total : 0;
+	}
+
+	public static void resetStatistics() {
+		ourHitCount.set(0);
+		ourMissCount.set(0);
+	}
+
+	// call this if fonts are changed without changing the family names
+	public static synchronized void clear() {
+		for (Table table : ourTables.values()) {
+			table.myIsObsolete = true;
+		}
+		ourTables.clear();
+	}
+
+	private ZLStringWidthCache() {
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.io.*;
+
+/*
+ * UTF-8 decoder for the parser: ASCII runs (all the markup and most of
+ * the text in typical books and catalogs) are copied byte to char without
+ * a charset decoder; malformed sequences are replaced by U+FFFD.
+ * read() fills the whole buffer unless the stream ends, since the parser
+ * handles a short read by moving the data to the end of its buffer.
+ */
+final class ZLUtf8Reader extends Reader {
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private final InputStream myStream;
+	private final byte[] myBytes;
+	private int myOffset;
+	private int myLength;
+	private boolean myEndOfStream;
+	// the low surrogate of a supplementary character that did not fit
+	private char myPendingChar;
+
+	ZLUtf8Reader(InputStream stream, byte[] prefix, int prefixLength) {
+		myStream = stream;
+		myBytes = new byte[Math.max(8192, prefixLength)];
+		System.arraycopy(prefix, 0, myBytes, 0, prefixLength);
+		myLength = prefixLength;
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		final byte[] bytes = myBytes;
+		int count = 0;
+		if (myPendingChar != 0) {
+			buffer[offset + count++] = myPendingChar;
+			myPendingChar = 0;
+		}
+		while (count < length) {
+			if (myLength - myOffset < 4 && !myEndOfStream) {
+				fill();
+			}
+			int i = myOffset;
+			final int end = myLength;
+			if (i == end) {
+				break;
+			}
+
+			int o = offset + count;
+			final int limit = offset + length;
+			while (o < limit && i < end) {
+				int b = bytes[i];
+				if (b >= 0) {
+					buffer[o++] = (char)b;
+					++i;
+					continue;
+				}
+
+				b &= 0xFF;
+				final int sequenceLength;
+				int code;
+				if (b >= 0xC2 && b <= 0xDF) {
+					sequenceLength = 2;
+					code = b & 0x1F;
+				} else if (b >= 0xE0 && b <= 0xEF) {
+					sequenceLength = 3;
+					code = b & 0x0F;
+				} else if (b >= 0xF0 && b <= 0xF4) {
+					sequenceLength = 4;
+					code = b & 0x07;
+				} else {
+					buffer[o++] = REPLACEMENT;
+					++i;
+					continue;
+				}
+				if (i + sequenceLength > end && !myEndOfStream) {
+					// the rest of the sequence is not read yet
+					break;
+				}
+
+				int j = 1;
+				for (; j < sequenceLength && i + j < end; ++j) {
+					final int c = bytes[i + j] & 0xFF;
+					if ((c & 0xC0) != 0x80) {
+						break;
+					}
+					code = (code << 6) | (c & 0x3F);
+				}
+				if (j < sequenceLength ||
+					(sequenceLength == 3 && (code < 0x800 || (code >= 0xD800 && code <= 0xDFFF))) ||
+					(sequenceLength == 4 && (code < 0x10000 || code > 0x10FFFF))) {
+					buffer[o++] = REPLACEMENT;
+					i += j;
+					continue;
+				}
+
+				i += sequenceLength;
+				if (code < 0x10000) {
+					buffer[o++] = (char)code;
+				} else {
+					code -= 0x10000;
+					buffer[o++] = (char)(0xD800 + (code >> 10));
+					final char low = (char)(0xDC00 + (code & 0x3FF));
+					if (o < limit) {
+						buffer[o++] = low;
+					} else {
+						myPendingChar = low;
+					}
+				}
+			}
+			myOffset = i;
+			count = o - offset;
+			if (myPendingChar != 0) {
+				break;
+			}
+		}
+		return count > 0 ? count : -1;
+	}
+
+	private void fill() throws IOException {
+		final byte[] bytes = myBytes;
+		final int rest = myLength - myOffset;
+		System.arraycopy(bytes, myOffset, bytes, 0, rest);
+		myOffset = 0;
+		myLength = rest;
+		while (myLength < bytes.length) {
+			final int size = myStream.read(bytes, myLength, bytes.length - myLength);
+			if (size <= 0) {
+				myEndOfStream = true;
+				break;
+			}
+			myLength += size;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		myStream.close();
+	}
+}
@@ -57,12 +57,8 @@ final class ZLXMLParser {
 	private static final byte END_OF_CDATA1 = 25;
 	private static final byte END_OF_CDATA2 = 26;
 
-	private static String convertToString(Map<ZLMutableString,String> strings, ZLMutableString container) {
-		String s = strings.get(container);
-		if (s == null) {
-			s = container.toString();
-			strings.put(new ZLMutableString(container), s);
-		}
+	private static String convertToString(ZLXMLSymbolTable symbols, ZLMutableString container) {
+		final String s = symbols.symbol(container.myData, 0, container.myLength);
 		container.clear();
 		return s;
 	}
@@ -71,89 +67,125 @@ final class ZLXMLParser {
 	private final ZLXMLReader myXMLReader;
 	private final boolean myProcessNamespaces;
 
-	private static HashMap<Integer,Queue<char[]>> ourBufferPool = new HashMap<Integer,Queue<char[]>>();
-	private static Queue<ZLMutableString> ourStringPool = new LinkedList<ZLMutableString>();
+	// parsers never move between threads, so the pools need no locking;
+	// a thread also keeps its symbol table from one document to another
+	private static final class Pool {
+		final ArrayList<char[]> Buffers = new ArrayList<char[]>();
+		final ArrayList<ZLMutableString> Strings = new ArrayList<ZLMutableString>();
+		ZLXMLSymbolTable SymbolTable;
+	}
 
-	private static synchronized char[] getBuffer(int bufferSize) {
-		Queue<char[]> queue = ourBufferPool.get(bufferSize);
-		if (queue != null) {
-			char[] buffer = queue.poll();
-			if (buffer != null) {
-				return buffer;
-			}
+	private static final ThreadLocal<Pool> ourPool = new ThreadLocal<Pool>() {
+		@Override
+		protected Pool initialValue() {
+			return new Pool();
 		}
-		return new char[bufferSize];
-	}
+	};
+
+	private static final int MAX_POOLED_BUFFERS = 4;
 
-	private static synchronized void storeBuffer(char[] buffer) {
-		Queue<char[]> queue = ourBufferPool.get(buffer.length);
-		if (queue == null) {
-			queue = new LinkedList<char[]>();
-			ourBufferPool.put(buffer.length, queue);
+	private final Pool myPool = ourPool.get();
+
+	private char[] getBuffer(int bufferSize) {
+		final ArrayList<char[]> buffers = myPool.Buffers;
+		for (int i = buffers.size() - 1; i >= 0; --i) {
+			if (buffers.get(i).length == bufferSize) {
+				return buffers.remove(i);
+			}
 		}
-		queue.add(buffer);
+		return new char[bufferSize];
 	}
 
-	private static synchronized ZLMutableString getMutableString() {
-		ZLMutableString string = ourStringPool.poll();
-		return (string != null) ? string : new ZLMutableString();
+	private ZLMutableString getMutableString() {
+		final ArrayList<ZLMutableString> strings = myPool.Strings;
+		return strings.isEmpty() ? new ZLMutableString() : strings.remove(strings.size() - 1);
 	}
 
-	private static synchronized void storeString(ZLMutableString string) {
-		ourStringPool.add(string);
+	private ZLXMLSymbolTable getSymbolTable() {
+		final ZLXMLSymbolTable table = myPool.SymbolTable;
+		// a nested parser on the same thread gets a table of its own
+		myPool.SymbolTable = null;
+		return table != null ? table : new ZLXMLSymbolTable();
 	}
 
 	private final char[] myBuffer;
-	private int myBufferDescriptionLength;
 	private final ZLMutableString myTagName = getMutableString();
 	private final ZLMutableString myCData = getMutableString();
 	private final ZLMutableString myAttributeName = getMutableString();
 	private final ZLMutableString myAttributeValue = getMutableString();
 	private final ZLMutableString myEntityName = getMutableString();
+	private final ZLXMLSymbolTable mySymbolTable = getSymbolTable();
 
 	void finish() {
-		storeBuffer(myBuffer);
-		storeString(myTagName);
-		storeString(myAttributeName);
-		storeString(myAttributeValue);
-		storeString(myEntityName);
+		final Pool pool = myPool;
+		if (pool.Buffers.size() < MAX_POOLED_BUFFERS) {
+			pool.Buffers.add(myBuffer);
+		}
+		for (ZLMutableString string : new ZLMutableString[] {
+			myTagName, myCData, myAttributeName, myAttributeValue, myEntityName
+		}) {
+			string.clear();
+			pool.Strings.add(string);
+		}
+		pool.SymbolTable = mySymbolTable;
 	}
 
 	ZLXMLParser(ZLXMLReader xmlReader, Reader reader, int bufferSize) throws IOException {
 		myXMLReader = xmlReader;
 		myProcessNamespaces = xmlReader.processNamespaces();
 		myBuffer = getBuffer(bufferSize);
-		myBufferDescriptionLength = 0;
 		myStreamReader = reader;
 	}
 
 	ZLXMLParser(ZLXMLReader xmlReader, InputStream stream, int bufferSize) throws IOException {
 		myXMLReader = xmlReader;
 		myProcessNamespaces = xmlReader.processNamespaces();
+		myBuffer = getBuffer(bufferSize);
 
-		String encoding = "utf-8";
-		final char[] buffer = getBuffer(bufferSize);
-		myBuffer = buffer;
-		boolean found = false;
+		// the prologue is everything up to the first '>'; for an XML declaration
+		// it is ASCII in any ASCII compatible encoding
+		final byte[] prologue = new byte[256];
 		int len = 0;
-		while (len < 256) {
-			char c = (char)stream.read();
-			buffer[len++] = c;
-			if (c == '>') {
+		boolean found = false;
+		while (len < prologue.length) {
+			final int b = stream.read();
+			if (b == -1) {
+				break;
+			}
+			prologue[len++] = (byte)b;
+			if (b == '>') {
 				found = true;
 				break;
 			}
 		}
-		myBufferDescriptionLength = len;
-		if (found) {
-			final String xmlDescription = new String(buffer, 0, len).trim();
+
+		String encoding = "utf-8";
+		int start = 0;
+		if (len >= 3 &&
+			(prologue[0] & 0xFF) == 0xEF && (prologue[1] & 0xFF) == 0xBB && (prologue[2] & 0xFF) == 0xBF) {
+			start = 3;
+		} else if (len >= 2 && (prologue[0] & 0xFF) == 0xFE && (prologue[1] & 0xFF) == 0xFF) {
+			encoding = "utf-16be";
+			start = 2;
+		} else if (len >= 2 && (prologue[0] & 0xFF) == 0xFF && (prologue[1] & 0xFF) == 0xFE) {
+			encoding = "utf-16le";
+			start = 2;
+		}
+		if (found && start != 2) {
+			final String xmlDescription = new String(prologue, start, len - start, "ISO-8859-1").trim();
 			if (xmlDescription.startsWith("<?xml") && xmlDescription.endsWith("?>")) {
-				myBufferDescriptionLength = 0;
-				int index = xmlDescription.indexOf("encoding");
+				// the declaration is skipped, not parsed
+				start = len;
+				final int index = xmlDescription.indexOf("encoding");
 				if (index > 0) {
 					int startIndex = xmlDescription.indexOf('"', index);
+					int apostropheIndex = xmlDescription.indexOf('\'', index);
+					if (startIndex == -1 || (apostropheIndex != -1 && apostropheIndex < startIndex)) {
+						startIndex = apostropheIndex;
+					}
 					if (startIndex > 0) {
-						int endIndex = xmlDescription.indexOf('"', startIndex + 1);
+						final int endIndex =
+							xmlDescription.indexOf(xmlDescription.charAt(startIndex), startIndex + 1);
 						if (endIndex > 0) {
 							encoding = xmlDescription.substring(startIndex + 1, endIndex);
 						}
@@ -162,7 +194,15 @@ final class ZLXMLParser {
 			}
 		}
 
-		myStreamReader = new InputStreamReader(stream, encoding);
+		final byte[] prefix = new byte[len - start];
+		System.arraycopy(prologue, start, prefix, 0, prefix.length);
+		if ("utf-8".equalsIgnoreCase(encoding) || "utf8".equalsIgnoreCase(encoding)) {
+			myStreamReader = new ZLUtf8Reader(stream, prefix, prefix.length);
+		} else {
+			myStreamReader = new InputStreamReader(
+				new SequenceInputStream(new ByteArrayInputStream(prefix), stream), encoding
+			);
+		}
 	}
 
 	private static char[] getEntityValue(HashMap<String,char[]> entityMap, String name) {
@@ -224,7 +264,7 @@ final class ZLXMLParser {
 		final ZLMutableString attributeValue = myAttributeValue;
 		final boolean dontCacheAttributeValues = xmlReader.dontCacheAttributeValues();
 		final ZLMutableString entityName = myEntityName;
-		final Map<ZLMutableString,String> strings = new HashMap<ZLMutableString, String>();
+		final ZLXMLSymbolTable symbols = mySymbolTable;
 		final ZLStringMap attributes = new ZLStringMap();
 		String[] tagStack = new String[10];
 		int tagStackSize = 0;
@@ -232,13 +272,7 @@ final class ZLXMLParser {
 		byte state = START_DOCUMENT;
 		byte savedState = START_DOCUMENT;
 		while (true) {
-			int count;
-			if (myBufferDescriptionLength > 0) {
-				count = myBufferDescriptionLength;
-				myBufferDescriptionLength = 0;
-			} else {
-				count = streamReader.read(buffer);
-			}
+			int count = streamReader.read(buffer);
 			if (count <= 0) {
 				streamReader.close();
 				return;
@@ -397,7 +431,7 @@ mainSwitchLabel:
 										state = TEXT;
 										tagName.append(buffer, startPosition, i - startPosition);
 										{
-											String stringTagName = convertToString(strings, tagName);
+											String stringTagName = convertToString(symbols, tagName);
 											if (tagStackSize == tagStack.length) {
 												tagStack = ZLArrayUtils.createCopy(tagStack, tagStackSize, tagStackSize << 1);
 											}
@@ -419,7 +453,7 @@ mainSwitchLabel:
 									case '/':
 										state = SLASH;
 										tagName.append(buffer, startPosition, i - startPosition);
-										if (processFullTag(xmlReader, convertToString(strings, tagName), attributes)) {
+										if (processFullTag(xmlReader, convertToString(symbols, tagName), attributes)) {
 											streamReader.close();
 											return;
 										}
@@ -437,7 +471,7 @@ mainSwitchLabel:
 							switch (buffer[++i]) {
 								case '>':
 									{
-										String stringTagName = convertToString(strings, tagName);
+										String stringTagName = convertToString(symbols, tagName);
 										if (tagStackSize == tagStack.length) {
 											tagStack = ZLArrayUtils.createCopy(tagStack, tagStackSize, tagStackSize << 1);
 										}
@@ -459,7 +493,7 @@ mainSwitchLabel:
 									break;
 								case '/':
 									state = SLASH;
-									if (processFullTag(xmlReader, convertToString(strings, tagName), attributes)) {
+									if (processFullTag(xmlReader, convertToString(symbols, tagName), attributes)) {
 										streamReader.close();
 										return;
 									}
@@ -550,7 +584,7 @@ mainSwitchLabel:
 									state = ATTRIBUTE_NAME;
 									break mainSwitchLabel;
 							}
-							final String aName = convertToString(strings, attributeName);
+							final String aName = convertToString(symbols, attributeName);
 							if (processNamespaces && aName.equals("xmlns")) {
 								if (currentNamespaceMap == null) {
 									currentNamespaceMap = new HashMap<String,String>(oldNamespaceMap);
@@ -567,7 +601,7 @@ mainSwitchLabel:
 								attributes.put(aName, attributeValue.toString());
 								attributeValue.clear();
 							} else {
-								attributes.put(aName, convertToString(strings, attributeValue));
+								attributes.put(aName, convertToString(symbols, attributeValue));
 							}
 							break;
 						case ATTRIBUTE_VALUE_QUOT:
@@ -607,7 +641,7 @@ mainSwitchLabel:
 										entityName.append(buffer, startPosition, i - startPosition);
 										state = savedState;
 										startPosition = i + 1;
-										final char[] value = getEntityValue(entityMap, convertToString(strings, entityName));
+										final char[] value = getEntityValue(entityMap, convertToString(symbols, entityName));
 										if ((value != null) && (value.length != 0)) {
 											switch (state) {
 												case ATTRIBUTE_VALUE_QUOT:
@@ -661,7 +695,7 @@ mainSwitchLabel:
 											}
 											currentNamespaceMap = null;
 										}
-										//processEndTag(xmlReader, convertToString(strings, tagName), currentNamespaceMap);
+										//processEndTag(xmlReader, convertToString(symbols, tagName), currentNamespaceMap);
 										state = TEXT;
 										startPosition = i + 1;
 										break mainSwitchLabel;
@@ -692,7 +726,7 @@ mainSwitchLabel:
 										if (tagStackSize > 0) {
 											processEndTag(xmlReader, tagStack[--tagStackSize], currentNamespaceMap);
 										}
-										//processEndTag(xmlReader, convertToString(strings, tagName), currentNamespaceMap);
+										//processEndTag(xmlReader, convertToString(symbols, tagName), currentNamespaceMap);
 										startPosition = i + 1;
 										break mainSwitchLabel;
 								}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.xml;
+
+/*
+ * Interned strings (tag and attribute names, cached attribute values)
+ * looked up by char ranges, so a name seen before costs no allocation.
+ * Open addressing with linear probing; the table is reset when it grows
+ * too large, since it lives as long as the parsing thread.
+ */
+final class ZLXMLSymbolTable {
+	private static final int MAX_SIZE = 1 << 14;
+	private static final int INITIAL_CAPACITY = 1 << 9;
+
+	private String[] mySymbols = new String[INITIAL_CAPACITY];
+	private int[] myHashes = new int[INITIAL_CAPACITY];
+	private int mySize;
+
+	String symbol(char[] data, int offset, int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; ++i) {
+			hash = 31 * hash + data[i];
+		}
+
+		final String[] symbols = mySymbols;
+		final int[] hashes = myHashes;
+		final int mask = symbols.length - 1;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		for (String s; (s = symbols[index]) != null; index = (index + 1) & mask) {
+			if (hashes[index] == hash && matches(s, data, offset, length)) {
+				return s;
+			}
+		}
+
+		final String symbol = new String(data, offset, length).intern();
+		if (mySize >= MAX_SIZE) {
+			clear();
+		} else if (2 * (mySize + 1) > symbols.length) {
+			rehash(symbols.length << 1);
+		}
+		insert(symbol, hash);
+		return symbol;
+	}
+
+	void clear() {
+		mySymbols = new String[INITIAL_CAPACITY];
+		myHashes = new int[INITIAL_CAPACITY];
+		mySize = 0;
+	}
+
+	private static boolean matches(String s, char[] data, int offset, int length) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; ++i) {
+			if (s.charAt(i) != data[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		final String[] oldSymbols = mySymbols;
+		final int[] oldHashes = myHashes;
+		mySymbols = new String[capacity];
+		myHashes = new int[capacity];
+		mySize = 0;
+		for (int i = 0; i < oldSymbols.length; ++i) {
+			if (oldSymbols[i] != null) {
+				insert(oldSymbols[i], oldHashes[i]);
+			}
+		}
+	}
+
+	private void insert(String symbol, int hash) {
+		final String[] symbols = mySymbols;
+		final int mask = symbols.length - 1;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		while (symbols[index] != null) {
+			index = (index + 1) & mask;
+		}
+		symbols[index] = symbol;
+		myHashes[index] = hash;
+		++mySize;
+	}
+}
@@ -19,7 +19,8 @@
 
 package org.geometerplus.zlibrary.text.hyphenation;
 
-import java.util.List;
+import java.util.*;
+
 import org.geometerplus.zlibrary.core.util.*;
 
 import org.geometerplus.zlibrary.text.view.ZLTextWord;
@@ -48,10 +49,42 @@ public abstract class ZLTextHyphenator {
 	public abstract void load(final String languageCode);
 	public abstract void unload();
 
-	public ZLTextHyphenationInfo getInfo(final ZLTextWord word) {
+	private static final int CACHE_SIZE = 1024;
+
+	// relayout hyphenates the same words again and again;
+	// the cache is dropped together with the patterns
+	private final LinkedHashMap<String,ZLTextHyphenationInfo> myCache =
+		new LinkedHashMap<String,ZLTextHyphenationInfo>(CACHE_SIZE, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,ZLTextHyphenationInfo> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	private boolean[] myIsLetter = new boolean[32];
+	private char[] myPattern = new char[34];
+
+	protected synchronized void clearCache() {
+		myCache.clear();
+	}
+
+	public synchronized ZLTextHyphenationInfo getInfo(final ZLTextWord word) {
+		final String key = new String(word.Data, word.Offset, word.Length);
+		ZLTextHyphenationInfo info = myCache.get(key);
+		if (info == null) {
+			info = createInfo(word);
+			myCache.put(key, info);
+		}
+		return info;
+	}
+
+	private ZLTextHyphenationInfo createInfo(final ZLTextWord word) {
 		final int len = word.Length;
-		final boolean[] isLetter = new boolean[len];
-		final char[] pattern = new char[len + 2];
+		if (myIsLetter.length < len) {
+			myIsLetter = new boolean[len + 32];
+			myPattern = new char[len + 34];
+		}
+		final boolean[] isLetter = myIsLetter;
+		final char[] pattern = myPattern;
 		final char[] data = word.Data;
 		pattern[0] = ' ';
 		for (int i = 0, j = word.Offset; i < len; ++i, ++j) {
@@ -60,6 +93,7 @@ public abstract class ZLTextHyphenator {
 				isLetter[i] = true;
 				pattern[i + 1] = Character.toLowerCase(character);
 			} else {
+				isLetter[i] = false;
 				pattern[i + 1] = ' ';
 			}
 		}
@@ -25,15 +25,6 @@ public final class ZLTextTeXHyphenationPattern {
 	private final byte[] myValues;
 	int myHashCode;
 
-	void update(char[] pattern, int offset, int length) {
-		// We assert
-		// 		1. this pattern doesn't use values
-		// 		length <= original pattern length
-		System.arraycopy(pattern, offset, mySymbols, 0, length);
-		myLength = length;
-		myHashCode = 0;
-	}
-
 	public ZLTextTeXHyphenationPattern(char[] pattern, int offset, int length, boolean useValues) {
 		if (useValues) {
 			int patternLength = 0;
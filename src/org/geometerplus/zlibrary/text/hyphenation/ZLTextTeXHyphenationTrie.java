@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.hyphenation;
+
+import java.util.*;
+
+/*
+ * Patterns packed into a trie in breadth-first order.  Children of node i
+ * are stored in myLabels/myTargets[myChildStart[i] .. myChildStart[i + 1]),
+ * sorted by label.  If a pattern ends at node i of depth d, its d + 1
+ * values are stored in myValues starting from myValueStart[i];
+ * myValueStart[i] is -1 for all the other nodes.
+ */
+final class ZLTextTeXHyphenationTrie {
+	static final class Builder {
+		private static final class Node {
+			final TreeMap<Character,Node> Children = new TreeMap<Character,Node>();
+			byte[] Values;
+		}
+
+		private final Node myRoot = new Node();
+		private int myNodesNumber = 1;
+		private int myValuesSize;
+
+		void add(ZLTextTeXHyphenationPattern pattern) {
+			final int length = pattern.getLength();
+			if (length == 0) {
+				return;
+			}
+			final char[] symbols = pattern.getSymbols();
+			Node node = myRoot;
+			for (int i = 0; i < length; ++i) {
+				final Character symbol = symbols[i];
+				Node child = node.Children.get(symbol);
+				if (child == null) {
+					child = new Node();
+					node.Children.put(symbol, child);
+					++myNodesNumber;
+				}
+				node = child;
+			}
+			if (node.Values == null) {
+				myValuesSize += length + 1;
+			}
+			node.Values = pattern.getValues();
+		}
+
+		boolean isEmpty() {
+			return myNodesNumber == 1;
+		}
+
+		ZLTextTeXHyphenationTrie build() {
+			final int size = myNodesNumber;
+			final int[] childStart = new int[size + 1];
+			final char[] labels = new char[size - 1];
+			final int[] targets = new int[size - 1];
+			final int[] valueStart = new int[size];
+			final byte[] values = new byte[myValuesSize];
+
+			final Node[] queue = new Node[size];
+			queue[0] = myRoot;
+			int count = 1;
+			int valuesCount = 0;
+			for (int i = 0; i < size; ++i) {
+				final Node node = queue[i];
+				childStart[i] = count - 1;
+				for (Map.Entry<Character,Node> entry : node.Children.entrySet()) {
+					labels[count - 1] = entry.getKey();
+					targets[count - 1] = count;
+					queue[count++] = entry.getValue();
+				}
+				if (node.Values != null) {
+					valueStart[i] = valuesCount;
+					System.arraycopy(node.Values, 0, values, valuesCount, node.Values.length);
+					valuesCount += node.Values.length;
+				} else {
+					valueStart[i] = -1;
+				}
+			}
+			childStart[size] = count - 1;
+
+			return new ZLTextTeXHyphenationTrie(childStart, labels, targets, valueStart, values);
+		}
+	}
+
+	private final int[] myChildStart;
+	private final char[] myLabels;
+	private final int[] myTargets;
+	private final int[] myValueStart;
+	private final byte[] myValues;
+
+	private ZLTextTeXHyphenationTrie(int[] childStart, char[] labels, int[] targets, int[] valueStart, byte[] values) {
+		myChildStart = childStart;
+		myLabels = labels;
+		myTargets = targets;
+		myValueStart = valueStart;
+		myValues = values;
+	}
+
+	private int child(int node, char symbol) {
+		final char[] labels = myLabels;
+		int low = myChildStart[node];
+		int high = myChildStart[node + 1] - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final char label = labels[middle];
+			if (label < symbol) {
+				low = middle + 1;
+			} else if (label > symbol) {
+				high = middle - 1;
+			} else {
+				return myTargets[middle];
+			}
+		}
+		return -1;
+	}
+
+	// values must contain at least length + 1 elements
+	void apply(char[] word, int length, byte[] values) {
+		final int[] valueStart = myValueStart;
+		final byte[] patternValues = myValues;
+		for (int offset = 0; offset < length - 1; ++offset) {
+			int node = 0;
+			for (int i = offset; i < length; ++i) {
+				node = child(node, word[i]);
+				if (node == -1) {
+					break;
+				}
+				final int start = valueStart[node];
+				if (start != -1) {
+					for (int j = offset, k = start; j <= i + 1; ++j, ++k) {
+						final byte val = patternValues[k];
+						if (values[j] < val) {
+							values[j] = val;
+						}
+					}
+				}
+			}
+		}
+	}
+}
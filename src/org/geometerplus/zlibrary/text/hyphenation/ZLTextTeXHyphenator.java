@@ -26,12 +26,15 @@ import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
 
 final class ZLTextTeXHyphenator extends ZLTextHyphenator {
-	private final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> myPatternTable =
-		new HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern>();
+	private ZLTextTeXHyphenationTrie.Builder myBuilder;
+	private volatile ZLTextTeXHyphenationTrie myTrie;
+	private byte[] myValues = new byte[32];
 	private String myLanguage;
 
 	void addPattern(ZLTextTeXHyphenationPattern pattern) {
-		myPatternTable.put(pattern, pattern);
+		if (myBuilder != null) {
+			myBuilder.add(pattern);
+		}
 	}
 
 	private List<String> myLanguageCodes;
@@ -64,42 +67,39 @@ final class ZLTextTeXHyphenator extends ZLTextHyphenator {
 		unload();
 
 		if (language != null) {
+			myBuilder = new ZLTextTeXHyphenationTrie.Builder();
 			new ZLTextHyphenationReader(this).readQuietly(ZLResourceFile.createResourceFile(
 				"hyphenationPatterns/" + language + ".pattern"
 			));
+			if (!myBuilder.isEmpty()) {
+				myTrie = myBuilder.build();
+			}
+			myBuilder = null;
 		}
 	}
 
 	public void unload() {
-		myPatternTable.clear();
+		myTrie = null;
+		clearCache();
 	}
 
-	public void hyphenate(char[] stringToHyphenate, boolean[] mask, int length) {
-		if (myPatternTable.isEmpty()) {
+	public synchronized void hyphenate(char[] stringToHyphenate, boolean[] mask, int length) {
+		final ZLTextTeXHyphenationTrie trie = myTrie;
+		if (trie == null) {
 			for (int i = 0; i < length - 1; i++) {
 				mask[i] = false;
 			}
 			return;
 		}
 
-		byte[] values = new byte[length + 1];
-
-		final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> table = myPatternTable;
-		ZLTextTeXHyphenationPattern pattern =
-			new ZLTextTeXHyphenationPattern(stringToHyphenate, 0, length, false);
-		for (int offset = 0; offset < length - 1; offset++) {
-			int len = length - offset + 1;
-			pattern.update(stringToHyphenate, offset, len - 1);
-			while (--len > 0) {
-				pattern.myLength = len;
-				pattern.myHashCode = 0;
-				ZLTextTeXHyphenationPattern toApply =
-					(ZLTextTeXHyphenationPattern)table.get(pattern);
-				if (toApply != null) {
-					toApply.apply(values, offset);
-				}
-			}
+		byte[] values = myValues;
+		if (values.length < length + 1) {
+			values = new byte[length + 33];
+			myValues = values;
+		} else {
+			Arrays.fill(values, 0, length + 1, (byte)0);
 		}
+		trie.apply(stringToHyphenate, length, values);
 
 		for (int i = 0; i < length - 1; i++) {
 			mask[i] = (values[i + 1] % 2) == 1;
@@ -19,7 +19,6 @@
 
 package org.geometerplus.zlibrary.text.model;
 
-import java.lang.ref.WeakReference;
 import java.io.*;
 
 public final class CachedCharStorage extends CachedCharStorageBase {
@@ -37,14 +36,14 @@ public final class CachedCharStorage extends CachedCharStorageBase {
 			blockSize = minimumLength;
 		}
 		char[] block = new char[blockSize];
-		myArray.add(new WeakReference<char[]>(block));
+		myCache.add(block);
 		return block;
 	}
 
 	public void freezeLastBlock() {
-		int index = myArray.size() - 1;
+		int index = myCache.size() - 1;
 		if (index >= 0) {
-			char[] block = myArray.get(index).get();
+			char[] block = myCache.block(index);
 			if (block == null) {
 				throw new CachedCharStorageException("Block reference in null during freeze");
 			}
@@ -19,13 +19,10 @@
 
 package org.geometerplus.zlibrary.text.model;
 
-import java.lang.ref.WeakReference;
 import java.io.*;
-import java.util.ArrayList;
 
-abstract class CachedCharStorageBase implements CharStorage {
-	protected final ArrayList<WeakReference<char[]>> myArray =
-		new ArrayList<WeakReference<char[]>>();
+abstract class CachedCharStorageBase implements CharStorage, CharBlockCache.Loader {
+	protected final CharBlockCache myCache = new CharBlockCache(this);
 
 	private final String myDirectoryName;
 	private final String myFileExtension;
@@ -40,33 +37,37 @@ abstract class CachedCharStorageBase implements CharStorage {
 	}
 
 	public int size() {
-		return myArray.size();
+		return myCache.size();
 	}
 
 	public char[] block(int index) {
-		char[] block = myArray.get(index).get();
-		if (block == null) {
-			try {
-				File file = new File(fileName(index));
-				int size = (int)file.length();
-				if (size < 0) {
-					throw new CachedCharStorageException("Error during reading " + fileName(index));
-				}
-				block = new char[size / 2];
-				InputStreamReader reader =
-					new InputStreamReader(
-						new FileInputStream(file),
-						"UTF-16LE"
-					);
-				if (reader.read(block) != block.length) {
-					throw new CachedCharStorageException("Error during reading " + fileName(index));
-				}
-				reader.close();
-			} catch (IOException e) {
+		return myCache.block(index);
+	}
+
+	public void prefetch(int index) {
+		myCache.prefetch(index);
+	}
+
+	public char[] loadBlock(int index) {
+		try {
+			File file = new File(fileName(index));
+			int size = (int)file.length();
+			if (size < 0) {
+				throw new CachedCharStorageException("Error during reading " + fileName(index));
+			}
+			char[] block = new char[size / 2];
+			InputStreamReader reader =
+				new InputStreamReader(
+					new FileInputStream(file),
+					"UTF-16LE"
+				);
+			if (reader.read(block) != block.length) {
 				throw new CachedCharStorageException("Error during reading " + fileName(index));
 			}
-			myArray.set(index, new WeakReference<char[]>(block));
+			reader.close();
+			return block;
+		} catch (IOException e) {
+			throw new CachedCharStorageException("Error during reading " + fileName(index));
 		}
-		return block;
 	}
 }
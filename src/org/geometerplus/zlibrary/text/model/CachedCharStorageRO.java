@@ -19,13 +19,10 @@
 
 package org.geometerplus.zlibrary.text.model;
 
-import java.lang.ref.WeakReference;
-import java.util.Collections;
-
 public final class CachedCharStorageRO extends CachedCharStorageBase {
 	public CachedCharStorageRO(String directoryName, String fileExtension, int blocksNumber) {
 		super(directoryName, fileExtension);
-		myArray.addAll(Collections.nCopies(blocksNumber, new WeakReference<char[]>(null)));
+		myCache.addAll(blocksNumber);
 	}
 
 	public char[] createNewBlock(int minimumLength) {
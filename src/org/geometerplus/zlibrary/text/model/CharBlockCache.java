@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
+
+/*
+ * Two-tier cache of storage blocks: the most recently used blocks are kept
+ * by strong references, all the other loaded blocks by weak ones.
+ * Statistics are collected over all the caches in the process.
+ */
+public final class CharBlockCache {
+	private static final int BLOCK_SIZE_ESTIMATION = 65536 * 2;
+
+	private static volatile int ourStrongCapacity = defaultStrongCapacity();
+
+	private static int defaultStrongCapacity() {
+		final long capacity = Runtime.getRuntime().maxMemory() / 16 / BLOCK_SIZE_ESTIMATION;
+		return (int)Math.max(2, Math.min(capacity, 16));
+	}
+
+	public static int getStrongCapacity() {
+		return ourStrongCapacity;
+	}
+
+	// affects caches created after the call; 0 means `weak references only'
+	public static void setStrongCapacity(int capacity) {
+		ourStrongCapacity = Math.max(capacity, 0);
+	}
+
+	private static final AtomicLong ourHitCount = new AtomicLong();
+	private static final AtomicLong ourMissCount = new AtomicLong();
+	private static final AtomicLong ourLoadCount = new AtomicLong();
+	private static final AtomicLong ourLoadTime = new AtomicLong();
+	private static final AtomicLong ourPrefetchCount = new AtomicLong();
+
+	public static long hitCount() {
+		return ourHitCount.get();
+	}
+
+	public static long missCount() {
+		return ourMissCount.get();
+	}
+
+	public static long prefetchCount() {
+		return ourPrefetchCount.get();
+	}
+
+	// in microseconds
+	public static long averageLoadTime() {
+		final long count = ourLoadCount.get();
+		return count != 0 ? ourLoadTime.get() / count / 1000 : 0;
+	}
+
+	public static void resetStatistics() {
+		ourHitCount.set(0);
+		ourMissCount.set(0);
+		ourLoadCount.set(0);
+		ourLoadTime.set(0);
+		ourPrefetchCount.set(0);
+	}
+
+	interface Loader {
+		char[] loadBlock(int index);
+	}
+
+	private final Loader myLoader;
+	private final ArrayList<WeakReference<char[]>> myWeakBlocks =
+		new ArrayList<WeakReference<char[]>>();
+	private final LinkedHashMap<Integer,char[]> myStrongBlocks;
+
+	private static final class LastBlock {
+		final int Index;
+		final char[] Block;
+
+		LastBlock(int index, char[] block) {
+			Index = index;
+			Block = block;
+		}
+	}
+
+	// iterators ask for the same block many times in a row;
+	// such requests bypass the cache (and the statistics)
+	private volatile LastBlock myLastBlock = new LastBlock(-1, null);
+
+	CharBlockCache(Loader loader) {
+		myLoader = loader;
+		final int capacity = ourStrongCapacity;
+		myStrongBlocks = new LinkedHashMap<Integer,char[]>(capacity + 1, 1f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,char[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	synchronized int size() {
+		return myWeakBlocks.size();
+	}
+
+	synchronized void add(char[] block) {
+		myWeakBlocks.add(new WeakReference<char[]>(block));
+		if (block != null) {
+			myStrongBlocks.put(myWeakBlocks.size() - 1, block);
+		}
+	}
+
+	synchronized void addAll(int count) {
+		myWeakBlocks.addAll(Collections.nCopies(count, new WeakReference<char[]>(null)));
+	}
+
+	private synchronized char[] peek(int index) {
+		char[] block = myStrongBlocks.get(index);
+		if (block == null) {
+			block = myWeakBlocks.get(index).get();
+			if (block != null) {
+				myStrongBlocks.put(index, block);
+			}
+		}
+		return block;
+	}
+
+	private synchronized void put(int index, char[] block) {
+		myWeakBlocks.set(index, new WeakReference<char[]>(block));
+		myStrongBlocks.put(index, block);
+	}
+
+	private char[] load(int index) {
+		final long startTime = System.nanoTime();
+		final char[] block = myLoader.loadBlock(index);
+		ourLoadCount.incrementAndGet();
+		ourLoadTime.addAndGet(System.nanoTime() - startTime);
+		put(index, block);
+		return block;
+	}
+
+	char[] block(int index) {
+		final LastBlock last = myLastBlock;
+		if (last.Index == index) {
+			return last.Block;
+		}
+		char[] block = peek(index);
+		if (block != null) {
+			ourHitCount.incrementAndGet();
+		} else {
+			ourMissCount.incrementAndGet();
+			block = load(index);
+		}
+		myLastBlock = new LastBlock(index, block);
+		return block;
+	}
+
+	private static final class PrefetchKey {
+		final CharBlockCache Cache;
+		final int Index;
+
+		PrefetchKey(CharBlockCache cache, int index) {
+			Cache = cache;
+			Index = index;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PrefetchKey)) {
+				return false;
+			}
+			final PrefetchKey key = (PrefetchKey)other;
+			return Cache == key.Cache && Index == key.Index;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(Cache) + Index;
+		}
+	}
+
+	void prefetch(final int index) {
+		synchronized (this) {
+			if (index < 0 || index >= myWeakBlocks.size() ||
+				myStrongBlocks.containsKey(index) ||
+				myWeakBlocks.get(index).get() != null) {
+				return;
+			}
+		}
+		// a block already queued for prefetching is not queued again
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Prefetch, new PrefetchKey(this, index), new Runnable() {
+			public void run() {
+				try {
+					if (peek(index) == null) {
+						ourPrefetchCount.incrementAndGet();
+						load(index);
+					}
+				} catch (RuntimeException e) {
+					// the block will be loaded (or the error reported) on demand
+				}
+			}
+		});
+	}
+}
@@ -22,6 +22,8 @@ package org.geometerplus.zlibrary.text.model;
 public interface CharStorage {
 	int size();
 	char[] block(int index);
+	// hint: the block will be requested soon
+	void prefetch(int index);
 	char[] createNewBlock(int minimumLength);
 	void freezeLastBlock();
 }
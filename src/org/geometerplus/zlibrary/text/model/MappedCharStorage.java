@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+
+/*
+ * All the blocks are stored in a single file, one after another;
+ * every block is prefixed with its length (in chars, 32-bit little-endian),
+ * block data are UTF-16LE chars.  Evicted blocks are copied back from
+ * a memory-mapped view of the file, without charset decoding.
+ */
+public final class MappedCharStorage implements CharStorage, CharBlockCache.Loader {
+	private final int myBlockSize;
+	private final String myFileName;
+
+	private final CharBlockCache myCache = new CharBlockCache(this);
+	// offsets of block data in the file, in chars; -1 for not frozen blocks
+	private int[] myOffsets = new int[16];
+	private int[] myLengths = new int[16];
+	private char[] myLastBlock;
+	private long myFileSize;
+
+	private CharBuffer myBuffer;
+
+	public MappedCharStorage(int blockSize, String fileName) {
+		myBlockSize = blockSize;
+		myFileName = fileName;
+		final File file = new File(fileName);
+		file.getParentFile().mkdirs();
+		file.delete();
+	}
+
+	public MappedCharStorage(String fileName) {
+		myBlockSize = 0;
+		myFileName = fileName;
+		final ByteBuffer buffer = map();
+		final int size = buffer.capacity();
+		for (int pos = 0; pos + 4 <= size; ) {
+			final int length = buffer.getInt(pos);
+			pos += 4;
+			addBlock(null, pos / 2, length);
+			pos += 2 * length;
+		}
+		myFileSize = size;
+		myBuffer = buffer.asCharBuffer();
+	}
+
+	public static void store(CharStorage storage, String fileName) throws IOException {
+		final FileChannel channel = new FileOutputStream(fileName).getChannel();
+		try {
+			final int size = storage.size();
+			for (int i = 0; i < size; ++i) {
+				writeBlock(channel, storage.block(i));
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void writeBlock(FileChannel channel, char[] block) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(4 + 2 * block.length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(block.length);
+		buffer.asCharBuffer().put(block);
+		buffer.rewind();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private ByteBuffer map() {
+		try {
+			final RandomAccessFile file = new RandomAccessFile(myFileName, "r");
+			try {
+				final FileChannel channel = file.getChannel();
+				final ByteBuffer buffer =
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				return buffer;
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new CachedCharStorageException("Error during mapping " + myFileName);
+		}
+	}
+
+	private void addBlock(char[] block, int offset, int length) {
+		final int index = myCache.size();
+		if (index == myOffsets.length) {
+			myOffsets = ZLArrayUtils.createCopy(myOffsets, index, index << 1);
+			myLengths = ZLArrayUtils.createCopy(myLengths, index, index << 1);
+		}
+		myOffsets[index] = offset;
+		myLengths[index] = length;
+		myCache.add(block);
+	}
+
+	public int size() {
+		return myCache.size();
+	}
+
+	public char[] block(int index) {
+		return myCache.block(index);
+	}
+
+	public void prefetch(int index) {
+		myCache.prefetch(index);
+	}
+
+	public char[] loadBlock(int index) {
+		final int offset = myOffsets[index];
+		if (offset == -1) {
+			if (index == myCache.size() - 1 && myLastBlock != null) {
+				return myLastBlock;
+			}
+			throw new CachedCharStorageException("Block " + index + " is not frozen");
+		}
+		final char[] block = new char[myLengths[index]];
+		final CharBuffer buffer = buffer(offset + block.length).duplicate();
+		buffer.position(offset);
+		buffer.get(block);
+		return block;
+	}
+
+	private synchronized CharBuffer buffer(int end) {
+		if (myBuffer == null || myBuffer.capacity() < end) {
+			myBuffer = map().asCharBuffer();
+		}
+		return myBuffer;
+	}
+
+	public char[] createNewBlock(int minimumLength) {
+		if (myBlockSize == 0) {
+			throw new UnsupportedOperationException("MappedCharStorage is opened as a read-only storage.");
+		}
+		int blockSize = myBlockSize;
+		if (minimumLength > blockSize) {
+			blockSize = minimumLength;
+		}
+		final char[] block = new char[blockSize];
+		addBlock(block, -1, blockSize);
+		myLastBlock = block;
+		return block;
+	}
+
+	public void freezeLastBlock() {
+		final int index = myCache.size() - 1;
+		if (index < 0 || myOffsets[index] != -1) {
+			return;
+		}
+		final char[] block = myLastBlock;
+		try {
+			final FileChannel channel = new FileOutputStream(myFileName, true).getChannel();
+			try {
+				writeBlock(channel, block);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			throw new CachedCharStorageException("Error during writing " + myFileName);
+		}
+		myOffsets[index] = (int)((myFileSize + 4) / 2);
+		myFileSize += 4 + 2 * block.length;
+		myLastBlock = null;
+	}
+}
@@ -37,6 +37,9 @@ final class SimpleCharStorage implements CharStorage {
 		return myArray.get(index);
 	}
 
+	public void prefetch(int index) {
+	}
+
 	public char[] createNewBlock(int minimumLength) {
 		int blockSize = myBlockSize;
 		if (minimumLength > blockSize) {
@@ -34,11 +34,14 @@ public interface ZLTextModel {
 	ZLTextMark getNextMark(ZLTextMark position);
 	ZLTextMark getPreviousMark(ZLTextMark position);
 
+	// sorted by position; the returned list is a snapshot, later searches do not change it
 	List<ZLTextMark> getMarks();
 
 	// text length for paragraphs from 0 to index
 	int getTextLength(int index);
 	int findParagraphByTextLength(int length);
 
+	// adds marks for all the occurrences in paragraphs [startIndex, endIndex);
+	// returns the number of occurrences found
 	int search(final String text, int startIndex, int endIndex, boolean ignoreCase);
 }
@@ -31,11 +31,27 @@ public class ZLTextNativeModel extends ZLTextPlainModel {
 		byte[] paragraphKinds,
 		String directoryName, String fileExtension, int blocksNumber,
 		Map<String,ZLImage> imageMap
+	) {
+		this(
+			id, language, paragraphsNumber,
+			entryIndices, entryOffsets, paragraphLengths, textSizes, paragraphKinds,
+			new CachedCharStorageRO(directoryName, fileExtension, blocksNumber),
+			imageMap
+		);
+	}
+
+	public ZLTextNativeModel(
+		String id, String language, int paragraphsNumber,
+		int[] entryIndices, int[] entryOffsets,
+		int[] paragraphLengths, int[] textSizes,
+		byte[] paragraphKinds,
+		CharStorage storage,
+		Map<String,ZLImage> imageMap
 	) {
 		super(
 			id, language,
 			entryIndices, entryOffsets, paragraphLengths, textSizes, paragraphKinds,
-			new CachedCharStorageRO(directoryName, fileExtension, blocksNumber),
+			storage,
 			imageMap
 		);
 		myParagraphsNumber = paragraphsNumber;
@@ -19,12 +19,17 @@
 
 package org.geometerplus.zlibrary.text.model;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.image.ZLImage;
 import org.geometerplus.zlibrary.core.util.*;
 
 public class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Feature {
+	// the next block is prefetched when iterator comes this close to the end of the current one
+	private static final int PREFETCH_DISTANCE = 4096;
+
 	private final String myId;
 	private final String myLanguage;
 
@@ -39,7 +44,52 @@ public class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Feature {
 	protected final CharStorage myStorage;
 	protected final Map<String,ZLImage> myImageMap;
 
-	private ArrayList<ZLTextMark> myMarks;
+	/*
+	 * Sorted marks.  A list is never modified after publication: added marks
+	 * are written past its end (or to a new array), then a new list is set,
+	 * so the marks can be read by any thread while a search is running.
+	 */
+	private static final class MarkList extends AbstractList<ZLTextMark> implements RandomAccess {
+		final ZLTextMark[] Array;
+		final int Size;
+
+		MarkList(ZLTextMark[] array, int size) {
+			Array = array;
+			Size = size;
+		}
+
+		@Override
+		public ZLTextMark get(int index) {
+			if (index >= Size) {
+				throw new IndexOutOfBoundsException(index + " >= " + Size);
+			}
+			return Array[index];
+		}
+
+		@Override
+		public int size() {
+			return Size;
+		}
+
+		// index of the first mark that is not less than the position
+		int lowerBound(ZLTextMark position) {
+			int low = 0;
+			int high = Size;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (Array[middle].compareTo(position) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	private static final MarkList EMPTY_MARK_LIST = new MarkList(new ZLTextMark[0], 0);
+
+	private volatile MarkList myMarks = EMPTY_MARK_LIST;
 
 	final class EntryIteratorImpl implements ZLTextParagraph.EntryIterator {
 		private int myCounter;
@@ -48,6 +98,7 @@ public class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Feature {
 
 		int myDataIndex;
 		int myDataOffset;
+		private int myPrefetchedIndex = -1;
 
 		// TextEntry data
 		private char[] myTextData;
@@ -229,6 +280,12 @@ public class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Feature {
 			}
 			++myCounter;
 			myDataOffset = dataOffset;
+			if (dataOffset > data.length - PREFETCH_DISTANCE && myPrefetchedIndex != myDataIndex) {
+				myPrefetchedIndex = myDataIndex;
+				if (myDataIndex + 1 < myStorage.size()) {
+					myStorage.prefetch(myDataIndex + 1);
+				}
+			}
 		}
 	}
 
@@ -263,87 +320,201 @@ public class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Feature {
 	}
 
 	public final ZLTextMark getFirstMark() {
-		return ((myMarks == null) || myMarks.isEmpty()) ? null : myMarks.get(0);
+		final MarkList marks = myMarks;
+		return marks.Size == 0 ? null : marks.Array[0];
 	}
 
 	public final ZLTextMark getLastMark() {
-		return ((myMarks == null) || myMarks.isEmpty()) ? null : myMarks.get(myMarks.size() - 1);
+		final MarkList marks = myMarks;
+		return marks.Size == 0 ? null : marks.Array[marks.Size - 1];
 	}
 
 	public final ZLTextMark getNextMark(ZLTextMark position) {
-		if ((position == null) || (myMarks == null)) {
+		if (position == null) {
 			return null;
 		}
-
-		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
-			if (current.compareTo(position) >= 0) {
-				if ((mark == null) || (mark.compareTo(current) > 0)) {
-					mark = current;
-				}
-			}
-		}
-		return mark;
+		final MarkList marks = myMarks;
+		final int index = marks.lowerBound(position);
+		return index < marks.Size ? marks.Array[index] : null;
 	}
 
 	public final ZLTextMark getPreviousMark(ZLTextMark position) {
-		if ((position == null) || (myMarks == null)) {
+		if (position == null) {
 			return null;
 		}
+		final MarkList marks = myMarks;
+		final int index = marks.lowerBound(position) - 1;
+		return index >= 0 ? marks.Array[index] : null;
+	}
 
-		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
-			if (current.compareTo(position) < 0) {
-				if ((mark == null) || (mark.compareTo(current) < 0)) {
-					mark = current;
+	/*
+	 * The text entries of a paragraph as a single string, the way they are
+	 * searched and indexed (so a word split by a style change is found too).
+	 * Data is null for a paragraph without text.
+	 */
+	final class ParagraphText {
+		private EntryIteratorImpl myIterator;
+		private char[] myBuffer;
+
+		char[] Data;
+		int Offset;
+		int Length;
+
+		void read(int index) {
+			if (myIterator == null) {
+				myIterator = new EntryIteratorImpl(index);
+			} else {
+				myIterator.reset(index);
+			}
+			final EntryIteratorImpl it = myIterator;
+			char[] data = null;
+			int offset = 0;
+			int length = 0;
+			while (it.hasNext()) {
+				it.next();
+				if (it.getType() == ZLTextParagraph.Entry.TEXT) {
+					final int textLength = it.getTextLength();
+					if (data == null) {
+						data = it.getTextData();
+						offset = it.getTextOffset();
+						length = textLength;
+					} else {
+						if (data != myBuffer || myBuffer.length < length + textLength) {
+							char[] buffer = myBuffer;
+							if (buffer == null || buffer.length < length + textLength) {
+								buffer = new char[Math.max(length + textLength, 2 * length)];
+							}
+							System.arraycopy(data, offset, buffer, 0, length);
+							myBuffer = buffer;
+							data = buffer;
+							offset = 0;
+						}
+						System.arraycopy(it.getTextData(), it.getTextOffset(), myBuffer, length, textLength);
+						length += textLength;
+					}
 				}
 			}
+			Data = data;
+			Offset = offset;
+			Length = length;
 		}
-		return mark;
 	}
 
-	public final int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
-		int count = 0;
-		ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
-		myMarks = new ArrayList<ZLTextMark>();
-		if (startIndex > myParagraphsNumber) {
-			startIndex = myParagraphsNumber;
-		}
+	private String mySearchIndexFileName;
+	private boolean mySearchIndexRequested;
+	private volatile ZLTextSearchIndex mySearchIndex;
+	// the index answer for the last searched text
+	private ZLTextSearchIndex.Result myIndexResult;
+
+	/*
+	 * Enables the full-text index stored in the file; the index is read
+	 * (or built) in background when the model is searched for the first time.
+	 */
+	public final synchronized void setSearchIndexFileName(String fileName) {
+		mySearchIndexFileName = fileName;
+	}
+
+	final synchronized void setSearchIndex(ZLTextSearchIndex index) {
+		mySearchIndex = index;
+		myIndexResult = null;
+	}
+
+	public final synchronized int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
+		final ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
+		final int patternLength = pattern.getLength();
 		if (endIndex > myParagraphsNumber) {
 			endIndex = myParagraphsNumber;
 		}
-		int index = startIndex;
-		final EntryIteratorImpl it = new EntryIteratorImpl(index);
-		while (true) {
-			int offset = 0;
-			while (it.hasNext()) {
-				it.next();
-				if (it.getType() == ZLTextParagraph.Entry.TEXT) {
-					char[] textData = it.getTextData();
-					int textOffset = it.getTextOffset();
-					int textLength = it.getTextLength();
-					for (int pos = ZLSearchUtil.find(textData, textOffset, textLength, pattern); pos != -1;
-						pos = ZLSearchUtil.find(textData, textOffset, textLength, pattern, pos + 1)) {
-						myMarks.add(new ZLTextMark(index, offset + pos, pattern.getLength()));
-						++count;
+		if (startIndex < 0) {
+			startIndex = 0;
+		}
+		if (patternLength == 0 || startIndex >= endIndex) {
+			return 0;
+		}
+
+		final ZLTextSearchIndex index = mySearchIndex;
+		ZLTextSearchIndex.Result result = null;
+		if (index != null) {
+			result = myIndexResult;
+			if (result == null || !result.isFor(text, ignoreCase)) {
+				result = index.find(text, ignoreCase);
+				myIndexResult = result;
+			}
+		} else if (mySearchIndexFileName != null && !mySearchIndexRequested) {
+			mySearchIndexRequested = true;
+			ZLTextSearchIndex.loadOrBuild(this, mySearchIndexFileName);
+		}
+
+		final ArrayList<ZLTextMark> found = new ArrayList<ZLTextMark>();
+		if (result != null && result.Marks != null) {
+			found.addAll(result.marks(startIndex, endIndex));
+		} else {
+			final ParagraphText paragraph = new ParagraphText();
+			final BitSet candidates = result != null ? result.Paragraphs : null;
+			for (int i = startIndex; i < endIndex; ++i) {
+				if (candidates != null) {
+					i = candidates.nextSetBit(i);
+					if (i == -1 || i >= endIndex) {
+						break;
 					}
-					offset += textLength;
 				}
+				paragraph.read(i);
+				final char[] data = paragraph.Data;
+				if (data == null) {
+					continue;
+				}
+				final int offset = paragraph.Offset;
+				final int length = paragraph.Length;
+				for (int pos = ZLSearchUtil.find(data, offset, length, pattern); pos != -1;
+					pos = ZLSearchUtil.find(data, offset, length, pattern, pos + 1)) {
+					found.add(new ZLTextMark(i, pos, patternLength));
+				}
+			}
+		}
+
+		addMarks(found);
+		return found.size();
+	}
+
+	private void addMarks(List<ZLTextMark> added) {
+		final int addedSize = added.size();
+		if (addedSize == 0) {
+			return;
+		}
+		final MarkList marks = myMarks;
+		final int size = marks.Size;
+		if (size == 0 || marks.Array[size - 1].compareTo(added.get(0)) < 0) {
+			ZLTextMark[] array = marks.Array;
+			if (array.length < size + addedSize) {
+				array = new ZLTextMark[Math.max(size + addedSize, 2 * size)];
+				System.arraycopy(marks.Array, 0, array, 0, size);
+			}
+			for (int i = 0; i < addedSize; ++i) {
+				array[size + i] = added.get(i);
 			}
-			if (++index >= endIndex) {
-				break;
+			myMarks = new MarkList(array, size + addedSize);
+		} else {
+			final ZLTextMark[] array = new ZLTextMark[Math.max(size + addedSize, 2 * size)];
+			int i = 0, j = 0, k = 0;
+			while (i < size && j < addedSize) {
+				array[k++] = marks.Array[i].compareTo(added.get(j)) <= 0 ? marks.Array[i++] : added.get(j++);
 			}
-			it.reset(index);
+			while (i < size) {
+				array[k++] = marks.Array[i++];
+			}
+			while (j < addedSize) {
+				array[k++] = added.get(j++);
+			}
+			myMarks = new MarkList(array, k);
 		}
-		return count;
 	}
 
 	public final List<ZLTextMark> getMarks() {
-		return (myMarks != null) ? myMarks : Collections.<ZLTextMark>emptyList();
+		return myMarks;
 	}
 
 	public final void removeAllMarks() {
-		myMarks = null;
+		myMarks = EMPTY_MARK_LIST;
 	}
 
 	public final int getParagraphsNumber() {
@@ -361,6 +532,23 @@ public class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Feature {
 		return myTextSizes[Math.max(Math.min(index, myParagraphsNumber - 1), 0)];
 	}
 
+	public final void writeIndex(DataOutput output) throws IOException {
+		final int size = myParagraphsNumber;
+		output.writeInt(size);
+		for (int i = 0; i < size; ++i) {
+			output.writeInt(myStartEntryIndices[i]);
+			output.writeInt(myStartEntryOffsets[i]);
+			output.writeInt(myParagraphLengths[i]);
+			output.writeInt(myTextSizes[i]);
+			output.writeByte(myParagraphKinds[i]);
+		}
+		output.writeInt(myStorage.size());
+	}
+
+	public final void writeBlocks(String fileName) throws IOException {
+		MappedCharStorage.store(myStorage, fileName);
+	}
+
 	private static int binarySearch(int[] array, int length, int value) {
 		int lowIndex = 0;
 		int highIndex = length - 1;
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
+
+/*
+ * Inverted index of the words of a text model.  A word is a maximal run
+ * of letters and digits, case-folded by fold(); for every word the positions of
+ * its occurrences (paragraph index, offset in the paragraph text) are stored
+ * as varints, the paragraph index as a delta, the offset as a delta inside
+ * the same paragraph.
+ *
+ * A query can occur only in the paragraphs containing all its words (a query
+ * word preceded by a non-word character is a prefix of a text word, a query
+ * word followed by such a character is a suffix of a text word, etc.), so
+ * only these paragraphs are scanned; a single-word case-insensitive query
+ * is answered by the positions alone.  A case-insensitive query is not
+ * answered with the index if the search pattern folds its case differently
+ * (e.g. in the Turkish locale).  Statistics are collected over all
+ * the indices.
+ */
+public final class ZLTextSearchIndex {
+	private static final int VERSION = 2;
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final AtomicLong ourQueryCount = new AtomicLong();
+	private static final AtomicLong ourDirectQueryCount = new AtomicLong();
+	private static final AtomicLong ourBuildCount = new AtomicLong();
+	private static final AtomicLong ourBuildTime = new AtomicLong();
+	private static final AtomicLong ourLoadCount = new AtomicLong();
+
+	// number of queries answered with an index
+	public static long queryCount() {
+		return ourQueryCount.get();
+	}
+
+	// number of queries answered without scanning the text at all
+	public static long directQueryCount() {
+		return ourDirectQueryCount.get();
+	}
+
+	public static long buildCount() {
+		return ourBuildCount.get();
+	}
+
+	// in milliseconds
+	public static long averageBuildTime() {
+		final long count = ourBuildCount.get();
+		return count != 0 ? ourBuildTime.get() / count / 1000000 : 0;
+	}
+
+	public static long loadCount() {
+		return ourLoadCount.get();
+	}
+
+	public static void resetStatistics() {
+		ourQueryCount.set(0);
+		ourDirectQueryCount.set(0);
+		ourBuildCount.set(0);
+		ourBuildTime.set(0);
+		ourLoadCount.set(0);
+	}
+
+	// reads the index from the file (or builds and stores it), then attaches it to the model
+	static void loadOrBuild(final ZLTextPlainModel model, final String fileName) {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Maintenance, new Runnable() {
+			public void run() {
+				final String key = key(model);
+				ZLTextSearchIndex index = read(fileName, key);
+				if (index != null) {
+					ourLoadCount.incrementAndGet();
+				} else {
+					final long startTime = System.nanoTime();
+					index = build(model, key);
+					ourBuildCount.incrementAndGet();
+					ourBuildTime.addAndGet(System.nanoTime() - startTime);
+					index.write(fileName);
+				}
+				model.setSearchIndex(index);
+			}
+		});
+	}
+
+	private static String key(ZLTextModel model) {
+		final int size = model.getParagraphsNumber();
+		return model.getId() + '\000' + size + '\000' + (size > 0 ? model.getTextLength(size - 1) : 0);
+	}
+
+	private static final class PostingsWriter {
+		byte[] Data = new byte[8];
+		int Size;
+		private int myParagraph;
+		private int myOffset;
+
+		void add(int paragraph, int offset) {
+			if (paragraph != myParagraph) {
+				writeVarint(paragraph - myParagraph);
+				writeVarint(offset);
+			} else {
+				writeVarint(0);
+				writeVarint(offset - myOffset);
+			}
+			myParagraph = paragraph;
+			myOffset = offset;
+		}
+
+		private void writeVarint(int value) {
+			if (Size + 5 > Data.length) {
+				final byte[] data = new byte[Data.length * 2];
+				System.arraycopy(Data, 0, data, 0, Size);
+				Data = data;
+			}
+			while ((value & ~0x7F) != 0) {
+				Data[Size++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			Data[Size++] = (byte)value;
+		}
+	}
+
+	// lower case for the characters that are the upper (or lower) case of their lower case;
+	// the other characters (e.g. the Kelvin sign) are kept as is, as the search pattern does
+	private static char fold(char c) {
+		final char lower = Character.toLowerCase(c);
+		return lower == c || Character.toUpperCase(lower) == c ? lower : c;
+	}
+
+	// a case-insensitive search (see ZLSearchPattern) accepts the characters of
+	// text.toLowerCase() and text.toUpperCase() at every position; the index words
+	// can be used only if these are exactly the characters folded to the same value
+	private static boolean foldsLikePattern(String text) {
+		final String lower = text.toLowerCase();
+		final String upper = text.toUpperCase();
+		if (lower.length() != text.length() || upper.length() != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); ++i) {
+			final char l = lower.charAt(i);
+			final char u = upper.charAt(i);
+			final char folded = fold(l);
+			if (fold(u) != folded) {
+				return false;
+			}
+			final char other = Character.toUpperCase(folded);
+			if (other != folded && fold(other) == folded) {
+				if (!(l == folded && u == other) && !(l == other && u == folded)) {
+					return false;
+				}
+			} else if (l != folded || u != folded) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static ZLTextSearchIndex build(ZLTextPlainModel model, String key) {
+		final HashMap<String,PostingsWriter> postings = new HashMap<String,PostingsWriter>();
+		final ZLTextPlainModel.ParagraphText paragraph = model.new ParagraphText();
+		char[] word = new char[64];
+		final int size = model.getParagraphsNumber();
+		for (int i = 0; i < size; ++i) {
+			paragraph.read(i);
+			final char[] data = paragraph.Data;
+			if (data == null) {
+				continue;
+			}
+			final int offset = paragraph.Offset;
+			final int end = offset + paragraph.Length;
+			int wordStart = -1;
+			int wordLength = 0;
+			for (int j = offset; j <= end; ++j) {
+				final char c = j < end ? data[j] : ' ';
+				if (Character.isLetterOrDigit(c)) {
+					if (wordStart == -1) {
+						wordStart = j;
+						wordLength = 0;
+					}
+					if (wordLength == word.length) {
+						final char[] newWord = new char[2 * word.length];
+						System.arraycopy(word, 0, newWord, 0, wordLength);
+						word = newWord;
+					}
+					word[wordLength++] = fold(c);
+				} else if (wordStart != -1) {
+					final String w = new String(word, 0, wordLength);
+					PostingsWriter writer = postings.get(w);
+					if (writer == null) {
+						writer = new PostingsWriter();
+						postings.put(w, writer);
+					}
+					writer.add(i, wordStart - offset);
+					wordStart = -1;
+				}
+			}
+		}
+
+		final String[] words = postings.keySet().toArray(new String[postings.size()]);
+		Arrays.sort(words);
+		final int[] starts = new int[words.length + 1];
+		int total = 0;
+		for (int i = 0; i < words.length; ++i) {
+			starts[i] = total;
+			total += postings.get(words[i]).Size;
+		}
+		starts[words.length] = total;
+		final byte[] data = new byte[total];
+		for (int i = 0; i < words.length; ++i) {
+			final PostingsWriter writer = postings.get(words[i]);
+			System.arraycopy(writer.Data, 0, data, starts[i], writer.Size);
+		}
+		return new ZLTextSearchIndex(key, words, starts, data);
+	}
+
+	private final String myKey;
+	// sorted
+	private final String[] myWords;
+	// postings of myWords[i] are myPostings[myPostingStarts[i] .. myPostingStarts[i + 1])
+	private final int[] myPostingStarts;
+	private final byte[] myPostings;
+
+	private ZLTextSearchIndex(String key, String[] words, int[] postingStarts, byte[] postings) {
+		myKey = key;
+		myWords = words;
+		myPostingStarts = postingStarts;
+		myPostings = postings;
+	}
+
+	public int wordsNumber() {
+		return myWords.length;
+	}
+
+	// returns null if the file does not exist or was built for another text
+	static ZLTextSearchIndex read(String fileName, String key) {
+		final File file = new File(fileName);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 32768));
+			if (stream.readInt() != VERSION || !key.equals(stream.readUTF())) {
+				return null;
+			}
+			final int count = stream.readInt();
+			final String[] words = new String[count];
+			final int[] starts = new int[count + 1];
+			for (int i = 0; i < count; ++i) {
+				words[i] = stream.readUTF();
+				starts[i + 1] = stream.readInt();
+			}
+			final byte[] postings = new byte[starts[count]];
+			stream.readFully(postings);
+			return new ZLTextSearchIndex(key, words, starts, postings);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	void write(String fileName) {
+		final File temporary = new File(fileName + TEMPORARY_SUFFIX);
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 32768));
+			stream.writeInt(VERSION);
+			stream.writeUTF(myKey);
+			stream.writeInt(myWords.length);
+			for (int i = 0; i < myWords.length; ++i) {
+				stream.writeUTF(myWords[i]);
+				stream.writeInt(myPostingStarts[i + 1]);
+			}
+			stream.write(myPostings);
+			stream.close();
+			stream = null;
+			if (!temporary.renameTo(new File(fileName))) {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			temporary.delete();
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+				temporary.delete();
+			}
+		}
+	}
+
+	static final class Result {
+		private final String myText;
+		private final boolean myIgnoreCase;
+		// paragraphs the text can occur in; null if the index does not restrict the search
+		final BitSet Paragraphs;
+		// all the occurrences, sorted; null if the paragraphs are to be scanned
+		final List<ZLTextMark> Marks;
+
+		Result(String text, boolean ignoreCase, BitSet paragraphs, List<ZLTextMark> marks) {
+			myText = text;
+			myIgnoreCase = ignoreCase;
+			Paragraphs = paragraphs;
+			Marks = marks;
+		}
+
+		boolean isFor(String text, boolean ignoreCase) {
+			return myIgnoreCase == ignoreCase && myText.equals(text);
+		}
+
+		// occurrences in paragraphs [startIndex, endIndex)
+		List<ZLTextMark> marks(int startIndex, int endIndex) {
+			return Marks.subList(lowerBound(startIndex), lowerBound(endIndex));
+		}
+
+		private int lowerBound(int paragraphIndex) {
+			int low = 0;
+			int high = Marks.size();
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (Marks.get(middle).ParagraphIndex < paragraphIndex) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	private static final int CONTAINS = 0;
+	private static final int PREFIX = 1;
+	private static final int SUFFIX = 2;
+	private static final int EQUALS = 3;
+
+	Result find(String text, boolean ignoreCase) {
+		if (ignoreCase && !foldsLikePattern(text)) {
+			return new Result(text, ignoreCase, null, null);
+		}
+		ourQueryCount.incrementAndGet();
+
+		final int length = text.length();
+		final ArrayList<String> words = new ArrayList<String>();
+		final ArrayList<Integer> kinds = new ArrayList<Integer>();
+		for (int start = 0; start < length; ) {
+			if (!Character.isLetterOrDigit(text.charAt(start))) {
+				++start;
+				continue;
+			}
+			int end = start + 1;
+			while (end < length && Character.isLetterOrDigit(text.charAt(end))) {
+				++end;
+			}
+			final char[] word = new char[end - start];
+			for (int i = start; i < end; ++i) {
+				word[i - start] = fold(text.charAt(i));
+			}
+			words.add(new String(word));
+			kinds.add((start > 0 ? PREFIX : CONTAINS) | (end < length ? SUFFIX : CONTAINS));
+			start = end;
+		}
+		if (words.isEmpty()) {
+			return new Result(text, ignoreCase, null, null);
+		}
+
+		if (ignoreCase && kinds.get(0) == CONTAINS) {
+			ourDirectQueryCount.incrementAndGet();
+			return new Result(text, ignoreCase, null, marks(words.get(0), length));
+		}
+
+		BitSet paragraphs = null;
+		for (int i = 0; i < words.size(); ++i) {
+			final BitSet set = paragraphs(words.get(i), kinds.get(i));
+			if (paragraphs == null) {
+				paragraphs = set;
+			} else {
+				paragraphs.and(set);
+			}
+		}
+		return new Result(text, ignoreCase, paragraphs, null);
+	}
+
+	private boolean matches(String indexWord, String word, int kind) {
+		switch (kind) {
+			default:
+			case CONTAINS:
+				return indexWord.indexOf(word) != -1;
+			case PREFIX:
+				return indexWord.startsWith(word);
+			case SUFFIX:
+				return indexWord.endsWith(word);
+			case EQUALS:
+				return indexWord.equals(word);
+		}
+	}
+
+	// indices of the index words matching the query word
+	private List<Integer> wordIndices(String word, int kind) {
+		final ArrayList<Integer> indices = new ArrayList<Integer>();
+		if (kind == PREFIX || kind == EQUALS) {
+			// the words starting with the query word make a range in the sorted array
+			int index = Arrays.binarySearch(myWords, word);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			for (; index < myWords.length && myWords[index].startsWith(word); ++index) {
+				if (kind == PREFIX || myWords[index].length() == word.length()) {
+					indices.add(index);
+				}
+			}
+		} else {
+			for (int index = 0; index < myWords.length; ++index) {
+				if (matches(myWords[index], word, kind)) {
+					indices.add(index);
+				}
+			}
+		}
+		return indices;
+	}
+
+	private BitSet paragraphs(String word, int kind) {
+		final BitSet set = new BitSet();
+		final byte[] postings = myPostings;
+		for (int index : wordIndices(word, kind)) {
+			final int end = myPostingStarts[index + 1];
+			int paragraph = 0;
+			for (int pos = myPostingStarts[index]; pos < end; ) {
+				int delta = 0;
+				for (int shift = 0; ; shift += 7) {
+					final byte b = postings[pos++];
+					delta |= (b & 0x7F) << shift;
+					if (b >= 0) {
+						break;
+					}
+				}
+				paragraph += delta;
+				set.set(paragraph);
+				// skips the offset
+				while (postings[pos++] < 0);
+			}
+		}
+		return set;
+	}
+
+	private List<ZLTextMark> marks(String word, int length) {
+		final ArrayList<ZLTextMark> marks = new ArrayList<ZLTextMark>();
+		final byte[] postings = myPostings;
+		for (int index : wordIndices(word, CONTAINS)) {
+			final String indexWord = myWords[index];
+			final int end = myPostingStarts[index + 1];
+			int paragraph = 0;
+			int offset = 0;
+			for (int pos = myPostingStarts[index]; pos < end; ) {
+				int delta = 0;
+				for (int shift = 0; ; shift += 7) {
+					final byte b = postings[pos++];
+					delta |= (b & 0x7F) << shift;
+					if (b >= 0) {
+						break;
+					}
+				}
+				int value = 0;
+				for (int shift = 0; ; shift += 7) {
+					final byte b = postings[pos++];
+					value |= (b & 0x7F) << shift;
+					if (b >= 0) {
+						break;
+					}
+				}
+				if (delta != 0) {
+					paragraph += delta;
+					offset = value;
+				} else {
+					offset += value;
+				}
+				for (int i = indexWord.indexOf(word); i != -1; i = indexWord.indexOf(word, i + 1)) {
+					marks.add(new ZLTextMark(paragraph, offset + i, length));
+				}
+			}
+		}
+		Collections.sort(marks);
+		return marks;
+	}
+}
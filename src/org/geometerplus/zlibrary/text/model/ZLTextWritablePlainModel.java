@@ -29,12 +29,16 @@ public final class ZLTextWritablePlainModel extends ZLTextPlainModel implements
 	private int myBlockOffset;
 
 	public ZLTextWritablePlainModel(String id, String language, int arraySize, int dataBlockSize, String directoryName, String extension, Map<String,ZLImage> imageMap) {
+		this(id, language, arraySize, new CachedCharStorage(dataBlockSize, directoryName, extension), imageMap);
+	}
+
+	public ZLTextWritablePlainModel(String id, String language, int arraySize, CharStorage storage, Map<String,ZLImage> imageMap) {
 		super(
 			id, language,
 			new int[arraySize], new int[arraySize],
 			new int[arraySize], new int[arraySize],
 			new byte[arraySize],
-			new CachedCharStorage(dataBlockSize, directoryName, extension),
+			storage,
 			imageMap
 		);
 	}
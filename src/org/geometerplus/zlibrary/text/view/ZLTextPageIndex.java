@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.io.*;
+
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+
+/*
+ * Start positions of all the pages of a text model laid out with a fixed
+ * style and text area size (the layout is identified by the key).
+ * Positions are kept in the text order in three parallel arrays.
+ * An index is filled progressively by the paginator; it can be queried
+ * at any moment, and it is complete when the end of text is reached.
+ */
+final class ZLTextPageIndex {
+	private static final int VERSION = 1;
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	final String Key;
+
+	private int[] myParagraphIndices = new int[64];
+	private int[] myElementIndices = new int[64];
+	private int[] myCharIndices = new int[64];
+	private int mySize;
+	private boolean myIsComplete;
+
+	ZLTextPageIndex(String key) {
+		Key = key;
+	}
+
+	int size() {
+		return mySize;
+	}
+
+	boolean isComplete() {
+		return myIsComplete;
+	}
+
+	void setComplete() {
+		myIsComplete = true;
+	}
+
+	void add(ZLTextPosition position) {
+		add(position.getParagraphIndex(), position.getElementIndex(), position.getCharIndex());
+	}
+
+	private void add(int paragraphIndex, int elementIndex, int charIndex) {
+		if (mySize == myParagraphIndices.length) {
+			final int newLength = mySize << 1;
+			myParagraphIndices = ZLArrayUtils.createCopy(myParagraphIndices, mySize, newLength);
+			myElementIndices = ZLArrayUtils.createCopy(myElementIndices, mySize, newLength);
+			myCharIndices = ZLArrayUtils.createCopy(myCharIndices, mySize, newLength);
+		}
+		myParagraphIndices[mySize] = paragraphIndex;
+		myElementIndices[mySize] = elementIndex;
+		myCharIndices[mySize] = charIndex;
+		++mySize;
+	}
+
+	ZLTextFixedPosition position(int index) {
+		return new ZLTextFixedPosition(
+			myParagraphIndices[index], myElementIndices[index], myCharIndices[index]
+		);
+	}
+
+	// index of the last page starting at or before the position; -1 if there is no such page
+	int pageIndex(ZLTextPosition position) {
+		final int paragraphIndex = position.getParagraphIndex();
+		final int elementIndex = position.getElementIndex();
+		final int charIndex = position.getCharIndex();
+		int low = 0;
+		int high = mySize - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (compare(middle, paragraphIndex, elementIndex, charIndex) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+
+	private int compare(int index, int paragraphIndex, int elementIndex, int charIndex) {
+		if (myParagraphIndices[index] != paragraphIndex) {
+			return myParagraphIndices[index] < paragraphIndex ? -1 : 1;
+		}
+		if (myElementIndices[index] != elementIndex) {
+			return myElementIndices[index] < elementIndex ? -1 : 1;
+		}
+		if (myCharIndices[index] != charIndex) {
+			return myCharIndices[index] < charIndex ? -1 : 1;
+		}
+		return 0;
+	}
+
+	// returns null if the file does not exist or was built for another layout
+	static ZLTextPageIndex read(String fileName, String key) {
+		final File file = new File(fileName);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 32768));
+			if (stream.readInt() != VERSION || !key.equals(stream.readUTF())) {
+				return null;
+			}
+			final ZLTextPageIndex index = new ZLTextPageIndex(key);
+			for (int count = stream.readInt(); count > 0; --count) {
+				index.add(stream.readInt(), stream.readInt(), stream.readInt());
+			}
+			index.setComplete();
+			return index;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	void write(String fileName) {
+		final File temporary = new File(fileName + TEMPORARY_SUFFIX);
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 32768));
+			stream.writeInt(VERSION);
+			stream.writeUTF(Key);
+			stream.writeInt(mySize);
+			for (int i = 0; i < mySize; ++i) {
+				stream.writeInt(myParagraphIndices[i]);
+				stream.writeInt(myElementIndices[i]);
+				stream.writeInt(myCharIndices[i]);
+			}
+			stream.close();
+			stream = null;
+			if (!temporary.renameTo(new File(fileName))) {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			temporary.delete();
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+				temporary.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
+
+/*
+ * Builds page indices on a background thread.  Pages are laid out by the view
+ * itself, under the view lock, in short steps, so painting waits for one step
+ * at most; the task is finished as soon as the view drops the index.
+ * Complete indices are stored in the file given by the view and are read
+ * from it instead of the layout next time.  Statistics are collected over
+ * all the views.
+ */
+public final class ZLTextPaginator {
+	// in nanoseconds
+	private static final long STEP_TIME = 4L * 1000 * 1000;
+
+	private static final AtomicLong ourPageCount = new AtomicLong();
+	private static final AtomicLong ourLayoutTime = new AtomicLong();
+	private static final AtomicLong ourLoadCount = new AtomicLong();
+
+	// number of pages laid out by the paginator
+	public static long pageCount() {
+		return ourPageCount.get();
+	}
+
+	// number of indices read from files
+	public static long loadCount() {
+		return ourLoadCount.get();
+	}
+
+	// in microseconds
+	public static long averagePageTime() {
+		final long count = ourPageCount.get();
+		return count != 0 ? ourLayoutTime.get() / count / 1000 : 0;
+	}
+
+	public static void resetStatistics() {
+		ourPageCount.set(0);
+		ourLayoutTime.set(0);
+		ourLoadCount.set(0);
+	}
+
+	static void start(final ZLTextView view, final ZLTextPageIndex index, final int generation, final String fileName) {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Maintenance, new Runnable() {
+			public void run() {
+				if (fileName != null) {
+					final ZLTextPageIndex stored = ZLTextPageIndex.read(fileName, index.Key);
+					if (stored != null) {
+						ourLoadCount.incrementAndGet();
+						view.setPageIndex(stored, generation);
+						return;
+					}
+				}
+
+				final ZLTextWordCursor cursor = new ZLTextWordCursor();
+				while (true) {
+					final int size = index.size();
+					final long startTime = System.nanoTime();
+					if (!view.paginate(index, generation, cursor, STEP_TIME)) {
+						return;
+					}
+					ourLayoutTime.addAndGet(System.nanoTime() - startTime);
+					ourPageCount.addAndGet(index.size() - size);
+					if (index.isComplete()) {
+						break;
+					}
+					// lets a waiting painter take the view lock
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (fileName != null) {
+					index.write(fileName);
+				}
+			}
+		});
+	}
+}
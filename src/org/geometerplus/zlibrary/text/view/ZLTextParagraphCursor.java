@@ -20,34 +20,33 @@
 package org.geometerplus.zlibrary.text.view;
 
 import java.util.*;
+
 import org.vimgadgets.linebreak.LineBreaker;
 
 import org.geometerplus.zlibrary.core.image.*;
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+import org.geometerplus.zlibrary.core.view.ZLPaintContext;
+
 import org.geometerplus.zlibrary.text.model.*;
 
 public final class ZLTextParagraphCursor {
 	private static final class Processor {
 		private final ZLTextParagraph myParagraph;
 		private final LineBreaker myLineBreaker;
-		private final ArrayList<ZLTextElement> myElements;
+		private final ElementsBuilder myBuilder;
 		private int myOffset;
 		private int myFirstMark;
 		private int myLastMark;
 		private final List<ZLTextMark> myMarks;
 
-		private Processor(ZLTextParagraph paragraph, LineBreaker lineBreaker, List<ZLTextMark> marks, int paragraphIndex, ArrayList<ZLTextElement> elements) {
+		private Processor(ZLTextParagraph paragraph, LineBreaker lineBreaker, List<ZLTextMark> marks, int paragraphIndex, ElementsBuilder builder) {
 			myParagraph = paragraph;
 			myLineBreaker = lineBreaker;
-			myElements = elements;
+			myBuilder = builder;
 			myMarks = marks;
-			final ZLTextMark mark = new ZLTextMark(paragraphIndex, 0, 0);
-			int i;
-			for (i = 0; i < myMarks.size(); i++) {
-				if (((ZLTextMark)myMarks.get(i)).compareTo(mark) >= 0) {
-					break;
-				}
-			}
-			myFirstMark = i;
+			// marks are sorted
+			final int i = Collections.binarySearch(myMarks, new ZLTextMark(paragraphIndex, 0, 0));
+			myFirstMark = i >= 0 ? i : -i - 1;
 			myLastMark = myFirstMark;
 			for (; (myLastMark != myMarks.size()) && (((ZLTextMark)myMarks.get(myLastMark)).ParagraphIndex == paragraphIndex); myLastMark++);
 			myOffset = 0;
@@ -57,7 +56,7 @@ public final class ZLTextParagraphCursor {
 			int hyperlinkDepth = 0;
 			ZLTextHyperlink hyperlink = null;
 
-			final ArrayList<ZLTextElement> elements = myElements;
+			final ElementsBuilder builder = myBuilder;
 			for (ZLTextParagraph.EntryIterator it = myParagraph.iterator(); it.hasNext(); ) {
 				it.next();
 				switch (it.getType()) {
@@ -71,7 +70,7 @@ public final class ZLTextParagraphCursor {
 								hyperlink = null;
 							}
 						}
-						elements.add(ZLTextControlElement.get(it.getControlKind(), it.getControlIsStart()));
+						builder.addElement(ZLTextControlElement.get(it.getControlKind(), it.getControlIsStart()));
 						break;
 					case ZLTextParagraph.Entry.HYPERLINK_CONTROL:
 					{
@@ -81,7 +80,7 @@ public final class ZLTextParagraphCursor {
 								new ZLTextHyperlinkControlElement(
 									it.getControlKind(), hyperlinkType, it.getHyperlinkId()
 								);
-							elements.add(control);
+							builder.addElement(control);
 							hyperlink = control.Hyperlink;
 							hyperlinkDepth = 1;
 						}
@@ -94,40 +93,47 @@ public final class ZLTextParagraphCursor {
 							ZLImageData data = ZLImageManager.Instance().getImageData(image);
 							if (data != null) {
 								if (hyperlink != null) {
-									hyperlink.addElementIndex(elements.size());
+									hyperlink.addElementIndex(builder.Size);
 								}
-								elements.add(new ZLTextImageElement(imageEntry.Id, data, image.getURI(), imageEntry.IsCover));
+								builder.addElement(new ZLTextImageElement(imageEntry.Id, data, image.getURI(), imageEntry.IsCover));
 							}
 						}
 						break;
 					case ZLTextParagraph.Entry.STYLE_CSS:
 					case ZLTextParagraph.Entry.STYLE_OTHER:
-						elements.add(new ZLTextStyleElement(it.getStyleEntry()));
+						builder.addElement(new ZLTextStyleElement(it.getStyleEntry()));
 						break;
 					case ZLTextParagraph.Entry.STYLE_CLOSE:
-						elements.add(ZLTextElement.StyleClose);
+						builder.addElement(ZLTextElement.StyleClose);
 						break;
 					case ZLTextParagraph.Entry.FIXED_HSPACE:
-						elements.add(ZLTextFixedHSpaceElement.getElement(it.getFixedHSpaceLength()));
+						builder.addElement(ZLTextFixedHSpaceElement.getElement(it.getFixedHSpaceLength()));
 						break;
 				}
 			}
 		}
 
-		private static byte[] ourBreaks = new byte[1024];
+		// cursors are also built on the prefill thread
+		private static final ThreadLocal<byte[]> ourBreaks = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[1024];
+			}
+		};
 		private static final int NO_SPACE = 0;
 		private static final int SPACE = 1;
 		//private static final int NON_BREAKABLE_SPACE = 2;
 		private void processTextEntry(final char[] data, final int offset, final int length, ZLTextHyperlink hyperlink) {
 			if (length != 0) {
-				if (ourBreaks.length < length) {
-					ourBreaks = new byte[length];
+				byte[] breaks = ourBreaks.get();
+				if (breaks.length < length) {
+					breaks = new byte[length];
+					ourBreaks.set(breaks);
 				}
-				final byte[] breaks = ourBreaks;
 				myLineBreaker.setLineBreaks(data, offset, length, breaks);
 
 				final ZLTextElement hSpace = ZLTextElement.HSpace;
-				final ArrayList<ZLTextElement> elements = myElements;
+				final ElementsBuilder builder = myBuilder;
 				char ch = 0;
 				char previousChar = 0;
 				int spaceState = NO_SPACE;
@@ -145,7 +151,7 @@ public final class ZLTextParagraphCursor {
 							case SPACE:
 								//if (breaks[index - 1] == LineBreak.NOBREAK || previousChar == '-') {
 								//}
-								elements.add(hSpace);
+								builder.addElement(hSpace);
 								wordStart = index;
 								break;
 							//case NON_BREAKABLE_SPACE:
@@ -165,7 +171,7 @@ public final class ZLTextParagraphCursor {
 				}
 				switch (spaceState) {
 					case SPACE:
-						elements.add(hSpace);
+						builder.addElement(hSpace);
 						break;
 					//case NON_BREAKABLE_SPACE:
 						//break;
@@ -178,23 +184,131 @@ public final class ZLTextParagraphCursor {
 		}
 
 		private final void addWord(char[] data, int offset, int len, int paragraphOffset, ZLTextHyperlink hyperlink) {
-			ZLTextWord word = new ZLTextWord(data, offset, len, paragraphOffset);
+			final int index = myBuilder.addWord(data, offset, len, paragraphOffset);
 			for (int i = myFirstMark; i < myLastMark; ++i) {
 				final ZLTextMark mark = (ZLTextMark)myMarks.get(i);
 				if ((mark.Offset < paragraphOffset + len) && (mark.Offset + mark.Length > paragraphOffset)) {
-					word.addMark(mark.Offset - paragraphOffset, mark.Length);
+					// marked words are materialized at once, marks are kept in the word object
+					myBuilder.word(index).addMark(mark.Offset - paragraphOffset, mark.Length);
 				}
 			}
 			if (hyperlink != null) {
-				hyperlink.addElementIndex(myElements.size());
+				hyperlink.addElementIndex(index);
 			}
-			myElements.add(word);
 		}
 	}
 
 	public final int Index;
 	public final ZLTextModel Model;
-	private final ArrayList<ZLTextElement> myElements = new ArrayList<ZLTextElement>();
+
+	/*
+	 * Every element is described by a single int: a non-negative value is
+	 * a number of the word in the word arrays (data, offset, length,
+	 * paragraph offset, cached width), HSPACE stands for the shared space
+	 * element, and any other value encodes an index in myObjects
+	 * (style, control, image elements).  Words get a ZLTextWord object
+	 * only when someone asks for it via getElement().
+	 */
+	private static final int HSPACE = -1;
+
+	private static int objectCode(int objectIndex) {
+		return -2 - objectIndex;
+	}
+
+	private static final class ElementsBuilder {
+		int Size;
+		int[] Codes = new int[256];
+		int WordsNumber;
+		char[][] WordData = new char[128][];
+		int[] WordOffsets = new int[128];
+		int[] WordLengths = new int[128];
+		int[] ParagraphOffsets = new int[128];
+		ZLTextWord[] Words = new ZLTextWord[128];
+		int ObjectsNumber;
+		ZLTextElement[] Objects = new ZLTextElement[16];
+
+		void reset() {
+			Arrays.fill(WordData, 0, WordsNumber, null);
+			Arrays.fill(Words, 0, WordsNumber, null);
+			Arrays.fill(Objects, 0, ObjectsNumber, null);
+			Size = 0;
+			WordsNumber = 0;
+			ObjectsNumber = 0;
+		}
+
+		private void addCode(int code) {
+			if (Size == Codes.length) {
+				Codes = ZLArrayUtils.createCopy(Codes, Size, Size << 1);
+			}
+			Codes[Size++] = code;
+		}
+
+		void addElement(ZLTextElement element) {
+			if (element == ZLTextElement.HSpace) {
+				addCode(HSPACE);
+				return;
+			}
+			if (ObjectsNumber == Objects.length) {
+				final ZLTextElement[] objects = new ZLTextElement[ObjectsNumber << 1];
+				System.arraycopy(Objects, 0, objects, 0, ObjectsNumber);
+				Objects = objects;
+			}
+			Objects[ObjectsNumber] = element;
+			addCode(objectCode(ObjectsNumber++));
+		}
+
+		int addWord(char[] data, int offset, int length, int paragraphOffset) {
+			final int number = WordsNumber;
+			if (number == WordLengths.length) {
+				final int capacity = number << 1;
+				final char[][] wordData = new char[capacity][];
+				System.arraycopy(WordData, 0, wordData, 0, number);
+				WordData = wordData;
+				WordOffsets = ZLArrayUtils.createCopy(WordOffsets, number, capacity);
+				WordLengths = ZLArrayUtils.createCopy(WordLengths, number, capacity);
+				ParagraphOffsets = ZLArrayUtils.createCopy(ParagraphOffsets, number, capacity);
+				final ZLTextWord[] words = new ZLTextWord[capacity];
+				System.arraycopy(Words, 0, words, 0, number);
+				Words = words;
+			}
+			WordData[number] = data;
+			WordOffsets[number] = offset;
+			WordLengths[number] = length;
+			ParagraphOffsets[number] = paragraphOffset;
+			++WordsNumber;
+			addCode(number);
+			return Size - 1;
+		}
+
+		ZLTextWord word(int index) {
+			final int number = Codes[index];
+			ZLTextWord word = Words[number];
+			if (word == null) {
+				word = new ZLTextWord(WordData[number], WordOffsets[number], WordLengths[number], ParagraphOffsets[number]);
+				Words[number] = word;
+			}
+			return word;
+		}
+	}
+
+	// the builder keeps growing arrays, the cursor gets exactly sized copies
+	private static final ThreadLocal<ElementsBuilder> ourBuilder = new ThreadLocal<ElementsBuilder>() {
+		@Override
+		protected ElementsBuilder initialValue() {
+			return new ElementsBuilder();
+		}
+	};
+
+	private static final int[] EMPTY_CODES = new int[0];
+
+	private int[] myCodes = EMPTY_CODES;
+	private char[][] myWordData;
+	private int[] myWordOffsets;
+	private int[] myWordLengths;
+	private int[] myParagraphOffsets;
+	private int[] myWordWidths;
+	private ZLTextWord[] myWords;
+	private ZLTextElement[] myObjects;
 
 	private ZLTextParagraphCursor(ZLTextModel model, int index) {
 		Model = model;
@@ -205,29 +319,63 @@ public final class ZLTextParagraphCursor {
 	static ZLTextParagraphCursor cursor(ZLTextModel model, int index) {
 		ZLTextParagraphCursor result = ZLTextParagraphCursorCache.get(model, index);
 		if (result == null) {
-			result = new ZLTextParagraphCursor(model, index);
-			ZLTextParagraphCursorCache.put(model, index, result);
+			final int generation = ZLTextParagraphCursorCache.generation();
+			result = ZLTextParagraphCursorCache.put(model, index, build(model, index), generation);
 		}
 		return result;
 	}
 
+	static ZLTextParagraphCursor build(ZLTextModel model, int index) {
+		final long startTime = System.nanoTime();
+		final ZLTextParagraphCursor cursor = new ZLTextParagraphCursor(model, index);
+		ZLTextParagraphCursorCache.registerBuild(System.nanoTime() - startTime);
+		return cursor;
+	}
+
 	private static final char[] SPACE_ARRAY = { ' ' };
 	void fill() {
 		ZLTextParagraph	paragraph = Model.getParagraph(Index);
+		final ElementsBuilder builder = ourBuilder.get();
+		builder.reset();
 		switch (paragraph.getKind()) {
 			case ZLTextParagraph.Kind.TEXT_PARAGRAPH:
-				new Processor(paragraph, new LineBreaker(Model.getLanguage()), Model.getMarks(), Index, myElements).fill();
+				new Processor(paragraph, new LineBreaker(Model.getLanguage()), Model.getMarks(), Index, builder).fill();
 				break;
 			case ZLTextParagraph.Kind.EMPTY_LINE_PARAGRAPH:
-				myElements.add(new ZLTextWord(SPACE_ARRAY, 0, 1, 0));
+				builder.addWord(SPACE_ARRAY, 0, 1, 0);
 				break;
 			default:
 				break;
 		}
+		setElements(builder);
+		builder.reset();
+	}
+
+	private void setElements(ElementsBuilder builder) {
+		myCodes = ZLArrayUtils.createCopy(builder.Codes, builder.Size, builder.Size);
+		final int wordsNumber = builder.WordsNumber;
+		myWordData = new char[wordsNumber][];
+		System.arraycopy(builder.WordData, 0, myWordData, 0, wordsNumber);
+		myWordOffsets = ZLArrayUtils.createCopy(builder.WordOffsets, wordsNumber, wordsNumber);
+		myWordLengths = ZLArrayUtils.createCopy(builder.WordLengths, wordsNumber, wordsNumber);
+		myParagraphOffsets = ZLArrayUtils.createCopy(builder.ParagraphOffsets, wordsNumber, wordsNumber);
+		myWordWidths = new int[wordsNumber];
+		Arrays.fill(myWordWidths, -1);
+		myWords = new ZLTextWord[wordsNumber];
+		System.arraycopy(builder.Words, 0, myWords, 0, wordsNumber);
+		myObjects = new ZLTextElement[builder.ObjectsNumber];
+		System.arraycopy(builder.Objects, 0, myObjects, 0, builder.ObjectsNumber);
 	}
 
 	void clear() {
-		myElements.clear();
+		myCodes = EMPTY_CODES;
+		myWordData = null;
+		myWordOffsets = null;
+		myWordLengths = null;
+		myParagraphOffsets = null;
+		myWordWidths = null;
+		myWords = null;
+		myObjects = null;
 	}
 
 	public boolean isFirst() {
@@ -243,7 +391,7 @@ public final class ZLTextParagraphCursor {
 	}
 
 	int getParagraphLength() {
-		return myElements.size();
+		return myCodes.length;
 	}
 
 	public ZLTextParagraphCursor previous() {
@@ -255,11 +403,52 @@ public final class ZLTextParagraphCursor {
 	}
 
 	ZLTextElement getElement(int index) {
-		try {
-			return myElements.get(index);
-		} catch (IndexOutOfBoundsException e) {
+		if (index < 0 || index >= myCodes.length) {
 			return null;
 		}
+		final int code = myCodes[index];
+		if (code == HSPACE) {
+			return ZLTextElement.HSpace;
+		} else if (code < 0) {
+			return myObjects[objectCode(code)];
+		}
+		ZLTextWord word = myWords[code];
+		if (word == null) {
+			word = new ZLTextWord(myWordData[code], myWordOffsets[code], myWordLengths[code], myParagraphOffsets[code]);
+			myWords[code] = word;
+		}
+		return word;
+	}
+
+	boolean isWord(int index) {
+		return index >= 0 && index < myCodes.length && myCodes[index] >= 0;
+	}
+
+	// the following methods are valid for word elements only
+	char[] getWordData(int index) {
+		return myWordData[myCodes[index]];
+	}
+
+	int getWordOffset(int index) {
+		return myWordOffsets[myCodes[index]];
+	}
+
+	int getWordLength(int index) {
+		return myWordLengths[myCodes[index]];
+	}
+
+	int getWordParagraphOffset(int index) {
+		return myParagraphOffsets[myCodes[index]];
+	}
+
+	int getWordWidth(int index, ZLPaintContext context) {
+		final int number = myCodes[index];
+		int width = myWordWidths[number];
+		if (width <= 1) {
+			width = context.getStringWidth(myWordData[number], myWordOffsets[number], myWordLengths[number]);
+			myWordWidths[number] = width;
+		}
+		return width;
 	}
 
 	ZLTextParagraph getParagraph() {
@@ -268,6 +457,6 @@ public final class ZLTextParagraphCursor {
 
 	@Override
 	public String toString() {
-		return "ZLTextParagraphCursor [" + Index + " (0.." + myElements.size() + ")]";
+		return "ZLTextParagraphCursor [" + Index + " (0.." + myCodes.length + ")]";
 	}
 }
@@ -19,43 +19,212 @@
 
 package org.geometerplus.zlibrary.text.view;
 
-import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
 
-class ZLTextParagraphCursorCache {
-	private final static class Key {
-		private final ZLTextModel myModel;
-		private final int myIndex;
+/*
+ * Paragraph cursors are kept by strong references, in a separate LRU list
+ * for every model; a list is trimmed when the total number of elements
+ * in its cursors exceeds the limit.  Paragraphs following the painted page
+ * are built in advance on a background thread.  Statistics are collected
+ * over all the models.
+ */
+public final class ZLTextParagraphCursorCache {
+	private static final int MAX_ELEMENTS_PER_MODEL = 32768;
+	private static final int PREFILL_PARAGRAPHS = 24;
+
+	private static final class ModelCache extends LinkedHashMap<Integer,ZLTextParagraphCursor> {
+		private static final long serialVersionUID = -6217840793165228431L;
+
+		private int myElementsNumber;
 
-		public Key(ZLTextModel model, int index) {
-			myModel = model;
-			myIndex = index;
+		ModelCache() {
+			super(64, 0.75f, true);
 		}
 
-		public boolean equals(Object o) {
-			Key k = (Key)o;
-			return (myModel == k.myModel) && (myIndex == k.myIndex);
+		void add(int index, ZLTextParagraphCursor cursor) {
+			put(index, cursor);
+			myElementsNumber += cursor.getParagraphLength();
+			final Iterator<ZLTextParagraphCursor> it = values().iterator();
+			// the cursor just added is never evicted
+			while (myElementsNumber > MAX_ELEMENTS_PER_MODEL && size() > 1) {
+				myElementsNumber -= it.next().getParagraphLength();
+				it.remove();
+			}
 		}
+	}
 
-		public int hashCode() {
-			return myModel.hashCode() + myIndex;
+	private static final WeakHashMap<ZLTextModel,ModelCache> ourCaches =
+		new WeakHashMap<ZLTextModel,ModelCache>();
+	// incremented by clear() and invalidate(); cursors built before the call are not stored
+	private static int ourGeneration;
+
+	private static final AtomicLong ourHitCount = new AtomicLong();
+	private static final AtomicLong ourMissCount = new AtomicLong();
+	private static final AtomicLong ourBuildCount = new AtomicLong();
+	private static final AtomicLong ourBuildTime = new AtomicLong();
+	private static final AtomicLong ourPrefillCount = new AtomicLong();
+
+	public static long hitCount() {
+		return ourHitCount.get();
+	}
+
+	public static long missCount() {
+		return ourMissCount.get();
+	}
+
+	public static float hitRate() {
+		final long hits = ourHitCount.get();
+		final long total = hits + ourMissCount.get();
+		return total != 0 ? (float)hits / total : 0;
+	}
+
+	// number of cursors built on the prefill thread
+	public static long prefillCount() {
+		return ourPrefillCount.get();
+	}
+
+	// in microseconds, over all the built cursors
+	public static long averageBuildTime() {
+		final long count = ourBuildCount.get();
+		return count != 0 ? ourBuildTime.get() / count / 1000 : 0;
+	}
+
+	public static void resetStatistics() {
+		ourHitCount.set(0);
+		ourMissCount.set(0);
+		ourBuildCount.set(0);
+		ourBuildTime.set(0);
+		ourPrefillCount.set(0);
+	}
+
+	static synchronized int generation() {
+		return ourGeneration;
+	}
+
+	private static ZLTextParagraphCursor peek(ZLTextModel model, int index) {
+		final ModelCache cache = ourCaches.get(model);
+		return cache != null ? cache.get(index) : null;
+	}
+
+	static synchronized ZLTextParagraphCursor get(ZLTextModel model, int index) {
+		final ZLTextParagraphCursor cursor = peek(model, index);
+		if (cursor != null) {
+			ourHitCount.incrementAndGet();
+		} else {
+			ourMissCount.incrementAndGet();
+		}
+		return cursor;
+	}
+
+	// returns the cached cursor if another thread has stored one first
+	static synchronized ZLTextParagraphCursor put(ZLTextModel model, int index, ZLTextParagraphCursor cursor, int generation) {
+		if (generation != ourGeneration) {
+			return cursor;
+		}
+		ModelCache cache = ourCaches.get(model);
+		if (cache == null) {
+			cache = new ModelCache();
+			ourCaches.put(model, cache);
+		}
+		final ZLTextParagraphCursor existing = cache.get(index);
+		if (existing != null) {
+			return existing;
+		}
+		cache.add(index, cursor);
+		return cursor;
+	}
+
+	static void registerBuild(long time) {
+		ourBuildCount.incrementAndGet();
+		ourBuildTime.addAndGet(time);
+	}
+
+	static synchronized void clear() {
+		++ourGeneration;
+		ourCaches.clear();
+		ourPrefillRequest = null;
+	}
+
+	// drops cursors of paragraphs [start, end), e.g., after marks have been added there
+	static synchronized void invalidate(ZLTextModel model, int start, int end) {
+		++ourGeneration;
+		final ModelCache cache = ourCaches.get(model);
+		if (cache == null) {
+			return;
+		}
+		for (Iterator<Map.Entry<Integer,ZLTextParagraphCursor>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+			final Map.Entry<Integer,ZLTextParagraphCursor> entry = it.next();
+			final int index = entry.getKey();
+			if (index >= start && index < end) {
+				cache.myElementsNumber -= entry.getValue().getParagraphLength();
+				it.remove();
+			}
 		}
 	}
 
-	private static final HashMap<Key,WeakReference<ZLTextParagraphCursor>> ourMap = new HashMap<Key,WeakReference<ZLTextParagraphCursor>>();
+	private static final class PrefillRequest {
+		final ZLTextModel Model;
+		final int Start;
+		final int End;
+		final int Generation;
 
-	public static void put(ZLTextModel model, int index, ZLTextParagraphCursor cursor) {
-		ourMap.put(new Key(model, index), new WeakReference<ZLTextParagraphCursor>(cursor));
+		PrefillRequest(ZLTextModel model, int start, int end, int generation) {
+			Model = model;
+			Start = start;
+			End = end;
+			Generation = generation;
+		}
 	}
 
-	public static ZLTextParagraphCursor get(ZLTextModel model, int index) {
-		WeakReference<ZLTextParagraphCursor> ref = ourMap.get(new Key(model, index));
-		return (ref != null) ? ref.get() : null;
+	// only the most recent request is served; older ones are dropped
+	private static PrefillRequest ourPrefillRequest;
+
+	static synchronized void prefill(ZLTextModel model, int start) {
+		final int end = Math.min(start + PREFILL_PARAGRAPHS, model.getParagraphsNumber());
+		if (start < 0 || start >= end) {
+			return;
+		}
+		ourPrefillRequest = new PrefillRequest(model, start, end, ourGeneration);
+		// a queued prefill task serves the new request
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Prefetch, ZLTextParagraphCursorCache.class, new Runnable() {
+			public void run() {
+				runPrefill();
+			}
+		});
 	}
 
-	public static void clear() {
-		ourMap.clear();
+	private static void runPrefill() {
+		while (true) {
+			final PrefillRequest request;
+			synchronized (ZLTextParagraphCursorCache.class) {
+				request = ourPrefillRequest;
+				ourPrefillRequest = null;
+				if (request == null) {
+					return;
+				}
+			}
+			for (int index = request.Start; index < request.End; ++index) {
+				synchronized (ZLTextParagraphCursorCache.class) {
+					if (ourPrefillRequest != null || request.Generation != ourGeneration) {
+						break;
+					}
+					if (peek(request.Model, index) != null) {
+						continue;
+					}
+				}
+				try {
+					put(request.Model, index, ZLTextParagraphCursor.build(request.Model, index), request.Generation);
+					ourPrefillCount.incrementAndGet();
+				} catch (RuntimeException e) {
+					// e.g. marks changed during the build; the cursor will be built on demand
+					break;
+				}
+			}
+		}
 	}
 }
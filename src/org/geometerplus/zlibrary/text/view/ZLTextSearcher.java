@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
+
+import org.geometerplus.zlibrary.text.model.ZLTextMark;
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/*
+ * Runs text searches on a background thread.  The text is searched by the
+ * view in parts of about CHUNK_LENGTH characters, under the view lock, in
+ * short steps, so painting waits for one step at most.  The first pass goes
+ * from the current position in the search direction, the second one covers
+ * the rest of the range; found marks are reported after every step.
+ * A search is finished as soon as the view starts another one.
+ */
+final class ZLTextSearcher {
+	private static final int CHUNK_LENGTH = 65536;
+	// in nanoseconds
+	private static final long STEP_TIME = 4L * 1000 * 1000;
+
+	static final class Request {
+		final ZLTextModel Model;
+		final int Generation;
+		final String Text;
+		final boolean IgnoreCase;
+		final boolean WholeText;
+		final boolean Backward;
+		// the view goes to the first match after (or before) this mark
+		final ZLTextMark StartMark;
+		final ZLTextView.SearchListener Listener;
+
+		// two parts of the range, the one containing the start mark first;
+		// each part is searched in the direction of search
+		private final int[] myPartStarts = new int[2];
+		private final int[] myPartEnds = new int[2];
+		private int myPart;
+		// the start of the next chunk (forward) or the end of it (backward)
+		private int myPosition;
+
+		int Count;
+		boolean Navigated;
+
+		Request(ZLTextModel model, int generation, String text, boolean ignoreCase, boolean wholeText, boolean backward, ZLTextMark startMark, int startIndex, int endIndex, ZLTextView.SearchListener listener) {
+			Model = model;
+			Generation = generation;
+			Text = text;
+			IgnoreCase = ignoreCase;
+			WholeText = wholeText;
+			Backward = backward;
+			StartMark = startMark;
+			Listener = listener;
+
+			int pivot;
+			if (wholeText || startMark == null) {
+				pivot = backward ? endIndex : startIndex;
+			} else {
+				pivot = backward ? startMark.ParagraphIndex + 1 : startMark.ParagraphIndex;
+			}
+			pivot = Math.max(startIndex, Math.min(pivot, endIndex));
+			if (backward) {
+				setPart(0, startIndex, pivot);
+				setPart(1, pivot, endIndex);
+			} else {
+				setPart(0, pivot, endIndex);
+				setPart(1, startIndex, pivot);
+			}
+			myPosition = backward ? myPartEnds[0] : myPartStarts[0];
+		}
+
+		private void setPart(int index, int start, int end) {
+			myPartStarts[index] = start;
+			myPartEnds[index] = end;
+		}
+
+		private boolean isPartDone() {
+			return Backward ? myPosition <= myPartStarts[myPart] : myPosition >= myPartEnds[myPart];
+		}
+
+		boolean isFinished() {
+			while (myPart < 2 && isPartDone()) {
+				if (++myPart < 2) {
+					myPosition = Backward ? myPartEnds[myPart] : myPartStarts[myPart];
+				}
+			}
+			return myPart == 2;
+		}
+
+		// true while the part containing the start mark is searched
+		boolean isFirstPass() {
+			return myPart == 0;
+		}
+
+		// the next range of paragraphs to search, as {start, end}; null if the search is finished
+		int[] nextChunk() {
+			if (isFinished()) {
+				return null;
+			}
+			if (Backward) {
+				final int end = myPosition;
+				final int length = Model.getTextLength(end - 1) - CHUNK_LENGTH;
+				int start = length > 0 ? Model.findParagraphByTextLength(length) + 1 : 0;
+				start = Math.max(myPartStarts[myPart], Math.min(start, end - 1));
+				myPosition = start;
+				return new int[] { start, end };
+			} else {
+				final int start = myPosition;
+				final int length = (start > 0 ? Model.getTextLength(start - 1) : 0) + CHUNK_LENGTH;
+				int end = Model.findParagraphByTextLength(length) + 1;
+				end = Math.min(myPartEnds[myPart], Math.max(end, start + 1));
+				myPosition = end;
+				return new int[] { start, end };
+			}
+		}
+	}
+
+	static void start(final ZLTextView view, final Request request) {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Load, new Runnable() {
+			public void run() {
+				final ZLTextView.SearchListener listener = request.Listener;
+				while (true) {
+					final int count = view.searchStep(request, STEP_TIME);
+					if (count < 0) {
+						return;
+					}
+					if (count > 0 && listener != null) {
+						listener.onMarksFound(request.Count);
+					}
+					if (request.isFinished()) {
+						break;
+					}
+					// lets a waiting painter take the view lock
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (listener != null) {
+					listener.onSearchFinished(request.Count);
+				}
+			}
+		});
+	}
+}
@@ -25,6 +25,7 @@ import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.zlibrary.core.view.ZLPaintContext;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
+import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.core.util.ZLColor;
 
 import org.geometerplus.zlibrary.text.model.*;
@@ -71,6 +72,8 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
 	public synchronized void setModel(ZLTextModel model) {
 		ZLTextParagraphCursorCache.clear();
+		resetPageIndex();
+		cancelSearch();
 
 		myModel = model;
 		myCurrentPage.reset();
@@ -141,32 +144,123 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		}
 	}
 
-	public synchronized int search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
-		if (text.length() == 0) {
-			return 0;
-		}
-		int startIndex = 0;
-		int endIndex = myModel.getParagraphsNumber();
-		if (thisSectionOnly) {
-			// TODO: implement
+	public interface SearchListener {
+		// both methods are called on the searching thread
+		void onMarksFound(int count);
+		void onSearchFinished(int count);
+	}
+
+	// incremented when a search is started or cancelled; the searcher stops on a change
+	private int mySearchGeneration;
+
+	/*
+	 * Starts a search on a background thread, the previous search is cancelled.
+	 * Marks are added to the model as soon as they are found; the view goes
+	 * to the first match in the search direction as soon as it is known.
+	 */
+	public synchronized void search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly, SearchListener listener) {
+		++mySearchGeneration;
+		if (myModel == null || myModel.getParagraphsNumber() == 0 || text.length() == 0) {
+			if (listener != null) {
+				listener.onSearchFinished(0);
+			}
+			return;
 		}
-		int count = myModel.search(text, startIndex, endIndex, ignoreCase);
+
+		myModel.removeAllMarks();
 		myPreviousPage.reset();
 		myNextPage.reset();
+		ZLTextMark startMark = null;
 		if (!myCurrentPage.StartCursor.isNull()) {
 			rebuildPaintInfo();
-			if (count > 0) {
-				ZLTextMark mark = myCurrentPage.StartCursor.getMark();
-				gotoMark(wholeText ?
-					(backward ? myModel.getLastMark() : myModel.getFirstMark()) :
-					(backward ? myModel.getPreviousMark(mark) : myModel.getNextMark(mark)));
-			}
+			preparePaintInfo(myCurrentPage);
+			startMark = myCurrentPage.StartCursor.getMark();
 			Application.getViewWidget().reset();
 			Application.getViewWidget().repaint();
 		}
+
+		int startIndex = 0;
+		int endIndex = myModel.getParagraphsNumber();
+		if (thisSectionOnly && startMark != null) {
+			startIndex = Math.min(startMark.ParagraphIndex, endIndex - 1);
+			while (startIndex > 0 && !isEndOfSection(startIndex - 1)) {
+				--startIndex;
+			}
+			endIndex = startIndex;
+			while (endIndex < myModel.getParagraphsNumber() && !isEndOfSection(endIndex)) {
+				++endIndex;
+			}
+		}
+
+		ZLTextSearcher.start(this, new ZLTextSearcher.Request(
+			myModel, mySearchGeneration, text, ignoreCase, wholeText, backward,
+			startMark, startIndex, endIndex, listener
+		));
+	}
+
+	private boolean isEndOfSection(int paragraphIndex) {
+		return myModel.getParagraph(paragraphIndex).getKind() == ZLTextParagraph.Kind.END_OF_SECTION_PARAGRAPH;
+	}
+
+	private synchronized void cancelSearch() {
+		++mySearchGeneration;
+	}
+
+	/*
+	 * Searches parts of the text for the request for the given time (in nanoseconds),
+	 * at least one part; the step is finished early when the first marks are found.
+	 * Returns the number of the found marks, or -1 if the search has been cancelled.
+	 */
+	final synchronized int searchStep(ZLTextSearcher.Request request, long time) {
+		if (request.Generation != mySearchGeneration || request.Model != myModel) {
+			return -1;
+		}
+		final long deadline = System.nanoTime() + time;
+		int count = 0;
+		for (int[] chunk = request.nextChunk(); chunk != null; chunk = request.nextChunk()) {
+			final int found = myModel.search(request.Text, chunk[0], chunk[1], request.IgnoreCase);
+			if (found > 0) {
+				count += found;
+				request.Count += found;
+				onMarksAdded(chunk[0], chunk[1]);
+				if (!request.Navigated && request.isFirstPass()) {
+					final ZLTextMark mark;
+					if (request.WholeText) {
+						mark = request.Backward ? myModel.getLastMark() : myModel.getFirstMark();
+					} else {
+						mark = request.Backward
+							? myModel.getPreviousMark(request.StartMark)
+							: myModel.getNextMark(request.StartMark);
+					}
+					if (mark != null) {
+						request.Navigated = true;
+						gotoMark(mark);
+						break;
+					}
+				}
+			}
+			if (System.nanoTime() >= deadline) {
+				break;
+			}
+		}
 		return count;
 	}
 
+	private void onMarksAdded(int startIndex, int endIndex) {
+		ZLTextParagraphCursorCache.invalidate(myModel, startIndex, endIndex);
+
+		final ZLTextWordCursor start = !myPreviousPage.StartCursor.isNull()
+			? myPreviousPage.StartCursor : myCurrentPage.StartCursor;
+		final ZLTextWordCursor end = !myNextPage.EndCursor.isNull()
+			? myNextPage.EndCursor : myCurrentPage.EndCursor;
+		if (start.isNull() || end.isNull() ||
+			(startIndex <= end.getParagraphIndex() && endIndex > start.getParagraphIndex())) {
+			rebuildPaintInfo();
+			Application.getViewWidget().reset();
+			Application.getViewWidget().repaint();
+		}
+	}
+
 	public boolean canFindNext() {
 		final ZLTextWordCursor end = myCurrentPage.EndCursor;
 		return !end.isNull() && (myModel != null) && (myModel.getNextMark(end.getMark()) != null);
@@ -192,6 +286,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public void clearFindResults() {
+		cancelSearch();
 		if (!findResultsAreEmpty()) {
 			myModel.removeAllMarks();
 			rebuildPaintInfo();
@@ -430,6 +525,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		if (page.StartCursor.isNull() || page.EndCursor.isNull()) {
 			return;
 		}
+		ZLTextParagraphCursorCache.prefill(myModel, page.EndCursor.getParagraphIndex() + 1);
 
 		final ArrayList<ZLTextLineInfo> lineInfos = page.LineInfos;
 		final int[] labels = new int[lineInfos.size() + 1];
@@ -640,6 +736,27 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public final synchronized PagePosition pagePosition() {
+		final ZLTextPageIndex index = getPageIndex();
+		if (index != null && index.size() > 0) {
+			preparePaintInfo(myCurrentPage);
+			final ZLTextWordCursor start = myCurrentPage.StartCursor;
+			final ZLTextWordCursor end = myCurrentPage.EndCursor;
+			if (!start.isNull() && !end.isNull()) {
+				if (index.isComplete()) {
+					final int total = index.size();
+					final int current = end.isEndOfText() ? total : index.pageIndex(start) + 1;
+					return new PagePosition(Math.max(current, 1), total);
+				}
+				// the index is being built: the pages behind its end are estimated
+				int current = index.pageIndex(start) + 1;
+				if (current == index.size()) {
+					current = Math.max(current, computeTextPageNumber(getCurrentCharNumber(PageIndex.current, false)));
+				}
+				final int total = Math.max(computeTextPageNumber(sizeOfFullText()), current);
+				return new PagePosition(Math.max(current, 1), total);
+			}
+		}
+
 		int current = computeTextPageNumber(getCurrentCharNumber(PageIndex.current, false));
 		int total = computeTextPageNumber(sizeOfFullText());
 
@@ -690,6 +807,12 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			return;
 		}
 
+		final ZLTextPageIndex index = getPageIndex();
+		if (index != null && index.size() > 0 && (page <= index.size() || index.isComplete())) {
+			gotoPosition(index.position(Math.max(Math.min(page, index.size()), 1) - 1));
+			return;
+		}
+
 		final float factor = computeCharsPerPage();
 		final float textSize = page * factor;
 
@@ -723,6 +846,98 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		gotoPositionByEnd(paragraphIndex, wordIndex, 0);
 	}
 
+	private ZLTextPageIndex myPageIndex;
+	// incremented when the page index is dropped; the paginator stops on a change
+	private int myPaginationGeneration;
+
+	private synchronized void resetPageIndex() {
+		myPageIndex = null;
+		++myPaginationGeneration;
+	}
+
+	// the page index for the current layout; null if the text area is not known yet
+	private ZLTextPageIndex getPageIndex() {
+		if (myModel == null || myModel.getParagraphsNumber() == 0 ||
+			getTextAreaWidth() <= 0 || getTextAreaHeight() <= 0) {
+			return null;
+		}
+		final String key = layoutKey();
+		if (myPageIndex == null || !key.equals(myPageIndex.Key)) {
+			resetPageIndex();
+			myPageIndex = new ZLTextPageIndex(key);
+			ZLTextPaginator.start(
+				this, myPageIndex, myPaginationGeneration,
+				getCacheFileName("pages-" + Integer.toHexString(key.hashCode()))
+			);
+		}
+		return myPageIndex;
+	}
+
+	// everything the page boundaries depend on
+	private String layoutKey() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(myModel.getId()).append('\000');
+		builder.append(myModel.getParagraphsNumber()).append('\000');
+		builder.append(sizeOfFullText()).append('\000');
+		builder.append(getTextAreaWidth()).append('x').append(getTextAreaHeight()).append('\000');
+		builder.append(getLeftMargin()).append(',').append(getRightMargin()).append(',');
+		builder.append(getTopMargin()).append(',').append(getBottomMargin()).append('\000');
+		builder.append(getImageFitting()).append('\000');
+		builder.append(ZLibrary.Instance().getDisplayDPI()).append('\000');
+		builder.append(ZLTextStyleCollection.Instance().getLayoutKey());
+		return builder.toString();
+	}
+
+	// file for a persistent cache entry of the current model; null if entries are not stored
+	protected String getCacheFileName(String name) {
+		return null;
+	}
+
+	final synchronized boolean setPageIndex(ZLTextPageIndex index, int generation) {
+		if (generation != myPaginationGeneration) {
+			return false;
+		}
+		myPageIndex = index;
+		return true;
+	}
+
+	private static final int MAX_PAGINATION_LINE_INFOS = 4096;
+
+	/*
+	 * Lays out pages starting at the cursor for the given time (in nanoseconds),
+	 * at least one page; start positions are added to the index, the cursor
+	 * is moved to the start of the next page.  Returns false if the index has
+	 * been dropped by the view.
+	 */
+	final synchronized boolean paginate(ZLTextPageIndex index, int generation, ZLTextWordCursor cursor, long time) {
+		if (generation != myPaginationGeneration || index != myPageIndex) {
+			return false;
+		}
+		if (cursor.isNull()) {
+			// a new pass
+			myLineInfoCache.clear();
+			cursor.setCursor(ZLTextParagraphCursor.cursor(myModel, 0));
+		}
+		final long deadline = System.nanoTime() + time;
+		final ZLTextPage page = new ZLTextPage();
+		final ZLTextWordCursor next = new ZLTextWordCursor();
+		do {
+			index.add(cursor);
+			buildInfos(page, cursor, next);
+			if (next.isEndOfText() || next.samePositionAs(cursor)) {
+				index.setComplete();
+				myLineInfoCache.clear();
+				break;
+			}
+			cursor.setCursor(next);
+		} while (System.nanoTime() < deadline);
+		// line infos are kept between the steps of a pass, but not for the whole book
+		if (myLineInfoCache.size() > MAX_PAGINATION_LINE_INFOS) {
+			myLineInfoCache.clear();
+		}
+		return true;
+	}
+
 	public void gotoHome() {
 		final ZLTextWordCursor cursor = getStartCursor();
 		if (!cursor.isNull() && cursor.isStartOfParagraph() && cursor.getParagraphIndex() == 0) {
@@ -885,15 +1100,17 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		final boolean isFirstLine = startIndex == 0 && startCharIndex == 0;
 
 		if (isFirstLine) {
-			ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-			while (isStyleChangeElement(element)) {
+			while (!paragraphCursor.isWord(currentElementIndex)) {
+				final ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
+				if (!isStyleChangeElement(element)) {
+					break;
+				}
 				applyStyleChangeElement(element);
 				++currentElementIndex;
 				currentCharIndex = 0;
 				if (currentElementIndex == endIndex) {
 					break;
 				}
-				element = paragraphCursor.getElement(currentElementIndex);
 			}
 			info.StartStyle = getTextStyle();
 			info.RealStartElementIndex = currentElementIndex;
@@ -926,40 +1143,50 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		boolean removeLastSpace = false;
 
 		do {
-			ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-			newWidth += getElementWidth(element, currentCharIndex);
-			newHeight = Math.max(newHeight, getElementHeight(element));
-			newDescent = Math.max(newDescent, getElementDescent(element));
-			if (element == ZLTextElement.HSpace) {
-				if (wordOccurred) {
-					wordOccurred = false;
-					internalSpaceCounter++;
-					lastSpaceWidth = context.getSpaceWidth();
-					newWidth += lastSpaceWidth;
-				}
-			} else if (element instanceof ZLTextWord) {
+			// words are measured by index, without creating word objects
+			final boolean isWord = paragraphCursor.isWord(currentElementIndex);
+			if (isWord) {
+				newWidth += getWordWidth(paragraphCursor, currentElementIndex, currentCharIndex);
+				newHeight = Math.max(newHeight, getWordHeight());
+				newDescent = Math.max(newDescent, context.getDescent());
 				wordOccurred = true;
 				isVisible = true;
-			} else if (element instanceof ZLTextImageElement) {
-				wordOccurred = true;
-				isVisible = true;
-			} else if (isStyleChangeElement(element)) {
-				applyStyleChangeElement(element);
+			} else {
+				final ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
+				newWidth += getElementWidth(element, currentCharIndex);
+				newHeight = Math.max(newHeight, getElementHeight(element));
+				newDescent = Math.max(newDescent, getElementDescent(element));
+				if (element == ZLTextElement.HSpace) {
+					if (wordOccurred) {
+						wordOccurred = false;
+						internalSpaceCounter++;
+						lastSpaceWidth = context.getSpaceWidth();
+						newWidth += lastSpaceWidth;
+					}
+				} else if (element instanceof ZLTextImageElement) {
+					wordOccurred = true;
+					isVisible = true;
+				} else if (isStyleChangeElement(element)) {
+					applyStyleChangeElement(element);
+				}
 			}
 			if (newWidth > maxWidth) {
-				if (info.EndElementIndex != startIndex || element instanceof ZLTextWord) {
+				if (info.EndElementIndex != startIndex || isWord) {
 					break;
 				}
 			}
-			ZLTextElement previousElement = element;
 			++currentElementIndex;
 			currentCharIndex = 0;
 			boolean allowBreak = currentElementIndex == endIndex;
 			if (!allowBreak) {
-				element = paragraphCursor.getElement(currentElementIndex);
-				allowBreak = ((!(element instanceof ZLTextWord) || previousElement instanceof ZLTextWord) &&
+				if (paragraphCursor.isWord(currentElementIndex)) {
+					allowBreak = isWord;
+				} else {
+					final ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
+					allowBreak =
 						!(element instanceof ZLTextImageElement) &&
-						!(element instanceof ZLTextControlElement));
+						!(element instanceof ZLTextControlElement);
+				}
 			}
 			if (allowBreak) {
 				info.IsVisible = isVisible;
@@ -980,10 +1207,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
 		if (currentElementIndex != endIndex &&
 			(isHyphenationPossible() || info.EndElementIndex == startIndex)) {
-			ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-			if (element instanceof ZLTextWord) {
-				final ZLTextWord word = (ZLTextWord)element;
-				newWidth -= getWordWidth(word, currentCharIndex);
+			if (paragraphCursor.isWord(currentElementIndex)) {
+				final ZLTextWord word = (ZLTextWord)paragraphCursor.getElement(currentElementIndex);
+				newWidth -= getWordWidth(paragraphCursor, currentElementIndex, currentCharIndex);
 				int spaceLeft = maxWidth - newWidth;
 				if ((word.Length > 3 && spaceLeft > 2 * context.getSpaceWidth())
 					|| info.EndElementIndex == startIndex) {
@@ -1081,7 +1307,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
 				x += (maxWidth - getTextStyle().getRightIndent() - info.Width) / 2;
 				break;
 			case ZLTextAlignmentType.ALIGN_JUSTIFY:
-				if (!endOfParagraph && (paragraphCursor.getElement(info.EndElementIndex) != ZLTextElement.AfterParagraph)) {
+				if (!endOfParagraph &&
+					(paragraphCursor.isWord(info.EndElementIndex) ||
+					 paragraphCursor.getElement(info.EndElementIndex) != ZLTextElement.AfterParagraph)) {
 					fullCorrection = maxWidth - getTextStyle().getRightIndent() - info.Width;
 				}
 				break;
@@ -1097,7 +1325,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		ZLTextElementArea spaceElement = null;
 		for (int wordIndex = info.RealStartElementIndex; wordIndex != endElementIndex; ++wordIndex, charIndex = 0) {
 			final ZLTextElement element = paragraph.getElement(wordIndex);
-			final int width = getElementWidth(element, charIndex);
+			final int width = getElementWidth(paragraph, wordIndex, charIndex);
 			if (element == ZLTextElement.HSpace) {
 				if (wordOccurred && (spaceCounter > 0)) {
 					final int correction = fullCorrection / spaceCounter;
@@ -1355,6 +1583,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public void clearCaches() {
+		resetPageIndex();
 		resetMetrics();
 		rebuildPaintInfo();
 		Application.getViewWidget().reset();
@@ -145,7 +145,9 @@ abstract class ZLTextViewBase extends ZLView {
 
 	void applyStyleChanges(ZLTextParagraphCursor cursor, int index, int end) {
 		for (; index != end; ++index) {
-			applyStyleChangeElement(cursor.getElement(index));
+			if (!cursor.isWord(index)) {
+				applyStyleChangeElement(cursor.getElement(index));
+			}
 		}
 	}
 
@@ -204,6 +206,12 @@ abstract class ZLTextViewBase extends ZLView {
 		return 0;
 	}
 
+	final int getElementWidth(ZLTextParagraphCursor paragraph, int index, int charIndex) {
+		return paragraph.isWord(index)
+			? getWordWidth(paragraph, index, charIndex)
+			: getElementWidth(paragraph.getElement(index), charIndex);
+	}
+
 	final int getElementHeight(ZLTextElement element) {
 		if (element instanceof ZLTextWord) {
 			return getWordHeight();
@@ -231,6 +239,18 @@ abstract class ZLTextViewBase extends ZLView {
 				myContext.getStringWidth(word.Data, word.Offset + start, word.Length - start);
 	}
 
+	// does not create a word object, see ZLTextParagraphCursor
+	final int getWordWidth(ZLTextParagraphCursor paragraph, int index, int start) {
+		return
+			start == 0 ?
+				paragraph.getWordWidth(index, myContext) :
+				myContext.getStringWidth(
+					paragraph.getWordData(index),
+					paragraph.getWordOffset(index) + start,
+					paragraph.getWordLength(index) - start
+				);
+	}
+
 	final int getWordWidth(ZLTextWord word, int start, int length) {
 		return myContext.getStringWidth(word.Data, word.Offset + start, length);
 	}
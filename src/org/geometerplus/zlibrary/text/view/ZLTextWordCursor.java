@@ -104,11 +104,11 @@ public final class ZLTextWordCursor extends ZLTextPosition {
 		final ZLTextParagraphCursor paragraph = myParagraphCursor;
 		int paragraphLength = paragraph.getParagraphLength();
 		int wordIndex = myElementIndex;
-		while ((wordIndex < paragraphLength) && (!(paragraph.getElement(wordIndex) instanceof ZLTextWord))) {
+		while ((wordIndex < paragraphLength) && !paragraph.isWord(wordIndex)) {
 			wordIndex++;
 		}
 		if (wordIndex < paragraphLength) {
-			return new ZLTextMark(paragraph.Index, ((ZLTextWord)paragraph.getElement(wordIndex)).getParagraphOffset(), 0);
+			return new ZLTextMark(paragraph.Index, paragraph.getWordParagraphOffset(wordIndex), 0);
 		}
 		return new ZLTextMark(paragraph.Index + 1, 0, 0);
 	}
@@ -191,9 +191,8 @@ public final class ZLTextWordCursor extends ZLTextPosition {
 		charIndex = Math.max(0, charIndex);
 		myCharIndex = 0;
 		if (charIndex > 0) {
-			ZLTextElement element = myParagraphCursor.getElement(myElementIndex);
-			if (element instanceof ZLTextWord) {
-				if (charIndex <= ((ZLTextWord)element).Length) {
+			if (myParagraphCursor.isWord(myElementIndex)) {
+				if (charIndex <= myParagraphCursor.getWordLength(myElementIndex)) {
 					myCharIndex = charIndex;
 				}
 			}
@@ -51,4 +51,16 @@ public class ZLTextFullStyleDecoration extends ZLTextStyleDecoration {
 	public ZLTextStyle createDecoratedStyle(ZLTextStyle base, ZLTextHyperlink hyperlink) {
 		return new ZLTextFullyDecoratedStyle(base, this, hyperlink);
 	}
+
+	@Override
+	void appendLayoutKey(StringBuilder builder) {
+		super.appendLayoutKey(builder);
+		builder.append(',').append(SpaceBeforeOption.getValue());
+		builder.append(',').append(SpaceAfterOption.getValue());
+		builder.append(',').append(LeftIndentOption.getValue());
+		builder.append(',').append(RightIndentOption.getValue());
+		builder.append(',').append(FirstLineIndentDeltaOption.getValue());
+		builder.append(',').append(AlignmentOption.getValue());
+		builder.append(',').append(LineSpacePercentOption.getValue());
+	}
 }
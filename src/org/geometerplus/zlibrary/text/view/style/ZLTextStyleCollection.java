@@ -65,6 +65,27 @@ public class ZLTextStyleCollection {
 		return myDecorationMap[kind & 0xFF];
 	}
 
+	// changes whenever any style option affecting text layout changes
+	public String getLayoutKey() {
+		final ZLTextBaseStyle base = myBaseStyle;
+		final StringBuilder builder = new StringBuilder();
+		builder.append(base.getFontFamily()).append(',');
+		builder.append(base.getFontSize()).append(',');
+		builder.append(base.isBold()).append(',').append(base.isItalic()).append(',');
+		builder.append(base.getLineSpacePercent()).append(',').append(base.getAlignment()).append(',');
+		builder.append(base.AutoHyphenationOption.getValue()).append(',');
+		builder.append(UseCSSTextAlignmentOption.getValue()).append(',');
+		builder.append(UseCSSFontSizeOption.getValue());
+		for (int i = 0; i < myDecorationMap.length; ++i) {
+			final ZLTextStyleDecoration decoration = myDecorationMap[i];
+			if (decoration != null) {
+				builder.append('\000').append(i).append(':');
+				decoration.appendLayoutKey(builder);
+			}
+		}
+		return builder.toString();
+	}
+
 	private static class TextStyleReader extends ZLXMLReaderAdapter {
 		private final int myDpi = ZLibrary.Instance().getDisplayDPI();
 		private ZLTextStyleCollection myCollection;
@@ -62,4 +62,14 @@ public class ZLTextStyleDecoration {
 	public String getName() {
 		return myName;
 	}
+
+	// the values of all the options that change text layout
+	void appendLayoutKey(StringBuilder builder) {
+		builder.append(FontFamilyOption.getValue()).append(',');
+		builder.append(FontSizeDeltaOption.getValue()).append(',');
+		builder.append(BoldOption.getValue()).append(',');
+		builder.append(ItalicOption.getValue()).append(',');
+		builder.append(VerticalShiftOption.getValue()).append(',');
+		builder.append(AllowHyphenationsOption.getValue());
+	}
 }
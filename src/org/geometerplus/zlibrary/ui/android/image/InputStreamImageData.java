@@ -24,6 +24,7 @@ import java.io.IOException;
 
 import android.graphics.*;
 
+import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
 import org.geometerplus.zlibrary.core.image.ZLSingleImage;
 
 final class InputStreamImageData extends ZLAndroidImageData {
@@ -33,6 +34,17 @@ final class InputStreamImageData extends ZLAndroidImageData {
 		myImage = image;
 	}
 
+	private String myImageId;
+
+	protected synchronized String getImageId() {
+		if (myImageId == null) {
+			// loadable images (covers, network images) compute URI slowly or do not have it
+			myImageId = myImage instanceof ZLLoadableImage
+				? ((ZLLoadableImage)myImage).getId() : myImage.getURI();
+		}
+		return myImageId;
+	}
+
 	protected Bitmap decodeWithOptions(BitmapFactory.Options options) {
 		final InputStream stream = myImage.inputStream();
 		if (stream == null) {
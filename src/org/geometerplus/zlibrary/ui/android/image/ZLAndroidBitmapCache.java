@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2007-2013 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.ui.android.image;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+
+import org.geometerplus.zlibrary.core.view.ZLPaintContext;
+
+/*
+ * Decoded bitmaps of the process, keyed by (image id, requested size,
+ * scaling type), in the least recently used order.  The cache is bounded
+ * by the total size of the bitmap pixels; evicted bitmaps are not recycled
+ * since they can still be shown by a view.
+ */
+public final class ZLAndroidBitmapCache {
+	private static final AtomicLong ourHitCount = new AtomicLong();
+	private static final AtomicLong ourMissCount = new AtomicLong();
+	private static final AtomicLong ourEvictionCount = new AtomicLong();
+
+	public static long hitCount() {
+		return ourHitCount.get();
+	}
+
+	public static long missCount() {
+		return ourMissCount.get();
+	}
+
+	public static long evictionCount() {
+		return ourEvictionCount.get();
+	}
+
+	public static float hitRate() {
+		final long hits = ourHitCount.get();
+		final long total = hits + ourMissCount.get();
+		return total != 0 ? (float)hits / total : 0;
+	}
+
+	public static void resetStatistics() {
+		ourHitCount.set(0);
+		ourMissCount.set(0);
+		ourEvictionCount.set(0);
+	}
+
+	static final class Key {
+		private final String myImageId;
+		private final int myWidth;
+		private final int myHeight;
+		private final ZLPaintContext.ScalingType myScaling;
+
+		Key(String imageId, ZLPaintContext.Size size, ZLPaintContext.ScalingType scaling) {
+			myImageId = imageId;
+			myWidth = size.Width;
+			myHeight = size.Height;
+			myScaling = scaling;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			return
+				myWidth == key.myWidth &&
+				myHeight == key.myHeight &&
+				myScaling == key.myScaling &&
+				myImageId.equals(key.myImageId);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((myImageId.hashCode() * 31 + myWidth) * 31 + myHeight) * 31 + myScaling.ordinal();
+		}
+	}
+
+	private static final class Entry {
+		final Bitmap Value;
+		// in bytes
+		final long Size;
+
+		Entry(Bitmap bitmap) {
+			Value = bitmap;
+			Size = (long)bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	}
+
+	private static volatile long ourMaxSize = Runtime.getRuntime().maxMemory() / 8;
+	private static long ourSize;
+
+	private static final LinkedHashMap<Key,Entry> ourBitmaps =
+		new LinkedHashMap<Key,Entry>(32, 0.75f, true);
+
+	public static long getMaxSize() {
+		return ourMaxSize;
+	}
+
+	// in bytes
+	public static long getSize() {
+		synchronized (ourBitmaps) {
+			return ourSize;
+		}
+	}
+
+	public static int getEntriesNumber() {
+		synchronized (ourBitmaps) {
+			return ourBitmaps.size();
+		}
+	}
+
+	public static void setMaxSize(long maxSize) {
+		ourMaxSize = Math.max(maxSize, 0);
+		synchronized (ourBitmaps) {
+			trim();
+		}
+	}
+
+	public static void clear() {
+		synchronized (ourBitmaps) {
+			ourBitmaps.clear();
+			ourSize = 0;
+		}
+	}
+
+	static Bitmap get(Key key) {
+		final Entry entry;
+		synchronized (ourBitmaps) {
+			entry = ourBitmaps.get(key);
+		}
+		if (entry != null && !entry.Value.isRecycled()) {
+			ourHitCount.incrementAndGet();
+			return entry.Value;
+		}
+		ourMissCount.incrementAndGet();
+		return null;
+	}
+
+	static void put(Key key, Bitmap bitmap) {
+		final Entry entry = new Entry(bitmap);
+		synchronized (ourBitmaps) {
+			// a single huge bitmap (e.g. a full-size picture) would evict everything else
+			if (entry.Size > ourMaxSize / 4) {
+				return;
+			}
+			final Entry old = ourBitmaps.put(key, entry);
+			if (old != null) {
+				ourSize -= old.Size;
+			}
+			ourSize += entry.Size;
+			trim();
+		}
+	}
+
+	private static void trim() {
+		final long maxSize = ourMaxSize;
+		for (Iterator<Entry> it = ourBitmaps.values().iterator(); ourSize > maxSize && it.hasNext(); ) {
+			ourSize -= it.next().Size;
+			it.remove();
+			ourEvictionCount.incrementAndGet();
+		}
+	}
+
+	private ZLAndroidBitmapCache() {
+	}
+}
@@ -26,6 +26,7 @@ import org.geometerplus.zlibrary.core.image.ZLImageData;
 import org.geometerplus.zlibrary.core.view.ZLPaintContext;
 
 public abstract class ZLAndroidImageData implements ZLImageData {
+	// the last returned bitmap; it is recycled on change only if it is not shared
 	private Bitmap myBitmap;
 	private int myRealWidth;
 	private int myRealHeight;
@@ -37,6 +38,9 @@ public abstract class ZLAndroidImageData implements ZLImageData {
 
 	protected abstract Bitmap decodeWithOptions(BitmapFactory.Options options);
 
+	// a key of decoded bitmaps in ZLAndroidBitmapCache; null means `do not cache'
+	protected abstract String getImageId();
+
 	public Bitmap getFullSizeBitmap() {
 		return getBitmap(null, ZLPaintContext.ScalingType.OriginalSize);
 	}
@@ -45,7 +49,7 @@ public abstract class ZLAndroidImageData implements ZLImageData {
 		return getBitmap(new ZLPaintContext.Size(maxWidth, maxHeight), ZLPaintContext.ScalingType.FitMaximum);
 	}
 
-	public synchronized Bitmap getBitmap(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling) {
+	public Bitmap getBitmap(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling) {
 		if (scaling != ZLPaintContext.ScalingType.OriginalSize) {
 			if (maxSize == null || maxSize.Width <= 0 || maxSize.Height <= 0) {
 				return null;
@@ -54,88 +58,111 @@ public abstract class ZLAndroidImageData implements ZLImageData {
 		if (maxSize == null) {
 			maxSize = new ZLPaintContext.Size(-1, -1);
 		}
-		if (!maxSize.equals(myLastRequestedSize) || scaling != myLastRequestedScaling) {
+
+		final String id = getImageId();
+		synchronized (this) {
+			if (maxSize.equals(myLastRequestedSize) && scaling == myLastRequestedScaling) {
+				return myBitmap;
+			}
 			myLastRequestedSize = maxSize;
 			myLastRequestedScaling = scaling;
 
-			if (myBitmap != null) {
-				myBitmap.recycle();
-				myBitmap = null;
+			if (id == null) {
+				if (myBitmap != null) {
+					myBitmap.recycle();
+				}
+				myBitmap = decode(maxSize, scaling);
+				return myBitmap;
 			}
-			try {
-				final BitmapFactory.Options options = new BitmapFactory.Options();
-				if (myRealWidth <= 0) {
-					options.inJustDecodeBounds = true;
-					decodeWithOptions(options);
-					myRealWidth = options.outWidth;
-					myRealHeight = options.outHeight;
+
+			final ZLAndroidBitmapCache.Key key = new ZLAndroidBitmapCache.Key(id, maxSize, scaling);
+			myBitmap = ZLAndroidBitmapCache.get(key);
+			if (myBitmap == null) {
+				myBitmap = decode(maxSize, scaling);
+				if (myBitmap != null) {
+					ZLAndroidBitmapCache.put(key, myBitmap);
 				}
-				options.inJustDecodeBounds = false;
-				int coefficient = 1;
-				if (scaling == ZLPaintContext.ScalingType.IntegerCoefficient) {
-					if (myRealHeight > maxSize.Height || myRealWidth > maxSize.Width) {
-						coefficient = 1 + Math.max(
-							(myRealHeight - 1) / maxSize.Height,
-							(myRealWidth - 1) / maxSize.Width
-						);
+			}
+			return myBitmap;
+		}
+	}
+
+	private Bitmap decode(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling) {
+		try {
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			if (myRealWidth <= 0) {
+				options.inJustDecodeBounds = true;
+				decodeWithOptions(options);
+				myRealWidth = options.outWidth;
+				myRealHeight = options.outHeight;
+			}
+			options.inJustDecodeBounds = false;
+			int coefficient = 1;
+			if (scaling == ZLPaintContext.ScalingType.IntegerCoefficient) {
+				if (myRealHeight > maxSize.Height || myRealWidth > maxSize.Width) {
+					coefficient = 1 + Math.max(
+						(myRealHeight - 1) / maxSize.Height,
+						(myRealWidth - 1) / maxSize.Width
+					);
+				}
+			}
+			options.inSampleSize = coefficient;
+			final Bitmap bitmap = decodeWithOptions(options);
+			if (bitmap == null) {
+				return null;
+			}
+			switch (scaling) {
+				case OriginalSize:
+					break;
+				case FitMaximum:
+				{
+					final int bWidth = bitmap.getWidth();
+					final int bHeight = bitmap.getHeight();
+					if (bWidth > 0 && bHeight > 0 &&
+						bWidth != maxSize.Width && bHeight != maxSize.Height) {
+						final int w, h;
+						if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
+							w = maxSize.Width;
+							h = Math.max(1, bHeight * w / bWidth);
+						} else {
+							h = maxSize.Height;
+							w = Math.max(1, bWidth * h / bHeight);
+						}
+						final Bitmap scaled =
+							Bitmap.createScaledBitmap(bitmap, w, h, false);
+						if (scaled != null) {
+							return scaled;
+						}
 					}
+					break;
 				}
-				options.inSampleSize = coefficient;
-				myBitmap = decodeWithOptions(options);
-				if (myBitmap != null) {
-					switch (scaling) {
-						case OriginalSize:
-							break;
-						case FitMaximum:
-						{
-							final int bWidth = myBitmap.getWidth();
-							final int bHeight = myBitmap.getHeight();
-							if (bWidth > 0 && bHeight > 0 &&
-								bWidth != maxSize.Width && bHeight != maxSize.Height) {
-								final int w, h;
-								if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
-									w = maxSize.Width;
-									h = Math.max(1, bHeight * w / bWidth);
-								} else {
-									h = maxSize.Height;
-									w = Math.max(1, bWidth * h / bHeight);
-								}
-								final Bitmap scaled =
-									Bitmap.createScaledBitmap(myBitmap, w, h, false);
-								if (scaled != null) {
-									myBitmap = scaled;
-								}
-							}
-							break;
+				case IntegerCoefficient:
+				{
+					final int bWidth = bitmap.getWidth();
+					final int bHeight = bitmap.getHeight();
+					if (bWidth > 0 && bHeight > 0 &&
+						(bWidth > maxSize.Width || bHeight > maxSize.Height)) {
+						final int w, h;
+						if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
+							w = maxSize.Width;
+							h = Math.max(1, bHeight * w / bWidth);
+						} else {
+							h = maxSize.Height;
+							w = Math.max(1, bWidth * h / bHeight);
 						}
-						case IntegerCoefficient:
-						{
-							final int bWidth = myBitmap.getWidth();
-							final int bHeight = myBitmap.getHeight();
-							if (bWidth > 0 && bHeight > 0 &&
-								(bWidth > maxSize.Width || bHeight > maxSize.Height)) {
-								final int w, h;
-								if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
-									w = maxSize.Width;
-									h = Math.max(1, bHeight * w / bWidth);
-								} else {
-									h = maxSize.Height;
-									w = Math.max(1, bWidth * h / bHeight);
-								}
-								final Bitmap scaled =
-									Bitmap.createScaledBitmap(myBitmap, w, h, false);
-								if (scaled != null) {
-									myBitmap = scaled;
-								}
-							}
-							break;
+						final Bitmap scaled =
+							Bitmap.createScaledBitmap(bitmap, w, h, false);
+						if (scaled != null) {
+							return scaled;
 						}
 					}
+					break;
 				}
-			} catch (OutOfMemoryError e) {
-				e.printStackTrace();
 			}
+			return bitmap;
+		} catch (OutOfMemoryError e) {
+			e.printStackTrace();
+			return null;
 		}
-		return myBitmap;
 	}
 }
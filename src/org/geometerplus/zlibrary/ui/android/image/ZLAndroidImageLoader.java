@@ -21,14 +21,12 @@ package org.geometerplus.zlibrary.ui.android.image;
 
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 import android.os.Handler;
 import android.os.Message;
 
 import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 
 class ZLAndroidImageLoader {
 	void startImageLoading(final ZLLoadableImage image, Runnable postLoadingRunnable) {
@@ -44,10 +42,7 @@ class ZLAndroidImageLoader {
 		runnables.add(postLoadingRunnable);
 		myOnImageSyncRunnables.put(image.getId(), runnables);
 
-		final ExecutorService pool =
-			image.sourceType() == ZLLoadableImage.SourceType.DISK
-				? mySinglePool : myPool;
-		pool.execute(new Runnable() {
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Load, new Runnable() {
 			public void run() {
 				image.synchronize();
 				myImageSynchronizedHandler.fireMessage(image.getId());
@@ -55,21 +50,6 @@ class ZLAndroidImageLoader {
 		});
 	}
 
-	private static class MinPriorityThreadFactory implements ThreadFactory {
-		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
-
-		public Thread newThread(Runnable r) {
-			final Thread th = myDefaultThreadFactory.newThread(r);
-			th.setPriority(Thread.MIN_PRIORITY);
-			return th;
-		}
-	}
-
-	private static final int IMAGE_LOADING_THREADS_NUMBER = 3; // TODO: how many threads ???
-
-	private final ExecutorService myPool = Executors.newFixedThreadPool(IMAGE_LOADING_THREADS_NUMBER, new MinPriorityThreadFactory());
-	private final ExecutorService mySinglePool = Executors.newFixedThreadPool(1, new MinPriorityThreadFactory());
-
 	private final HashMap<String, LinkedList<Runnable>> myOnImageSyncRunnables = new HashMap<String, LinkedList<Runnable>>();
 
 	private class ImageSynchronizedHandler extends Handler {
@@ -26,6 +26,7 @@ import java.io.FilenameFilter;
 import android.graphics.Typeface;
 
 import org.geometerplus.zlibrary.core.util.ZLTTFInfoDetector;
+import org.geometerplus.zlibrary.core.view.ZLStringWidthCache;
 
 import org.geometerplus.fbreader.Paths;
 
@@ -130,5 +131,6 @@ public final class AndroidFontUtil {
 	public static void clearFontCache() {
 		ourTypefaces.clear();
 		ourFileSet = null;
+		ZLStringWidthCache.clear();
 	}
 }
@@ -19,85 +19,252 @@
 
 package org.geometerplus.zlibrary.ui.android.view;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import android.graphics.Bitmap;
 
+import org.geometerplus.zlibrary.core.util.ZLTaskScheduler;
 import org.geometerplus.zlibrary.core.view.ZLView;
 
+/*
+ * A ring of page bitmaps, allocated once per widget size and reused.
+ * The pages around the current one are rendered on a background thread,
+ * so a page turn normally finds its bitmap ready.  A background render
+ * draws into a slot that is not visible; the result is published only if
+ * no shift/reset happened meanwhile, otherwise it is thrown away.
+ */
 class BitmapManager {
-	private final int SIZE = 2;
-	private final Bitmap[] myBitmaps = new Bitmap[SIZE];
-	private final ZLView.PageIndex[] myIndexes = new ZLView.PageIndex[SIZE];
+	private static final AtomicLong ourHitCount = new AtomicLong();
+	private static final AtomicLong ourMissCount = new AtomicLong();
+	private static final AtomicLong ourTurnMissCount = new AtomicLong();
+	private static final AtomicLong ourWaitTime = new AtomicLong();
+	private static final AtomicLong ourPrerenderCount = new AtomicLong();
+
+	static long hitCount() {
+		return ourHitCount.get();
+	}
+
+	// pages rendered synchronously, i.e. while a frame was waiting
+	static long missCount() {
+		return ourMissCount.get();
+	}
+
+	// synchronous renders of the previous/next page, i.e. page turns that waited for layout
+	static long turnMissCount() {
+		return ourTurnMissCount.get();
+	}
+
+	static long prerenderCount() {
+		return ourPrerenderCount.get();
+	}
+
+	// in microseconds, per synchronous render
+	static long averageWaitTime() {
+		final long count = ourMissCount.get();
+		return count != 0 ? ourWaitTime.get() / count / 1000 : 0;
+	}
+
+	static void resetStatistics() {
+		ourHitCount.set(0);
+		ourMissCount.set(0);
+		ourTurnMissCount.set(0);
+		ourWaitTime.set(0);
+		ourPrerenderCount.set(0);
+	}
+
+	private static final ZLView.PageIndex[] PRERENDERED_PAGES = {
+		ZLView.PageIndex.next, ZLView.PageIndex.previous
+	};
+
+	private final int mySize;
+	private final Bitmap[] myBitmaps;
+	private final ZLView.PageIndex[] myIndexes;
+	// the slot the render thread draws into, -1 if none
+	private int myRenderingSlot = -1;
+	// changed on every shift, reset or resize; a render of an older generation is obsolete
+	private int myGeneration;
 
 	private int myWidth;
 	private int myHeight;
 
 	private final ZLAndroidWidget myWidget;
 
-	BitmapManager(ZLAndroidWidget widget) {
+	// pages are prerendered only if there is a slot for every page index
+	BitmapManager(ZLAndroidWidget widget, int size) {
 		myWidget = widget;
+		mySize = Math.max(size, 2);
+		myBitmaps = new Bitmap[mySize];
+		myIndexes = new ZLView.PageIndex[mySize];
 	}
 
-	void setSize(int w, int h) {
+	synchronized void setSize(int w, int h) {
 		if (myWidth != w || myHeight != h) {
 			myWidth = w;
 			myHeight = h;
-			for (int i = 0; i < SIZE; ++i) {
+			++myGeneration;
+			for (int i = 0; i < mySize; ++i) {
+				if (i != myRenderingSlot && myBitmaps[i] != null) {
+					myBitmaps[i].recycle();
+				}
 				myBitmaps[i] = null;
 				myIndexes[i] = null;
 			}
-			System.gc();
-			System.gc();
-			System.gc();
 		}
 	}
 
 	Bitmap getBitmap(ZLView.PageIndex index) {
-		for (int i = 0; i < SIZE; ++i) {
-			if (index == myIndexes[i]) {
-				return myBitmaps[i];
+		final int slot;
+		final Bitmap bitmap;
+		synchronized (this) {
+			for (int i = 0; i < mySize; ++i) {
+				if (index == myIndexes[i]) {
+					ourHitCount.incrementAndGet();
+					return myBitmaps[i];
+				}
 			}
+			slot = getInternalIndex(index);
+			myIndexes[slot] = index;
+			bitmap = getOrCreateBitmap(slot);
 		}
-		final int iIndex = getInternalIndex(index);
-		myIndexes[iIndex] = index;
-		if (myBitmaps[iIndex] == null) {
-			try {
-				myBitmaps[iIndex] = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
-			} catch (OutOfMemoryError e) {
-				System.gc();
-				System.gc();
-				myBitmaps[iIndex] = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
-			}
+
+		final long startTime = System.nanoTime();
+		myWidget.drawOnBitmap(bitmap, index);
+		ourMissCount.incrementAndGet();
+		if (index != ZLView.PageIndex.current) {
+			ourTurnMissCount.incrementAndGet();
 		}
-		myWidget.drawOnBitmap(myBitmaps[iIndex], index);
-		return myBitmaps[iIndex];
+		ourWaitTime.addAndGet(System.nanoTime() - startTime);
+		return bitmap;
 	}
 
+	// must be called under the lock
 	private int getInternalIndex(ZLView.PageIndex index) {
-		for (int i = 0; i < SIZE; ++i) {
-			if (myIndexes[i] == null) {
+		for (int i = 0; i < mySize; ++i) {
+			if (myIndexes[i] == null && i != myRenderingSlot) {
 				return i;
 			}
 		}
-		for (int i = 0; i < SIZE; ++i) {
-			if (myIndexes[i] != ZLView.PageIndex.current) {
+		for (int i = 0; i < mySize; ++i) {
+			if (myIndexes[i] != ZLView.PageIndex.current && i != myRenderingSlot) {
 				return i;
 			}
 		}
 		throw new RuntimeException("That's impossible");
 	}
 
-	void reset() {
-		for (int i = 0; i < SIZE; ++i) {
+	// must be called under the lock
+	private Bitmap getOrCreateBitmap(int slot) {
+		if (myBitmaps[slot] == null) {
+			try {
+				myBitmaps[slot] = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
+			} catch (OutOfMemoryError e) {
+				// keep the current page only
+				for (int i = 0; i < mySize; ++i) {
+					if (i != slot && i != myRenderingSlot &&
+						myIndexes[i] != ZLView.PageIndex.current && myBitmaps[i] != null) {
+						myBitmaps[i].recycle();
+						myBitmaps[i] = null;
+						myIndexes[i] = null;
+					}
+				}
+				myBitmaps[slot] = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
+			}
+		}
+		return myBitmaps[slot];
+	}
+
+	synchronized void reset() {
+		++myGeneration;
+		for (int i = 0; i < mySize; ++i) {
 			myIndexes[i] = null;
 		}
 	}
 
-	void shift(boolean forward) {
-		for (int i = 0; i < SIZE; ++i) {
+	synchronized void shift(boolean forward) {
+		++myGeneration;
+		for (int i = 0; i < mySize; ++i) {
 			if (myIndexes[i] == null) {
 				continue;
 			}
 			myIndexes[i] = forward ? myIndexes[i].getPrevious() : myIndexes[i].getNext();
 		}
 	}
+
+	// renders the pages around the current one in background
+	synchronized void prerender() {
+		if (mySize < ZLView.PageIndex.values().length) {
+			return;
+		}
+		// a queued prerender task is not queued again
+		ZLTaskScheduler.submit(ZLTaskScheduler.Lane.Render, this, new Runnable() {
+			public void run() {
+				for (ZLView.PageIndex index : PRERENDERED_PAGES) {
+					render(index);
+				}
+			}
+		});
+	}
+
+	private void render(ZLView.PageIndex index) {
+		if (!myWidget.canScroll(index)) {
+			return;
+		}
+
+		final int slot;
+		final int generation;
+		final int width;
+		final int height;
+		Bitmap bitmap;
+		synchronized (this) {
+			for (int i = 0; i < mySize; ++i) {
+				if (index == myIndexes[i]) {
+					return;
+				}
+			}
+			if (myWidth <= 0 || myHeight <= 0) {
+				return;
+			}
+			slot = getInternalIndex(index);
+			myIndexes[slot] = null;
+			myRenderingSlot = slot;
+			generation = myGeneration;
+			width = myWidth;
+			height = myHeight;
+			bitmap = myBitmaps[slot];
+		}
+
+		try {
+			if (bitmap == null) {
+				bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+			}
+			myWidget.drawOnBitmap(bitmap, index);
+		} catch (OutOfMemoryError e) {
+			bitmap = null;
+		} catch (RuntimeException e) {
+			// the page will be rendered (or the error reported) on demand
+			bitmap = null;
+		}
+
+		synchronized (this) {
+			myRenderingSlot = -1;
+			if (bitmap == null) {
+				return;
+			}
+			if (bitmap.getWidth() != myWidth || bitmap.getHeight() != myHeight) {
+				bitmap.recycle();
+				return;
+			}
+			myBitmaps[slot] = bitmap;
+			if (generation == myGeneration) {
+				for (int i = 0; i < mySize; ++i) {
+					if (index == myIndexes[i]) {
+						// rendered on demand in the meantime
+						return;
+					}
+				}
+				myIndexes[slot] = index;
+				ourPrerenderCount.incrementAndGet();
+			}
+		}
+	}
 }
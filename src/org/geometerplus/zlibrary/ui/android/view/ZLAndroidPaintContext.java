@@ -231,8 +231,18 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 		return myHeight;
 	}
 
+	private static final int WIDTH_AFFECTING_FLAGS =
+		Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG | Paint.SUBPIXEL_TEXT_FLAG | Paint.LINEAR_TEXT_FLAG;
+
 	@Override
-	public int getStringWidth(char[] string, int offset, int length) {
+	protected int getRenderingFlags() {
+		return myTextPaint.getFlags() & WIDTH_AFFECTING_FLAGS;
+	}
+
+	private char[] myCorrectedBuffer = new char[32];
+
+	@Override
+	protected int getStringWidthInternal(char[] string, int offset, int length) {
 		boolean containsSoftHyphen = false;
 		for (int i = offset; i < offset + length; ++i) {
 			if (string[i] == (char)0xAD) {
@@ -241,9 +251,13 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 			}
 		}
 		if (!containsSoftHyphen) {
-			return (int)(myTextPaint.measureText(new String(string, offset, length)) + 0.5f);
+			return (int)(myTextPaint.measureText(string, offset, length) + 0.5f);
 		} else {
-			final char[] corrected = new char[length];
+			char[] corrected = myCorrectedBuffer;
+			if (corrected.length < length) {
+				corrected = new char[length];
+				myCorrectedBuffer = corrected;
+			}
 			int len = 0;
 			for (int o = offset; o < offset + length; ++o) {
 				final char chr = string[o];
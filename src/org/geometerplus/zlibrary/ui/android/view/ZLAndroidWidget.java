@@ -31,8 +31,11 @@ import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.android.fbreader.FBReader;
 
 public class ZLAndroidWidget extends View implements ZLViewWidget, View.OnLongClickListener {
+	// previous, current and next pages
+	private static final int PAGE_BITMAPS_NUMBER = 3;
+
 	private final Paint myPaint = new Paint();
-	private final BitmapManager myBitmapManager = new BitmapManager(this);
+	private final BitmapManager myBitmapManager = new BitmapManager(this, PAGE_BITMAPS_NUMBER);
 	private Bitmap myFooterBitmap;
 
 	public ZLAndroidWidget(Context context, AttributeSet attrs, int defStyle) {
@@ -207,6 +210,17 @@ public class ZLAndroidWidget extends View implements ZLViewWidget, View.OnLongCl
 		postInvalidate();
 	}
 
+	boolean canScroll(ZLView.PageIndex index) {
+		final ZLView view = ZLApplication.Instance().getCurrentView();
+		if (view == null) {
+			return false;
+		}
+		// called from the render thread too; text views paint under their own lock
+		synchronized (view) {
+			return view.canScroll(index);
+		}
+	}
+
 	void drawOnBitmap(Bitmap bitmap, ZLView.PageIndex index) {
 		final ZLView view = ZLApplication.Instance().getCurrentView();
 		if (view == null) {
@@ -253,19 +267,7 @@ public class ZLAndroidWidget extends View implements ZLViewWidget, View.OnLongCl
 		myBitmapManager.setSize(getWidth(), getMainAreaHeight());
 		canvas.drawBitmap(myBitmapManager.getBitmap(ZLView.PageIndex.current), 0, 0, myPaint);
 		drawFooter(canvas);
-		new Thread() {
-			@Override
-			public void run() {
-				final ZLView view = ZLApplication.Instance().getCurrentView();
-				final ZLAndroidPaintContext context = new ZLAndroidPaintContext(
-					canvas,
-					getWidth(),
-					getMainAreaHeight(),
-					view.isScrollbarShown() ? getVerticalScrollbarWidth() : 0
-				);
-				view.preparePage(context, ZLView.PageIndex.next);
-			}
-		}.start();
+		myBitmapManager.prerender();
 	}
 
 	@Override